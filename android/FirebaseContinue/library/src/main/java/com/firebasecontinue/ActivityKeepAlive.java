@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue;
+
+import android.app.Activity;
+import android.app.Application;
+import android.net.TrafficStats;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+/**
+ * Keeps a broadcast Firebase Continue Activity from expiring while the screen (i.e. the Android
+ * Activity) it was broadcast from stays in the foreground, by re-broadcasting it shortly before
+ * it expires.
+ *
+ * Each refresh is made within a window before the Activity expires, rather than on a fixed
+ * timer: as soon as the app is seen using the network for anything else within the window, the
+ * refresh is sent along with it, while the radio is already awake. Only if nothing else uses the
+ * network before the end of the window is the radio woken for the refresh alone.
+ *
+ * The keep-alive stops as soon as the screen is stopped (i.e. is no longer visible), so an
+ * Activity is never kept alive for a screen the user has left. It can also be stopped at any time
+ * with stop().
+ *
+ * Refreshes replace the existing Activity in a single write, so they require the Firebase
+ * Continue database rules in sample-firebase-continue-database.rules.json that allow a newer
+ * Activity to replace an existing one. Each refresh first checks that the Activity is still the
+ * user's most recent one: once the user broadcasts another Activity (from any screen or device),
+ * or the Activity is dismissed, the keep-alive stops rather than offering this one again.
+ *
+ * Create one with
+ * {@link FirebaseContinue#keepActivityToContinueAlive(Activity, String, String)}.
+ * All of its methods must be called on the main thread.
+ */
+public final class ActivityKeepAlive {
+
+    private static final String TAG = "ActivityKeepAlive";
+
+    // How long after a broadcast the refresh window opens, after which any other use of the
+    // network triggers a refresh.
+    private static final long REFRESH_WINDOW_START_MILLIS = 240000;
+
+    // How long after a broadcast the refresh window closes, after which the Activity is refreshed
+    // regardless. This leaves time for the refresh to reach the database before the Activity
+    // expires (5 minutes after it was broadcast).
+    private static final long REFRESH_WINDOW_END_MILLIS = 270000;
+
+    // How often the app's use of the network is checked while the refresh window is open.
+    private static final long NETWORK_CHECK_INTERVAL_MILLIS = 5000;
+
+    private final Activity mScreen;
+    private final String mActivityUrl;
+    private final String mApplicationName;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // When (in SystemClock.elapsedRealtime() time) the Activity was last broadcast.
+    private long mBroadcastAtMillis;
+
+    // The number of bytes the app had sent and received when last checked, or -1 if unknown.
+    private long mLastTrafficBytes = -1;
+
+    // Whether or not a refresh is waiting for the database.
+    private boolean mRefreshing = false;
+
+    private boolean mRunning = false;
+
+    private final Runnable mCheckForRefresh = new Runnable() {
+        @Override
+        public void run() {
+            checkForRefresh();
+        }
+    };
+
+    private final Application.ActivityLifecycleCallbacks mLifecycleCallbacks =
+            new Application.ActivityLifecycleCallbacks() {
+                @Override
+                public void onActivityStopped(Activity activity) {
+                    // The screen is no longer in the foreground.
+                    if (activity == mScreen) {
+                        stop();
+                    }
+                }
+
+                @Override
+                public void onActivityDestroyed(Activity activity) {
+                    if (activity == mScreen) {
+                        stop();
+                    }
+                }
+
+                @Override
+                public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+                @Override
+                public void onActivityStarted(Activity activity) {}
+
+                @Override
+                public void onActivityResumed(Activity activity) {}
+
+                @Override
+                public void onActivityPaused(Activity activity) {}
+
+                @Override
+                public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+            };
+
+    ActivityKeepAlive(Activity screen, String activityUrl, String applicationName) {
+        mScreen = screen;
+        mActivityUrl = activityUrl;
+        mApplicationName = applicationName;
+    }
+
+    /**
+     * Starts keeping the Activity alive, assuming it was just broadcast.
+     */
+    void start() {
+        mRunning = true;
+        mBroadcastAtMillis = SystemClock.elapsedRealtime();
+        mScreen.getApplication().registerActivityLifecycleCallbacks(mLifecycleCallbacks);
+        scheduleCheckForRefresh();
+    }
+
+    /**
+     * Stops keeping the Activity alive. The Activity itself is left as is, and expires as usual.
+     *
+     * This does nothing if the keep-alive has already stopped.
+     */
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+
+        mRunning = false;
+        mHandler.removeCallbacks(mCheckForRefresh);
+        mScreen.getApplication().unregisterActivityLifecycleCallbacks(mLifecycleCallbacks);
+    }
+
+    /**
+     * Gets and returns whether or not the Activity is still being kept alive.
+     *
+     * @return true until stop() is called, the screen is stopped, a refresh fails, or the Activity
+     * is found to no longer be the user's most recent one.
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Schedules the next check of whether the Activity should be refreshed: when the refresh
+     * window opens, or after NETWORK_CHECK_INTERVAL_MILLIS if it is already open.
+     */
+    private void scheduleCheckForRefresh() {
+        long windowStartMillis = mBroadcastAtMillis + REFRESH_WINDOW_START_MILLIS;
+        long now = SystemClock.elapsedRealtime();
+        if (now < windowStartMillis) {
+            mLastTrafficBytes = -1;
+            mHandler.postDelayed(mCheckForRefresh, windowStartMillis - now);
+        } else {
+            mHandler.postDelayed(mCheckForRefresh, NETWORK_CHECK_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Refreshes the Activity if the refresh window has closed, or if the app has used the network
+     * since the last check. Otherwise, schedules the next check.
+     */
+    private void checkForRefresh() {
+        if (!mRunning || mRefreshing) {
+            return;
+        }
+
+        long trafficBytes = getTrafficBytes();
+        boolean networkUsed = mLastTrafficBytes >= 0 && trafficBytes > mLastTrafficBytes;
+        mLastTrafficBytes = trafficBytes;
+
+        long now = SystemClock.elapsedRealtime();
+        if (networkUsed || now >= mBroadcastAtMillis + REFRESH_WINDOW_END_MILLIS) {
+            refresh(now);
+        } else {
+            scheduleCheckForRefresh();
+        }
+    }
+
+    /**
+     * Re-broadcasts the Activity if it is still the user's most recent one, then schedules the
+     * next refresh relative to when the re-broadcast was sent. Otherwise, stops.
+     */
+    private void refresh(final long refreshAtMillis) {
+        mRefreshing = true;
+        Tracing.beginSection("ActivityKeepAlive.refresh");
+        try {
+            FirebaseContinue.refreshActivityToContinue(
+                    mActivityUrl,
+                    mApplicationName
+            ).addOnCompleteListener(new OnCompleteListener<Boolean>() {
+                @Override
+                public void onComplete(Task<Boolean> task) {
+                    mRefreshing = false;
+                    if (!mRunning) {
+                        return;
+                    }
+
+                    if (task.isSuccessful() && task.getResult()) {
+                        mBroadcastAtMillis = refreshAtMillis;
+                        scheduleCheckForRefresh();
+                    } else if (task.isSuccessful()) {
+                        // The user has moved on to another Activity, or dismissed this one.
+                        stop();
+                    } else {
+                        // Retrying would most likely fail the same way (for example, if the user
+                        // signed out), so let the Activity expire.
+                        Log.w(TAG, "Could not refresh the Activity", task.getException());
+                        stop();
+                    }
+                }
+            });
+        } finally {
+            Tracing.endSection();
+        }
+    }
+
+    /**
+     * Gets and returns the number of bytes the app has sent and received over the network, or -1
+     * if this device does not support counting them (in which case the Activity is only ever
+     * refreshed when the refresh window closes).
+     */
+    private static long getTrafficBytes() {
+        int uid = Process.myUid();
+        long receivedBytes = TrafficStats.getUidRxBytes(uid);
+        long sentBytes = TrafficStats.getUidTxBytes(uid);
+        if (receivedBytes == TrafficStats.UNSUPPORTED || sentBytes == TrafficStats.UNSUPPORTED) {
+            return -1;
+        }
+
+        return receivedBytes + sentBytes;
+    }
+}
@@ -14,18 +14,27 @@
 
 package com.firebasecontinue;
 
+import android.util.Log;
+
 import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
 import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.ValueEventListener;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
@@ -43,6 +52,19 @@ import java.util.concurrent.Callable;
  */
 public final class FirebaseContinue {
 
+    // The node at the root of the Firebase Realtime Database which holds all Firebase Continue data.
+    private static final String FIREBASE_CONTINUE_NODE = "firebaseContinue";
+
+    private static final String TAG = "FirebaseContinue";
+
+    // How long after an Activity is added it is no longer relevant to the user. This must match
+    // the window enforced by the Firebase Continue database rules and the other libraries.
+    private static final long ACTIVITY_MAX_AGE_MILLIS = 300000;
+
+    // Deletes the current user's expired Activities each time the app connects to the Firebase
+    // Realtime Database, or null if startDeletingExpiredActivities() has not been called.
+    private static ValueEventListener sDeleteExpiredActivitiesOnConnect = null;
+
     /**
      * Attempts to asynchronously broadcast an Activity (codified as a URL) within an application
      * that the currently signed in user may wish to continue elsewhere (in the immediate future)
@@ -71,26 +93,16 @@ public final class FirebaseContinue {
         return Tasks.call(new Callable<DatabaseReference>() {
             @Override
             public DatabaseReference call() throws Exception {
-                // First, ensure the inputs could be valid.
-                if (activityUrl == null || activityUrl.trim().length() == 0) {
-                    throw new IllegalArgumentException("activityUrl is invalid");
-                } else if (applicationName == null || applicationName.trim().length() == 0) {
-                    throw new IllegalArgumentException("applicationName is invalid");
-                }
-
-                // Next, ensure the current user is signed in.
-                FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
-                if (currentUser == null) {
-                    throw new IllegalStateException("The current user must be signed in");
-                }
-
                 // Provide the proceeding Task with the DatabaseReference for the most recent
                 // Activity the current user may wish to continue (within the context of the
                 // "applicationName" application).
-                return FirebaseDatabase.getInstance().getReference()
-                        .child("firebaseContinue")
-                        .child(applicationName)
-                        .child(currentUser.getUid());
+                Tracing.beginSection("FirebaseContinue.broadcast.getActivityRef");
+                try {
+                    return FirebaseDatabase.getInstance().getReference(
+                            getMostRecentActivityPath(activityUrl, applicationName));
+                } finally {
+                    Tracing.endSection();
+                }
             }
         }).continueWithTask(new Continuation<DatabaseReference, Task<DatabaseReference>>() {
             @Override
@@ -99,64 +111,550 @@ public final class FirebaseContinue {
                 // most recent Activity the user may wish to continue.
                 // We do this because Activities are considered immutable within the database, so
                 // before setting a value any existing value must first be deleted.
-
-                final TaskCompletionSource<DatabaseReference> deletionTaskCompletion =
-                        new TaskCompletionSource<>();
-                DatabaseReference mostRecentActivityRef = task.getResult();
-                mostRecentActivityRef.removeValue(
-                        new DatabaseReference.CompletionListener() {
-                            @Override
-                            public void onComplete(DatabaseError error, DatabaseReference ref) {
-                                if (error == null) {
-                                    // Set that this Task was successful and pass along the
-                                    // DatabaseReference to the next Task.
-                                    deletionTaskCompletion.setResult(ref);
-                                } else {
-                                    // Set that this Task was unsuccessful.
-                                    deletionTaskCompletion.setException(error.toException());
-                                }
-                            }
-                        });
-
-                return deletionTaskCompletion.getTask();
+                Tracing.beginSection("FirebaseContinue.broadcast.removeActivity");
+                try {
+                    return removeValue(task.getResult());
+                } finally {
+                    Tracing.endSection();
+                }
             }
         }).continueWithTask(new Continuation<DatabaseReference, Task<Void>>() {
             @Override
             public Task<Void> then(Task<DatabaseReference> task) throws Exception {
                 // Now we can set the new value for the most recent Activity the user may wish
                 // to continue within the application, since any previous value has been deleted.
+                Tracing.beginSection("FirebaseContinue.broadcast.setActivity");
+                try {
+                    return setValue(task.getResult(), createActivity(activityUrl));
+                } finally {
+                    Tracing.endSection();
+                }
+            }
+        });
+    }
 
-                // Create a Firebase Continue Activity to use as the new most recent Activity
-                // the user may wish to continue within the application.
-                // The schema of each Activity is defined in
-                // sample-firebase-continue-database.rules.json.
-                Map<String, Object> activityMetadata = new HashMap<>();
-                activityMetadata.put("addedAt", ServerValue.TIMESTAMP);
-                Map<String, Object> activity = new HashMap<>();
-                activity.put("url", activityUrl);
-                activity.put("metadata", activityMetadata);
-
-                final TaskCompletionSource<Void> setValueTaskCompletion =
-                        new TaskCompletionSource<>();
-                DatabaseReference mostRecentActivityRef = task.getResult();
-                mostRecentActivityRef.setValue(
-                        activity,
-                        new DatabaseReference.CompletionListener() {
-                            @Override
-                            public void onComplete(DatabaseError error, DatabaseReference ref) {
-                                if (error == null) {
-                                    // Set that this Task was successful.
-                                    setValueTaskCompletion.setResult(null);
-                                } else {
-                                    // Set that this Task was unsuccessful.
-                                    setValueTaskCompletion.setException(error.toException());
+    /**
+     * Attempts to asynchronously broadcast an Activity (codified as a URL) within an application
+     * that the currently signed in user may wish to continue elsewhere, together with other
+     * changes to the Firebase Realtime Database that the Activity depends on.
+     *
+     * Unlike {@link #broadcastActivityToContinue(String, String)}, the Activity and all of the
+     * additional updates are committed in a single atomic multi-path update: either all of them
+     * are written or none of them are, and only one round trip to the database is made. This is
+     * useful when, for example, the data the activityUrl refers to must be saved before the user
+     * could continue their Activity elsewhere.
+     *
+     * Since the most recent Activity is replaced rather than first deleted, this requires the
+     * Firebase Continue database rules in sample-firebase-continue-database.rules.json that allow
+     * a newer Activity to replace an existing one.
+     *
+     * @param activityUrl The URL which, if the current user were to navigate to,
+     *                    would allow the user to continue their Activity.
+     * @param applicationName The name of the application, as defined in the Firebase Realtime
+     *                        Database rules for Firebase Continue, that the user's Activity is
+     *                        within.
+     * @param additionalUpdates The values to set, keyed by their paths relative to the root of the
+     *                          Firebase Realtime Database, to commit along with the Activity.
+     *                          A null value deletes the data at its path. None of the paths may
+     *                          be within the Firebase Continue data itself.
+     * @return A Task which, upon completion, signals whether or not the Activity and all of the
+     * additional updates were successfully written, or that none of them were. To understand how
+     * to use Tasks, see: https://developers.google.com/android/guides/tasks.
+     */
+    public static Task<Void> broadcastActivityToContinue(
+            final String activityUrl,
+            final String applicationName,
+            final Map<String, Object> additionalUpdates) {
+        return Tasks.call(new Callable<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> call() throws Exception {
+                Tracing.beginSection("FirebaseContinue.broadcastWithUpdates.createUpdates");
+                try {
+                    return createUpdates(activityUrl, applicationName, additionalUpdates);
+                } finally {
+                    Tracing.endSection();
+                }
+            }
+        }).continueWithTask(new Continuation<Map<String, Object>, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Map<String, Object>> task) throws Exception {
+                Tracing.beginSection("FirebaseContinue.broadcastWithUpdates.updateChildren");
+                try {
+                    return updateChildren(task.getResult());
+                } finally {
+                    Tracing.endSection();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts keeping an Activity that was just successfully broadcast from expiring for as long as
+     * the provided screen stays in the foreground, by re-broadcasting it shortly before it would
+     * expire. This is opt-in, for screens the user may stay on for longer than an Activity stays
+     * relevant (5 minutes), such as an editor.
+     *
+     * Refreshes are sent along with the app's other use of the network where possible, and the
+     * keep-alive stops automatically once the screen is stopped. For more details, see
+     * {@link ActivityKeepAlive}.
+     *
+     * This must be called on the main thread, while the screen is started.
+     *
+     * @param screen The Android Activity the user's Activity was broadcast from.
+     * @param activityUrl The URL of the Activity that was broadcast.
+     * @param applicationName The name of the application, as defined in the Firebase Realtime
+     *                        Database rules for Firebase Continue, that the user's Activity is
+     *                        within.
+     * @return The ActivityKeepAlive, which can be used to stop keeping the Activity alive before
+     * the screen is stopped.
+     * @throws IllegalArgumentException If any input is invalid.
+     */
+    public static ActivityKeepAlive keepActivityToContinueAlive(
+            android.app.Activity screen,
+            String activityUrl,
+            String applicationName) {
+        if (screen == null) {
+            throw new IllegalArgumentException("screen is invalid");
+        }
+        if (activityUrl == null || activityUrl.trim().length() == 0) {
+            throw new IllegalArgumentException("activityUrl is invalid");
+        }
+        if (applicationName == null || applicationName.trim().length() == 0) {
+            throw new IllegalArgumentException("applicationName is invalid");
+        }
+
+        ActivityKeepAlive keepAlive = new ActivityKeepAlive(screen, activityUrl, applicationName);
+        keepAlive.start();
+
+        return keepAlive;
+    }
+
+    /**
+     * Re-broadcasts the provided Activity (see ActivityKeepAlive), but only if it is still the
+     * current user's most recent Activity within the application: an Activity the user broadcast
+     * since (from another screen or device) is never replaced by this older one, and an Activity
+     * which was dismissed or deleted is not brought back.
+     *
+     * The Activity is read and then replaced in two round trips rather than in a Transaction,
+     * since the database rules require a replacement's addedAt to be set by the servers, which a
+     * Transaction (resolving it on the client) cannot do. An Activity broadcast between the read
+     * and the write is still replaced, but that window is only a single round trip.
+     *
+     * @return A Task which, upon completion, provides whether or not the Activity was still the
+     * most recent one, and so was re-broadcast, or signals that it could not be re-broadcast.
+     */
+    static Task<Boolean> refreshActivityToContinue(final String activityUrl,
+                                                   final String applicationName) {
+        return Tasks.call(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return getMostRecentActivityPath(activityUrl, applicationName);
+            }
+        }).continueWithTask(new Continuation<String, Task<DataSnapshot>>() {
+            @Override
+            public Task<DataSnapshot> then(Task<String> task) throws Exception {
+                return getValue(FirebaseDatabase.getInstance().getReference(task.getResult()));
+            }
+        }).continueWithTask(new Continuation<DataSnapshot, Task<Boolean>>() {
+            @Override
+            public Task<Boolean> then(Task<DataSnapshot> task) throws Exception {
+                Tracing.beginSection("FirebaseContinue.refreshActivityToContinue");
+                try {
+                    DataSnapshot activity = task.getResult();
+                    if (!activityUrl.equals(activity.child("url").getValue(String.class))) {
+                        return Tasks.forResult(false);
+                    }
+
+                    Map<String, Object> updates = new HashMap<>();
+                    updates.put(getMostRecentActivityPath(activityUrl, applicationName),
+                                createActivity(activityUrl));
+                    return updateChildren(updates).continueWith(
+                            new Continuation<Void, Boolean>() {
+                                @Override
+                                public Boolean then(Task<Void> task) throws Exception {
+                                    if (!task.isSuccessful()) {
+                                        throw task.getException();
+                                    }
+
+                                    return true;
                                 }
+                            });
+                } finally {
+                    Tracing.endSection();
+                }
+            }
+        });
+    }
+
+    /**
+     * Attempts to asynchronously delete the current user's most recent Activity within each of
+     * the provided applications, if it has expired (i.e. it was added too long ago to still be
+     * relevant to the user).
+     *
+     * Expired Activities can never be continued, but are otherwise only deleted when a client
+     * happens to dismiss them, and are still downloaded by every client that starts listening for
+     * Activities. All of the expired Activities are deleted in a single multi-path update.
+     *
+     * An Activity broadcast by another client between reading and deleting an expired one would
+     * be deleted too, so this should be called when that is unlikely, such as when the app
+     * starts (see startDeletingExpiredActivities()).
+     *
+     * @param applicationNames The names of the applications, as defined in the Firebase Realtime
+     *                         Database rules for Firebase Continue, to delete the current user's
+     *                         expired Activities within.
+     * @return A Task which, upon completion, provides the number of expired Activities deleted,
+     * or signals that none of them could be deleted.
+     */
+    public static Task<Integer> deleteExpiredActivities(final String... applicationNames) {
+        return Tasks.call(new Callable<List<DatabaseReference>>() {
+            @Override
+            public List<DatabaseReference> call() throws Exception {
+                // First, ensure the inputs could be valid and the current user is signed in, and
+                // provide the proceeding Task with the references to each of their Activities.
+                if (applicationNames == null || applicationNames.length == 0) {
+                    throw new IllegalArgumentException("applicationNames is invalid");
+                }
+
+                List<DatabaseReference> activityRefs = new ArrayList<>();
+                for (String applicationName : applicationNames) {
+                    activityRefs.add(FirebaseDatabase.getInstance().getReference(
+                            getCurrentUserActivityPath(applicationName)));
+                }
+
+                return activityRefs;
+            }
+        }).continueWithTask(new Continuation<List<DatabaseReference>, Task<List<DataSnapshot>>>() {
+            @Override
+            public Task<List<DataSnapshot>> then(Task<List<DatabaseReference>> task)
+                    throws Exception {
+                // Read the offset of the database servers' clock, followed by every Activity,
+                // all at once.
+                List<Task<DataSnapshot>> readTasks = new ArrayList<>();
+                readTasks.add(getValue(
+                        FirebaseDatabase.getInstance().getReference(".info/serverTimeOffset")));
+                for (DatabaseReference activityRef : task.getResult()) {
+                    readTasks.add(getValue(activityRef));
+                }
+
+                return getResults(readTasks);
+            }
+        }).continueWithTask(new Continuation<List<DataSnapshot>, Task<Integer>>() {
+            @Override
+            public Task<Integer> then(Task<List<DataSnapshot>> task) throws Exception {
+                Tracing.beginSection("FirebaseContinue.deleteExpiredActivities");
+                try {
+                    List<DataSnapshot> snapshots = task.getResult();
+                    Long serverTimeOffset = snapshots.get(0).getValue(Long.class);
+                    long expiredBefore = System.currentTimeMillis()
+                            + ((serverTimeOffset != null) ? serverTimeOffset : 0)
+                            - ACTIVITY_MAX_AGE_MILLIS;
+
+                    final Map<String, Object> deletions = new HashMap<>();
+                    for (DataSnapshot activity : snapshots.subList(1, snapshots.size())) {
+                        if (!activity.exists()) {
+                            continue;
+                        }
+
+                        Long addedAt = activity.child("metadata/addedAt").getValue(Long.class);
+                        if (addedAt == null || addedAt < expiredBefore) {
+                            DatabaseReference activityRef = activity.getRef();
+                            deletions.put(FIREBASE_CONTINUE_NODE
+                                    + "/" + activityRef.getParent().getKey()
+                                    + "/" + activityRef.getKey(), null);
+                        }
+                    }
+
+                    if (deletions.isEmpty()) {
+                        return Tasks.forResult(0);
+                    }
+
+                    return updateChildren(deletions).continueWith(
+                            new Continuation<Void, Integer>() {
+                                @Override
+                                public Integer then(Task<Void> task) throws Exception {
+                                    if (!task.isSuccessful()) {
+                                        throw task.getException();
+                                    }
+
+                                    return deletions.size();
+                                }
+                            });
+                } finally {
+                    Tracing.endSection();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts deleting the current user's expired Activities within the provided applications (see
+     * deleteExpiredActivities()) each time the app connects to the Firebase Realtime Database:
+     * right away if it is already connected, and then every time it reconnects.
+     *
+     * This replaces the applications from any previous call, and continues until
+     * stopDeletingExpiredActivities() is called. Nothing is deleted while the user is signed out.
+     *
+     * @param applicationNames The names of the applications, as defined in the Firebase Realtime
+     *                         Database rules for Firebase Continue, to delete the current user's
+     *                         expired Activities within.
+     */
+    public static synchronized void startDeletingExpiredActivities(
+            final String... applicationNames) {
+        if (applicationNames == null || applicationNames.length == 0) {
+            throw new IllegalArgumentException("applicationNames is invalid");
+        }
+
+        stopDeletingExpiredActivities();
+        final String[] applicationNamesCopy =
+                Arrays.copyOf(applicationNames, applicationNames.length);
+        sDeleteExpiredActivitiesOnConnect = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot connected) {
+                if (!Boolean.TRUE.equals(connected.getValue(Boolean.class))
+                        || FirebaseAuth.getInstance().getCurrentUser() == null) {
+                    return;
+                }
+
+                deleteExpiredActivities(applicationNamesCopy).addOnFailureListener(
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(Exception e) {
+                                Log.w(TAG, "Could not delete expired Activities", e);
                             }
                         });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                Log.w(TAG, "Could not listen for connections", error.toException());
+            }
+        };
+        FirebaseDatabase.getInstance().getReference(".info/connected")
+                .addValueEventListener(sDeleteExpiredActivitiesOnConnect);
+    }
+
+    /**
+     * Stops deleting the current user's expired Activities each time the app connects to the
+     * Firebase Realtime Database, as started by startDeletingExpiredActivities().
+     */
+    public static synchronized void stopDeletingExpiredActivities() {
+        if (sDeleteExpiredActivitiesOnConnect != null) {
+            FirebaseDatabase.getInstance().getReference(".info/connected")
+                    .removeEventListener(sDeleteExpiredActivitiesOnConnect);
+            sDeleteExpiredActivitiesOnConnect = null;
+        }
+    }
+
+    /**
+     * Ensures the provided additional updates could be valid, then creates and returns the
+     * complete multi-path update which broadcasts the Activity along with them.
+     *
+     * @throws IllegalArgumentException If any input is invalid.
+     * @throws IllegalStateException If the current user is not signed in.
+     */
+    private static Map<String, Object> createUpdates(String activityUrl,
+                                                     String applicationName,
+                                                     Map<String, Object> additionalUpdates) {
+        // First, ensure the additional updates could be valid.
+        if (additionalUpdates == null) {
+            throw new IllegalArgumentException("additionalUpdates is invalid");
+        }
+        for (String path : additionalUpdates.keySet()) {
+            String normalizedPath = (path != null) ? path.replaceAll("^/+", "") : "";
+            if (normalizedPath.length() == 0
+                    || normalizedPath.equals(FIREBASE_CONTINUE_NODE)
+                    || normalizedPath.startsWith(FIREBASE_CONTINUE_NODE + "/")) {
+                throw new IllegalArgumentException(
+                        "additionalUpdates contains an invalid path: " + path);
+            }
+        }
+
+        // Create the complete multi-path update: the additional updates, plus the new most recent
+        // Activity the user may wish to continue within the application.
+        Map<String, Object> updates = new HashMap<>(additionalUpdates);
+        updates.put(getMostRecentActivityPath(activityUrl, applicationName),
+                    createActivity(activityUrl));
+
+        return updates;
+    }
+
+    /**
+     * Attempts to asynchronously get the current value of the provided Query.
+     *
+     * @return A Task which, upon completion, provides the value.
+     */
+    private static Task<DataSnapshot> getValue(Query query) {
+        final TaskCompletionSource<DataSnapshot> getValueTaskCompletion =
+                new TaskCompletionSource<>();
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                // Set that this Task was successful.
+                getValueTaskCompletion.setResult(snapshot);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                // Set that this Task was unsuccessful.
+                getValueTaskCompletion.setException(error.toException());
+            }
+        });
+
+        return getValueTaskCompletion.getTask();
+    }
+
+    /**
+     * Waits for all of the provided Tasks to succeed.
+     *
+     * @return A Task which, upon completion, provides the results of all of the provided Tasks in
+     * the same order, or signals that any one of them failed.
+     */
+    private static <T> Task<List<T>> getResults(final List<Task<T>> tasks) {
+        return Tasks.whenAll(tasks).continueWith(new Continuation<Void, List<T>>() {
+            @Override
+            public List<T> then(Task<Void> task) throws Exception {
+                if (!task.isSuccessful()) {
+                    throw task.getException();
+                }
 
-                return setValueTaskCompletion.getTask();
+                List<T> results = new ArrayList<>();
+                for (Task<T> resultTask : tasks) {
+                    results.add(resultTask.getResult());
+                }
+
+                return results;
+            }
+        });
+    }
+
+    /**
+     * Attempts to asynchronously delete the value at the provided reference.
+     *
+     * @return A Task which, upon completion, provides the reference if the value was deleted.
+     */
+    private static Task<DatabaseReference> removeValue(DatabaseReference ref) {
+        final TaskCompletionSource<DatabaseReference> deletionTaskCompletion =
+                new TaskCompletionSource<>();
+        ref.removeValue(new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError error, DatabaseReference ref) {
+                if (error == null) {
+                    // Set that this Task was successful and pass along the DatabaseReference to
+                    // the next Task.
+                    deletionTaskCompletion.setResult(ref);
+                } else {
+                    // Set that this Task was unsuccessful.
+                    deletionTaskCompletion.setException(error.toException());
+                }
+            }
+        });
+
+        return deletionTaskCompletion.getTask();
+    }
+
+    /**
+     * Attempts to asynchronously set the value at the provided reference.
+     *
+     * @return A Task which, upon completion, signals whether or not the value was set.
+     */
+    private static Task<Void> setValue(DatabaseReference ref, Object value) {
+        final TaskCompletionSource<Void> setValueTaskCompletion = new TaskCompletionSource<>();
+        ref.setValue(value, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError error, DatabaseReference ref) {
+                if (error == null) {
+                    // Set that this Task was successful.
+                    setValueTaskCompletion.setResult(null);
+                } else {
+                    // Set that this Task was unsuccessful.
+                    setValueTaskCompletion.setException(error.toException());
+                }
             }
         });
+
+        return setValueTaskCompletion.getTask();
+    }
+
+    /**
+     * Attempts to asynchronously commit the provided multi-path update, keyed by paths relative
+     * to the root of the Firebase Realtime Database.
+     *
+     * @return A Task which, upon completion, signals whether or not the update was committed.
+     */
+    private static Task<Void> updateChildren(Map<String, Object> updates) {
+        final TaskCompletionSource<Void> updateTaskCompletion = new TaskCompletionSource<>();
+        FirebaseDatabase.getInstance().getReference().updateChildren(
+                updates,
+                new DatabaseReference.CompletionListener() {
+                    @Override
+                    public void onComplete(DatabaseError error, DatabaseReference ref) {
+                        if (error == null) {
+                            // Set that this Task was successful.
+                            updateTaskCompletion.setResult(null);
+                        } else {
+                            // Set that this Task was unsuccessful.
+                            updateTaskCompletion.setException(error.toException());
+                        }
+                    }
+                });
+
+        return updateTaskCompletion.getTask();
+    }
+
+    /**
+     * Ensures the provided inputs could be valid and that the current user is signed in, then
+     * returns the path of the most recent Activity the current user may wish to continue within
+     * the application.
+     *
+     * @throws IllegalArgumentException If either input is invalid.
+     * @throws IllegalStateException If the current user is not signed in.
+     */
+    private static String getMostRecentActivityPath(String activityUrl, String applicationName) {
+        // First, ensure the Activity URL could be valid.
+        if (activityUrl == null || activityUrl.trim().length() == 0) {
+            throw new IllegalArgumentException("activityUrl is invalid");
+        }
+
+        return getCurrentUserActivityPath(applicationName);
+    }
+
+    /**
+     * Ensures the provided application name could be valid and that the current user is signed
+     * in, then returns the path of the most recent Activity the current user may wish to continue
+     * within the application.
+     *
+     * @throws IllegalArgumentException If the application name is invalid.
+     * @throws IllegalStateException If the current user is not signed in.
+     */
+    private static String getCurrentUserActivityPath(String applicationName) {
+        // First, ensure the application name could be valid.
+        if (applicationName == null || applicationName.trim().length() == 0) {
+            throw new IllegalArgumentException("applicationName is invalid");
+        }
+
+        // Next, ensure the current user is signed in.
+        FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
+        if (currentUser == null) {
+            throw new IllegalStateException("The current user must be signed in");
+        }
+
+        return FIREBASE_CONTINUE_NODE + "/" + applicationName + "/" + currentUser.getUid();
+    }
+
+    /**
+     * Creates a Firebase Continue Activity to use as the new most recent Activity the user may
+     * wish to continue within an application.
+     *
+     * The schema of each Activity is defined in sample-firebase-continue-database.rules.json.
+     */
+    private static Map<String, Object> createActivity(String activityUrl) {
+        Map<String, Object> activityMetadata = new HashMap<>();
+        activityMetadata.put("addedAt", ServerValue.TIMESTAMP);
+        Map<String, Object> activity = new HashMap<>();
+        activity.put("url", activityUrl);
+        activity.put("metadata", activityMetadata);
+
+        return activity;
     }
 
     // TODO: Possibly add a "dismissActivityToContinue(String activityUrl, String appName)"
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named trace sections, used to mark where time goes within the Firebase Continue library (and
+ * within apps using it, if they wish).
+ *
+ * Each section is started with beginSection() and ended with endSection() on the same thread,
+ * and sections may be nested. Where the sections go depends on the Tracer set with setTracer():
+ * {@link #ANDROID_TRACER} shows them on systraces of the device via android.os.Trace, while a
+ * {@link RecordingTracer} keeps them in memory (which also works on the JVM, such as in unit
+ * tests).
+ *
+ * By default, no Tracer is set, in which case beginning and ending a section costs a single read
+ * of a field.
+ *
+ * Sections only measure work on one thread, so each asynchronous stage of an operation (such as
+ * broadcasting an Activity to continue) has its own section: the gaps between them are the time
+ * spent waiting, such as on the Firebase Realtime Database.
+ */
+public final class Tracing {
+
+    // The maximum length of a section name supported by android.os.Trace.
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    /**
+     * Receives the trace sections begun and ended via Tracing.
+     */
+    public interface Tracer {
+
+        /**
+         * Begins a trace section on the current thread.
+         *
+         * @param name The name of the section.
+         */
+        void beginSection(String name);
+
+        /**
+         * Ends the most recently begun trace section on the current thread.
+         */
+        void endSection();
+    }
+
+    /**
+     * The Tracer which shows trace sections on systraces of the device, via android.os.Trace.
+     *
+     * Sections are ignored on versions of Android before Jelly Bean MR2, which do not support
+     * them.
+     */
+    public static final Tracer ANDROID_TRACER = new Tracer() {
+        @Override
+        public void beginSection(String name) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.beginSection((name.length() > MAX_SECTION_NAME_LENGTH)
+                        ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name);
+            }
+        }
+
+        @Override
+        public void endSection() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.endSection();
+            }
+        }
+    };
+
+    /**
+     * A Tracer which records trace sections in memory, so they can be inspected (for example, in
+     * tests).
+     *
+     * Only the most recently ended sections are kept, up to the provided capacity.
+     */
+    public static final class RecordingTracer implements Tracer {
+
+        /**
+         * A trace section which has ended.
+         */
+        public static final class Section {
+
+            private final String mName;
+            private final String mThreadName;
+            private final int mDepth;
+            private final long mDurationNanos;
+
+            private Section(String name, String threadName, int depth, long durationNanos) {
+                mName = name;
+                mThreadName = threadName;
+                mDepth = depth;
+                mDurationNanos = durationNanos;
+            }
+
+            /**
+             * Gets and returns the name of this section.
+             *
+             * @return The name this section was begun with.
+             */
+            public String getName() {
+                return mName;
+            }
+
+            /**
+             * Gets and returns the name of the thread this section ran on.
+             *
+             * @return The name of the thread.
+             */
+            public String getThreadName() {
+                return mThreadName;
+            }
+
+            /**
+             * Gets and returns how many sections this section was nested within.
+             *
+             * @return The depth of this section, which is 0 if it was not nested.
+             */
+            public int getDepth() {
+                return mDepth;
+            }
+
+            /**
+             * Gets and returns how long this section took.
+             *
+             * @return The duration of this section, in nanoseconds.
+             */
+            public long getDurationNanos() {
+                return mDurationNanos;
+            }
+
+            @Override
+            public String toString() {
+                return mName + "@" + mThreadName + "=" + (mDurationNanos / 1000) + "us";
+            }
+        }
+
+        /**
+         * A trace section which has begun, but not yet ended.
+         */
+        private static final class OpenSection {
+
+            private final String mName;
+            private final long mStartNanos;
+
+            private OpenSection(String name, long startNanos) {
+                mName = name;
+                mStartNanos = startNanos;
+            }
+        }
+
+        private final int mCapacity;
+
+        // The sections which have ended, oldest first.
+        private final ArrayDeque<Section> mSections = new ArrayDeque<>();
+
+        // The sections begun on each thread which have not ended, innermost first.
+        private final ThreadLocal<ArrayDeque<OpenSection>> mOpenSections =
+                new ThreadLocal<ArrayDeque<OpenSection>>() {
+                    @Override
+                    protected ArrayDeque<OpenSection> initialValue() {
+                        return new ArrayDeque<>();
+                    }
+                };
+
+        /**
+         * Constructs a new RecordingTracer.
+         *
+         * @param capacity The maximum number of ended sections to keep.
+         */
+        public RecordingTracer(int capacity) {
+            mCapacity = capacity;
+        }
+
+        @Override
+        public void beginSection(String name) {
+            mOpenSections.get().push(new OpenSection(name, System.nanoTime()));
+        }
+
+        @Override
+        public void endSection() {
+            long endNanos = System.nanoTime();
+            ArrayDeque<OpenSection> openSections = mOpenSections.get();
+            OpenSection openSection = openSections.poll();
+            if (openSection == null) {
+                // This section was begun before this Tracer was set.
+                return;
+            }
+
+            Section section = new Section(
+                    openSection.mName,
+                    Thread.currentThread().getName(),
+                    openSections.size(),
+                    endNanos - openSection.mStartNanos);
+            synchronized (mSections) {
+                if (mSections.size() >= mCapacity) {
+                    mSections.poll();
+                }
+                mSections.add(section);
+            }
+        }
+
+        /**
+         * Gets and returns the sections which have ended, oldest first.
+         *
+         * @return A copy of the recorded sections.
+         */
+        public List<Section> getSections() {
+            synchronized (mSections) {
+                return new ArrayList<>(mSections);
+            }
+        }
+
+        /**
+         * Forgets every section which has ended.
+         */
+        public void clear() {
+            synchronized (mSections) {
+                mSections.clear();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "RecordingTracer" + getSections();
+        }
+    }
+
+    // The Tracer that receives trace sections, or null if tracing is disabled.
+    private static volatile Tracer sTracer = null;
+
+    /**
+     * Sets the Tracer that receives trace sections from now on.
+     *
+     * This should be called before any sections begin (for example, when the app starts), since
+     * sections which are open when the Tracer changes are not ended on the new Tracer.
+     *
+     * @param tracer The Tracer to use, or null to disable tracing.
+     */
+    public static void setTracer(Tracer tracer) {
+        sTracer = tracer;
+    }
+
+    /**
+     * Begins a trace section on the current thread, which must be ended via endSection() on the
+     * same thread.
+     *
+     * @param name The name of the section.
+     */
+    public static void beginSection(String name) {
+        Tracer tracer = sTracer;
+        if (tracer != null) {
+            tracer.beginSection(name);
+        }
+    }
+
+    /**
+     * Ends the most recently begun trace section on the current thread.
+     */
+    public static void endSection() {
+        Tracer tracer = sTracer;
+        if (tracer != null) {
+            tracer.endSection();
+        }
+    }
+
+    /**
+     * This class only exposes static methods, so no instances are necessary.
+     */
+    private Tracing() {
+        throw new UnsupportedOperationException("Tracing cannot be instantiated");
+    }
+}
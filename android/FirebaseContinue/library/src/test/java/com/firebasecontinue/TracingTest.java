@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Checks that Tracing passes trace sections to the Tracer that is set, and that a RecordingTracer
+ * records them as they are nested on each thread.
+ */
+public class TracingTest {
+
+    @After
+    public void tearDown() {
+        Tracing.setTracer(null);
+    }
+
+    @Test
+    public void sectionsAreIgnoredWithoutATracer() {
+        Tracing.beginSection("ignored");
+        Tracing.endSection();
+
+        Tracing.RecordingTracer tracer = new Tracing.RecordingTracer(10);
+        Tracing.setTracer(tracer);
+        assertEquals(0, tracer.getSections().size());
+    }
+
+    @Test
+    public void nestedSectionsAreRecordedInTheOrderTheyEnd() {
+        Tracing.RecordingTracer tracer = new Tracing.RecordingTracer(10);
+        Tracing.setTracer(tracer);
+
+        Tracing.beginSection("outer");
+        Tracing.beginSection("inner");
+        Tracing.endSection();
+        Tracing.endSection();
+
+        List<Tracing.RecordingTracer.Section> sections = tracer.getSections();
+        assertEquals(2, sections.size());
+        assertEquals("inner", sections.get(0).getName());
+        assertEquals(1, sections.get(0).getDepth());
+        assertEquals("outer", sections.get(1).getName());
+        assertEquals(0, sections.get(1).getDepth());
+        assertTrue(sections.get(1).getDurationNanos() >= sections.get(0).getDurationNanos());
+        assertEquals(Thread.currentThread().getName(), sections.get(0).getThreadName());
+    }
+
+    @Test
+    public void sectionsOnOtherThreadsAreNotNestedWithinThisThreadsSections() throws Exception {
+        Tracing.RecordingTracer tracer = new Tracing.RecordingTracer(10);
+        Tracing.setTracer(tracer);
+
+        Tracing.beginSection("main");
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Tracing.beginSection("background");
+                Tracing.endSection();
+            }
+        }, "background-thread");
+        thread.start();
+        thread.join();
+        Tracing.endSection();
+
+        List<Tracing.RecordingTracer.Section> sections = tracer.getSections();
+        assertEquals(2, sections.size());
+        assertEquals("background", sections.get(0).getName());
+        assertEquals("background-thread", sections.get(0).getThreadName());
+        assertEquals(0, sections.get(0).getDepth());
+        assertEquals("main", sections.get(1).getName());
+    }
+
+    @Test
+    public void onlyTheMostRecentSectionsAreKept() {
+        Tracing.RecordingTracer tracer = new Tracing.RecordingTracer(2);
+        Tracing.setTracer(tracer);
+
+        for (String name : new String[] {"first", "second", "third"}) {
+            Tracing.beginSection(name);
+            Tracing.endSection();
+        }
+
+        List<Tracing.RecordingTracer.Section> sections = tracer.getSections();
+        assertEquals(2, sections.size());
+        assertEquals("second", sections.get(0).getName());
+        assertEquals("third", sections.get(1).getName());
+
+        tracer.clear();
+        assertEquals(0, tracer.getSections().size());
+    }
+
+    @Test
+    public void sectionsBegunBeforeTheTracerWasSetAreIgnored() {
+        Tracing.beginSection("untraced");
+        Tracing.RecordingTracer tracer = new Tracing.RecordingTracer(10);
+        Tracing.setTracer(tracer);
+        Tracing.endSection();
+
+        assertEquals(0, tracer.getSections().size());
+    }
+}
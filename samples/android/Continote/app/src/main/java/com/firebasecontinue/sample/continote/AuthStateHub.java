@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The single, app-wide listener for Firebase Auth state changes.
+ *
+ * Firebase Auth informs each AuthStateListener of the current state every time it is added, even
+ * if the user has not changed. Rather than every Activity adding its own listener each time it
+ * starts, this adds one listener for the lifetime of the app, caches the current user, and only
+ * informs its Subscribers when the signed in user actually changes.
+ *
+ * All methods must be called on the main thread, which is also where all callbacks happen.
+ */
+public final class AuthStateHub {
+
+    /**
+     * Listens for changes to which user (if any) is signed in.
+     */
+    public interface Subscriber {
+
+        /**
+         * Called when the signed in user changes, and when first subscribing once the current
+         * state is known.
+         *
+         * @param user The user who is now signed in, or null if the user is now signed out.
+         */
+        void onUserChanged(@Nullable FirebaseUser user);
+    }
+
+    @Nullable
+    private static AuthStateHub sInstance = null;
+
+    private final List<Subscriber> mSubscribers = new ArrayList<>();
+
+    // Whether or not Firebase Auth has informed this of the current state yet.
+    private boolean mStateKnown = false;
+
+    // The currently signed in user, or null if the user is signed out.
+    @Nullable
+    private FirebaseUser mCurrentUser = null;
+
+    private final FirebaseAuth.AuthStateListener mHandleAuthStateChanged =
+            new FirebaseAuth.AuthStateListener() {
+                @Override
+                public void onAuthStateChanged(FirebaseAuth firebaseAuth) {
+                    handleAuthStateChanged(firebaseAuth.getCurrentUser());
+                }
+            };
+
+    /**
+     * Gets and returns the AuthStateHub for this app, creating it if necessary.
+     *
+     * @return The AuthStateHub for this app.
+     */
+    public static AuthStateHub getInstance() {
+        if (sInstance == null) {
+            sInstance = new AuthStateHub();
+            FirebaseAuth.getInstance().addAuthStateListener(sInstance.mHandleAuthStateChanged);
+        }
+
+        return sInstance;
+    }
+
+    private AuthStateHub() {}
+
+    /**
+     * Starts informing the provided Subscriber when the signed in user changes. If the current
+     * state is already known, the Subscriber is immediately informed of it.
+     *
+     * @param subscriber The Subscriber to add.
+     */
+    public void subscribe(Subscriber subscriber) {
+        if (mSubscribers.contains(subscriber)) {
+            return;
+        }
+
+        mSubscribers.add(subscriber);
+        if (mStateKnown) {
+            subscriber.onUserChanged(mCurrentUser);
+        }
+    }
+
+    /**
+     * Stops informing the provided Subscriber when the signed in user changes.
+     *
+     * @param subscriber The Subscriber to remove.
+     */
+    public void unsubscribe(Subscriber subscriber) {
+        mSubscribers.remove(subscriber);
+    }
+
+    /**
+     * Gets and returns the currently signed in user.
+     *
+     * @return The currently signed in user, or null if the user is signed out.
+     */
+    @Nullable
+    public FirebaseUser getCurrentUser() {
+        return mStateKnown ? mCurrentUser : FirebaseAuth.getInstance().getCurrentUser();
+    }
+
+    private void handleAuthStateChanged(@Nullable FirebaseUser user) {
+        boolean userChanged = !mStateKnown || !isSameUser(mCurrentUser, user);
+        mStateKnown = true;
+        mCurrentUser = user;
+        if (!userChanged) {
+            return;
+        }
+
+        // Copy the Subscribers, since a Subscriber could unsubscribe while being informed.
+        for (Subscriber subscriber : new ArrayList<>(mSubscribers)) {
+            subscriber.onUserChanged(user);
+        }
+    }
+
+    /**
+     * Determines and then returns whether or not the provided users are the same user, where
+     * null means no user is signed in.
+     */
+    static boolean isSameUser(@Nullable FirebaseUser a, @Nullable FirebaseUser b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+
+        return a.getUid().equals(b.getUid());
+    }
+}
@@ -14,52 +14,88 @@
 
 package com.firebasecontinue.sample.continote;
 
+import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
 
-import com.google.firebase.auth.FirebaseAuth;
+import com.firebasecontinue.Tracing;
 import com.google.firebase.auth.FirebaseUser;
 
 /**
  * The abstract Activity which all other Activities in this app must subclass.
  *
- * It provides functionality needed by all Activities, such as setting up Firebase Auth to listen
- * for authentication state changes.
+ * It provides functionality needed by all Activities, such as listening for authentication state
+ * changes via the AuthStateHub.
  */
 public abstract class BaseActivity extends AppCompatActivity {
 
+    static {
+        // Show the trace sections of this app and the Firebase Continue library on systraces of
+        // debug builds. Release builds leave tracing disabled, so the sections cost nothing.
+        if (BuildConfig.DEBUG) {
+            Tracing.setTracer(Tracing.ANDROID_TRACER);
+        }
+    }
+
+    // Whether or not this Activity has handled an authentication state yet.
+    private boolean mHandledAuthState = false;
+
+    // The user this Activity most recently handled being signed in, or null if it most recently
+    // handled the user being signed out.
+    @Nullable
+    private FirebaseUser mHandledUser = null;
+
     // Firebase-related
-    private final FirebaseAuth.AuthStateListener mHandleAuthStateChanged =
-            new FirebaseAuth.AuthStateListener() {
-                @Override
-                public void onAuthStateChanged(FirebaseAuth firebaseAuth) {
-                    FirebaseUser user = firebaseAuth.getCurrentUser();
-                    if (user != null) {
-                        // Since the user object is non-null, the current user is now signed in.
-                        BaseActivity.this.handleUserSignedIn(user);
-                    } else {
-                        // Since the user object is null, the current user is now signed out.
-                        BaseActivity.this.handleUserSignedOut();
-                    }
-                }
-            };
+    private final AuthStateHub.Subscriber mHandleUserChanged = new AuthStateHub.Subscriber() {
+        @Override
+        public void onUserChanged(@Nullable FirebaseUser user) {
+            if (mHandledAuthState && AuthStateHub.isSameUser(mHandledUser, user)) {
+                // This Activity already handled this state before it was last stopped, so anything
+                // it loaded for the user is still valid.
+                return;
+            }
+            mHandledAuthState = true;
+            mHandledUser = user;
+
+            if (user != null) {
+                // Since the user object is non-null, the current user is now signed in.
+                BaseActivity.this.handleUserSignedIn(user);
+            } else {
+                // Since the user object is null, the current user is now signed out.
+                BaseActivity.this.handleUserSignedOut();
+            }
+        }
+    };
 
     @Override
     protected void onStart() {
         super.onStart();
 
-        // Start listening for Firebase Auth state changes.
-        FirebaseAuth.getInstance().addAuthStateListener(mHandleAuthStateChanged);
+        // Start listening for changes to the signed in user.
+        AuthStateHub.getInstance().subscribe(mHandleUserChanged);
+        ListenerTracker.getInstance()
+                .track(this, ListenerTracker.AUTH_STATE_PATH, mHandleUserChanged);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
 
-        // Stop listening for Firebase Auth state changes.
-        FirebaseAuth.getInstance().removeAuthStateListener(mHandleAuthStateChanged);
+        // Stop listening for changes to the signed in user.
+        AuthStateHub.getInstance().unsubscribe(mHandleUserChanged);
+        ListenerTracker.getInstance()
+                .untrack(this, ListenerTracker.AUTH_STATE_PATH, mHandleUserChanged);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Every listener registered on behalf of this Activity (see ListenerTracker) must have
+        // been removed by now, so subclasses must remove theirs before calling through to here.
+        ListenerTracker.getInstance().handleOwnerReleased(this);
     }
 
     /**
@@ -84,12 +120,15 @@ public abstract class BaseActivity extends AppCompatActivity {
      * @return true iff the current user is signed into this app, false otherwise.
      */
     protected boolean currentUserIsSignedIn() {
-        return FirebaseAuth.getInstance().getCurrentUser() != null;
+        return AuthStateHub.getInstance().getCurrentUser() != null;
     }
 
     /**
      * Handles when the user signs in.
      *
+     * This is only called when the signed in user changes, not every time this Activity starts,
+     * so anything loaded for the user can be kept across this Activity stopping and starting.
+     *
      * Override in subclasses to respond to this authentication state change.
      *
      * @param user The user who is now signed in.
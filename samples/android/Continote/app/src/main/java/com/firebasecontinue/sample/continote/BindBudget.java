@@ -0,0 +1,328 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.sample.continote;
+
+import android.app.Activity;
+import android.os.Debug;
+import android.support.annotation.LayoutRes;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that binding Note list items (see NoteListItemViewHolder.bind()) stays within a budget
+ * of memory allocated and time taken per bind, since it runs for every visible Note list item
+ * each time the list changes, and stray allocations there cause garbage collections while the
+ * user scrolls.
+ *
+ * A check binds a large set of synthetic Notes to a handful of recycled Note list items, as
+ * scrolling through the list does, measuring each bind with the allocation counters of the main
+ * thread. Each Note list item is then bound again to the same Note, as happens to every visible
+ * Note list item when any other Note changes, which should allocate nothing at all.
+ *
+ * The budgets are checked in below: a change which makes binding exceed them should either be
+ * fixed, or raise the budget in the same change, deliberately.
+ *
+ * This only checks in debug builds, since counting allocations slows down the whole app. Local
+ * unit tests, which do not run on the Android runtime, count allocations with their own
+ * AllocationCounter instead (see setAllocationCounter()).
+ */
+public final class BindBudget {
+
+    private static final String TAG = "BindBudget";
+
+    // The most memory that binding a Note list item to a different Note may allocate. Most of
+    // this is the TextViews laying out their new text.
+    public static final long MAX_BYTES_PER_BIND = 8 * 1024;
+
+    // The most memory that binding a Note list item to the Note it already shows may allocate.
+    public static final long MAX_BYTES_PER_REBIND = 0;
+
+    // The most time that binding a Note list item may take, on average, in microseconds. Several
+    // Note list items are bound within each frame, which only lasts 16ms.
+    public static final long MAX_AVERAGE_MICROS_PER_BIND = 1000;
+
+    // The number of recycled Note list items, i.e. about how many are visible at once.
+    private static final int ITEM_VIEW_COUNT = 12;
+
+    @Nullable
+    private static BindBudget sInstance = null;
+
+    /**
+     * Counts the memory allocated by the current thread.
+     */
+    interface AllocationCounter {
+
+        /**
+         * Starts counting.
+         */
+        void start();
+
+        /**
+         * Restarts the count from zero.
+         */
+        void reset();
+
+        /**
+         * Gets and returns the memory allocated since the count was last reset.
+         *
+         * @return The memory allocated, in bytes.
+         */
+        long getAllocatedBytes();
+
+        /**
+         * Stops counting.
+         */
+        void stop();
+    }
+
+    // Counts allocations with the allocation counters of the Android runtime.
+    @SuppressWarnings("deprecation")
+    static final AllocationCounter RUNTIME_ALLOCATION_COUNTER = new AllocationCounter() {
+        @Override
+        public void start() {
+            Debug.startAllocCounting();
+        }
+
+        @Override
+        public void reset() {
+            Debug.resetThreadAllocSize();
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            return Debug.getThreadAllocSize();
+        }
+
+        @Override
+        public void stop() {
+            Debug.stopAllocCounting();
+        }
+    };
+
+    /**
+     * The measurements of a check.
+     */
+    public static final class Report {
+
+        private final int mBindCount;
+        private final long mMaxBytesPerBind;
+        private final long mMaxBytesPerRebind;
+        private final long mAverageMicrosPerBind;
+
+        private Report(int bindCount, long maxBytesPerBind, long maxBytesPerRebind,
+                       long averageMicrosPerBind) {
+            mBindCount = bindCount;
+            mMaxBytesPerBind = maxBytesPerBind;
+            mMaxBytesPerRebind = maxBytesPerRebind;
+            mAverageMicrosPerBind = averageMicrosPerBind;
+        }
+
+        /**
+         * Gets and returns whether or not binding stayed within every budget.
+         *
+         * @return true if every measurement is within its budget.
+         */
+        public boolean isWithinBudget() {
+            return mMaxBytesPerBind <= MAX_BYTES_PER_BIND
+                    && mMaxBytesPerRebind <= MAX_BYTES_PER_REBIND
+                    && mAverageMicrosPerBind <= MAX_AVERAGE_MICROS_PER_BIND;
+        }
+
+        @Override
+        public String toString() {
+            return "BindBudget.Report{binds=" + mBindCount
+                    + ", maxBytesPerBind=" + mMaxBytesPerBind + "/" + MAX_BYTES_PER_BIND
+                    + ", maxBytesPerRebind=" + mMaxBytesPerRebind + "/" + MAX_BYTES_PER_REBIND
+                    + ", averageMicrosPerBind=" + mAverageMicrosPerBind
+                    + "/" + MAX_AVERAGE_MICROS_PER_BIND + "}";
+        }
+    }
+
+    private final boolean mEnabled;
+
+    // Whether or not exceeding a budget throws, rather than only being logged.
+    private boolean mFailOverBudget = false;
+
+    private AllocationCounter mAllocationCounter = RUNTIME_ALLOCATION_COUNTER;
+
+    /**
+     * Gets and returns the BindBudget for this app, creating it if necessary.
+     *
+     * @return The BindBudget for this app.
+     */
+    public static synchronized BindBudget getInstance() {
+        if (sInstance == null) {
+            sInstance = new BindBudget(BuildConfig.DEBUG);
+        }
+
+        return sInstance;
+    }
+
+    private BindBudget(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Sets whether or not exceeding a budget throws an IllegalStateException (from check()),
+     * rather than only being logged, so that tests fail when binding regresses.
+     *
+     * @param failOverBudget true to throw when a budget is exceeded.
+     */
+    public synchronized void setFailOverBudget(boolean failOverBudget) {
+        mFailOverBudget = failOverBudget;
+    }
+
+    /**
+     * Sets how the memory allocated by each bind is counted, which is by the allocation counters
+     * of the Android runtime unless set otherwise.
+     *
+     * @param allocationCounter The AllocationCounter to use.
+     */
+    synchronized void setAllocationCounter(AllocationCounter allocationCounter) {
+        mAllocationCounter = allocationCounter;
+    }
+
+    /**
+     * Binds the provided number of synthetic Notes to Note list items, and checks the memory
+     * allocated and time taken per bind against the budgets.
+     *
+     * This must be called on the main thread. The number of Notes should not exceed the number
+     * of snippets NoteSnippetCache keeps, just as the Notes in the list do not. The snippets of
+     * the synthetic Notes take the place of those of real Notes, which are extracted again the
+     * next time their Note list items are bound.
+     *
+     * @param activity The Activity to inflate the Note list items within.
+     * @param layout The layout of each Note list item.
+     * @param noteCount The number of synthetic Notes to bind.
+     * @return The measurements, or null if this is not a debug build.
+     * @throws IllegalStateException If a budget was exceeded and setFailOverBudget(true) was
+     *                               called.
+     */
+    @Nullable
+    public Report check(Activity activity, @LayoutRes int layout, int noteCount) {
+        if (!mEnabled) {
+            return null;
+        }
+
+        // Create everything up front, so that only binding itself is measured.
+        List<Note> notes = createSyntheticNotes(noteCount);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < noteCount; i++) {
+            keys.add("bindBudget" + i);
+
+            // The snippet of each Note is extracted as it is deserialized (see NoteListAdapter).
+            NoteSnippetCache.getInstance().getSnippet(keys.get(i), notes.get(i).getContent());
+        }
+
+        FrameLayout parent = new FrameLayout(activity);
+        View[] itemViews = new View[ITEM_VIEW_COUNT];
+        for (int i = 0; i < ITEM_VIEW_COUNT; i++) {
+            itemViews[i] = activity.getLayoutInflater().inflate(layout, parent, false);
+
+            // Bind each Note list item once before measuring, as the list does when it is first
+            // shown, so that creating its ViewHolder is not measured.
+            NoteListItemViewHolder.bind(itemViews[i], notes.get(i), keys.get(i));
+        }
+
+        AllocationCounter allocationCounter;
+        synchronized (this) {
+            allocationCounter = mAllocationCounter;
+        }
+
+        long maxBytesPerBind = 0;
+        long maxBytesPerRebind = 0;
+        long totalBindNanos = 0;
+        allocationCounter.start();
+        try {
+            for (int i = 0; i < noteCount; i++) {
+                View itemView = itemViews[i % ITEM_VIEW_COUNT];
+
+                // Bind the Note list item to a different Note, as scrolling does.
+                allocationCounter.reset();
+                long startNanos = System.nanoTime();
+                NoteListItemViewHolder.bind(itemView, notes.get(i), keys.get(i));
+                totalBindNanos += System.nanoTime() - startNanos;
+                maxBytesPerBind =
+                        Math.max(maxBytesPerBind, allocationCounter.getAllocatedBytes());
+
+                // Then bind it to the same Note again, as any other change to the list does.
+                allocationCounter.reset();
+                NoteListItemViewHolder.bind(itemView, notes.get(i), keys.get(i));
+                maxBytesPerRebind =
+                        Math.max(maxBytesPerRebind, allocationCounter.getAllocatedBytes());
+            }
+        } finally {
+            allocationCounter.stop();
+        }
+
+        Report report = new Report(
+                noteCount,
+                maxBytesPerBind,
+                maxBytesPerRebind,
+                (noteCount > 0) ? totalBindNanos / noteCount / 1000 : 0);
+        if (report.isWithinBudget()) {
+            Log.i(TAG, report.toString());
+        } else {
+            Log.e(TAG, "Binding Note list items exceeded its budget: " + report);
+            synchronized (this) {
+                if (mFailOverBudget) {
+                    throw new IllegalStateException("Binding exceeded its budget: " + report);
+                }
+            }
+        }
+
+        return report;
+    }
+
+    /**
+     * Creates and returns synthetic Notes which cover what binding handles: Notes without a
+     * title or content, short and long content, and content of more than one line.
+     */
+    private static List<Note> createSyntheticNotes(int noteCount) {
+        StringBuilder longContent = new StringBuilder();
+        while (longContent.length() < 4000) {
+            longContent.append("The quick brown fox jumps over the lazy dog. ");
+        }
+
+        List<Note> notes = new ArrayList<>(noteCount);
+        for (int i = 0; i < noteCount; i++) {
+            String title = (i % 7 == 0) ? "" : "Synthetic note " + i;
+            String content;
+            switch (i % 4) {
+                case 0:
+                    content = "";
+                    break;
+                case 1:
+                    content = "Short content " + i;
+                    break;
+                case 2:
+                    content = "First line " + i + "\nSecond line\nThird line";
+                    break;
+                default:
+                    content = i + " " + longContent;
+                    break;
+            }
+            notes.add(new Note(title, content));
+        }
+
+        return notes;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.sample.continote;
+
+import android.app.Application;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.Nullable;
+
+import com.firebasecontinue.FirebaseContinue;
+import com.google.firebase.auth.FirebaseUser;
+
+/**
+ * The Application of this app, which starts the work that happens once per run of the app rather
+ * than once per screen.
+ *
+ * None of that work is needed to show the first screen, so it waits until the main thread is
+ * first idle (i.e. the first screen has been drawn), and then for the signed in user to be known.
+ */
+public class ContinoteApplication extends Application {
+
+    // Firebase-related
+    private final AuthStateHub.Subscriber mHandleUserChanged = new AuthStateHub.Subscriber() {
+        @Override
+        public void onUserChanged(@Nullable FirebaseUser user) {
+            if (user != null) {
+                handleUserSignedIn(user);
+            } else {
+                handleUserSignedOut();
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                // Listen for changes to the signed in user for the lifetime of the app.
+                AuthStateHub.getInstance().subscribe(mHandleUserChanged);
+
+                // Only do this once.
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Handles when the user signs in, or is already signed in when the app starts.
+     *
+     * @param user The user who is now signed in.
+     */
+    private void handleUserSignedIn(FirebaseUser user) {
+        // Replay any saves of the user's Notes which were never acknowledged by the database
+        // before this app was last killed (see PendingSaveLog). This only happens once per run.
+        PendingSaveLog.getInstance(this).replay(user.getUid());
+
+        // Keep the user's Firebase Continue data small by deleting their expired Activity
+        // whenever the app (re)connects to the database.
+        FirebaseContinue.startDeletingExpiredActivities(
+                getString(R.string.app_name_for_firebase_continue));
+    }
+
+    /**
+     * Handles when the user signs out.
+     */
+    private void handleUserSignedOut() {
+        // There is no user whose expired Activity could be deleted.
+        FirebaseContinue.stopDeletingExpiredActivities();
+    }
+}
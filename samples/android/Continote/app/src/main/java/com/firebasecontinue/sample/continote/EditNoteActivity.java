@@ -16,25 +16,33 @@ package com.firebasecontinue.sample.continote;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.constraint.ConstraintLayout;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 
+import com.firebasecontinue.ActivityKeepAlive;
 import com.firebasecontinue.FirebaseContinue;
-import com.google.android.gms.tasks.Continuation;
+import com.firebasecontinue.Tracing;
+import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The Activity that presents the user with a Note editor to edit a specific Note, if
@@ -52,10 +60,44 @@ public class EditNoteActivity extends BaseActivity {
     @Nullable
     private String mDatabaseKey = null;
 
+    // When the user asked to edit the Note, from SystemClock.uptimeMillis(), or -1 once the time
+    // it took to show the Note has been logged (or if it is unknown).
+    private long mRequestedAtUptimeMillis = -1;
+
     // Firebase Realtime Database reference for the current user's Note to edit, based on the key.
     @Nullable
     private DatabaseReference mDatabaseRef = null;
 
+    // The cached value of the Note shown in the Note editor while the current value of the Note
+    // is gathered from the Firebase Realtime Database, if any.
+    @Nullable
+    private Note mCachedNoteShown = null;
+
+    // Whether or not the current value of the Note has been gathered and shown.
+    private boolean mFreshNoteShown = false;
+
+    // The size of the content of the Note as it was last loaded or saved (see NoteStats), or -1
+    // if it is not known.
+    private long mSavedContentBytes = -1;
+
+    // Syncs edits to the Note with any other client that has it open, once the current value of
+    // the Note has been gathered.
+    @Nullable
+    private NoteSyncSession mSyncSession = null;
+
+    // Keeps the broadcast to continue writing the Note elsewhere from expiring while the user stays
+    // on this screen, once they have asked to continue writing it elsewhere.
+    @Nullable
+    private ActivityKeepAlive mActivityKeepAlive = null;
+
+    // Whether or not the Note editor's inputs are being changed by this app rather than the user,
+    // in which case the changes are not sent to other clients.
+    private boolean mUpdatingNoteEditorInputs = false;
+
+    // Whether or not this Activity has been destroyed, after which work it started which completes
+    // later (such as loading the Note) must be ignored.
+    private boolean mDestroyed = false;
+
     // UI elements
     @Nullable
     private ConstraintLayout mNoteNotFoundUiContainer = null;
@@ -82,6 +124,8 @@ public class EditNoteActivity extends BaseActivity {
             finish();
             return;
         }
+        mRequestedAtUptimeMillis = intent.getLongExtra(
+                getString(R.string.extra_note_requested_at_uptime_millis), -1);
 
         setContentView(R.layout.activity_edit_note);
 
@@ -124,9 +168,24 @@ public class EditNoteActivity extends BaseActivity {
             throw new AssertionError("mContinueWritingElsewhereButton must be non-null");
         }
 
+        // Send each edit the user makes to the Note editor's inputs to any other client that has
+        // the Note open.
+        mNoteTitleTextInput.addTextChangedListener(
+                new NoteEditorInputWatcher(NoteOperation.FIELD_TITLE));
+        mNoteContentTextInput.addTextChangedListener(
+                new NoteEditorInputWatcher(NoteOperation.FIELD_CONTENT));
+
         resetUiToInitialState();
     }
 
+    @Override
+    protected void onDestroy() {
+        mDestroyed = true;
+        stopSyncSession();
+
+        super.onDestroy();
+    }
+
     @Override
     protected void handleUserSignedIn(FirebaseUser user) {
         super.handleUserSignedIn(user);
@@ -136,43 +195,236 @@ public class EditNoteActivity extends BaseActivity {
             throw new AssertionError("user must be non-null");
         }
 
-        // Try to get the current value of the Note to edit from the Firebase Realtime
-        // Database. We only get this value once here to keep things simple.
-        // The Note could change elsewhere while on this screen, thus saving could
-        // overwrite any of those changes.
-        mDatabaseRef = FirebaseDatabase.getInstance().getReference(
-                "notes/" + user.getUid() + "/" + mDatabaseKey);
-        mDatabaseRef.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot snapshot) {
-                final Note note = snapshot.getValue(Note.class);
-                runOnUiThread(new Runnable() {
-                    public void run() {
-                        handleNoteToEditFound(note);
+        // While the current value of the Note is being gathered below, show the cached value of
+        // the Note (if there is one) so the user does not have to wait to start editing.
+        stopSyncSession();
+        final String uid = user.getUid();
+        mCachedNoteShown = null;
+        mFreshNoteShown = false;
+        mSavedContentBytes = -1;
+        final NoteCache noteCache = NoteCache.getInstance(this);
+        noteCache.get(uid, mDatabaseKey).addOnSuccessListener(
+                this,
+                new OnSuccessListener<Note>() {
+                    @Override
+                    public void onSuccess(Note cachedNote) {
+                        if (BuildConfig.DEBUG) {
+                            Log.d(TAG, noteCache.toString());
+                        }
+                        handleCachedNoteToEditFound(cachedNote);
                     }
                 });
-            }
 
-            @Override
-            public void onCancelled(DatabaseError error) {
-                runOnUiThread(new Runnable() {
-                    public void run() {
-                        handleNoteToEditNotFound();
+        // Try to get the current value of the Note to edit from the Firebase Realtime
+        // Database, sharing the read with anything else loading this Note at the same time (see
+        // NoteRepository). We only get this value once here: after that, changes made to the
+        // Note elsewhere while on this screen are synced incrementally by a NoteSyncSession.
+        mDatabaseRef = FirebaseDatabase.getInstance().getReference(
+                "notes/" + uid + "/" + mDatabaseKey);
+        Task<Void> pendingCreation =
+                NoteRepository.getInstance().getPendingCreation(uid, mDatabaseKey);
+        if (pendingCreation != null) {
+            // The Note was opened before the database confirmed it was created (see
+            // MyNotesActivity), so if creating it fails, there is nothing left to edit.
+            // The listener is scoped to this Activity, since the creation is tracked by
+            // NoteRepository and can fail after this Activity is gone. If the Activity is stopped
+            // by then, loading the Note shows that it was not found instead.
+            pendingCreation.addOnFailureListener(this, new OnFailureListener() {
+                @Override
+                public void onFailure(Exception e) {
+                    finish();
+                }
+            });
+        }
+        NoteRepository.getInstance().load(uid, mDatabaseKey).addOnCompleteListener(
+                new OnCompleteListener<Note>() {
+                    @Override
+                    public void onComplete(Task<Note> task) {
+                        // The load is shared (and so not tied to this Activity's lifecycle), so
+                        // it can complete after this Activity is gone, when starting a sync
+                        // session would leak its listeners.
+                        if (mDestroyed) {
+                            return;
+                        }
+
+                        Tracing.beginSection("EditNoteActivity.handleNoteLoaded");
+                        try {
+                            handleNoteLoaded(uid, task);
+                        } finally {
+                            Tracing.endSection();
+                        }
                     }
                 });
-            }
-        });
     }
 
     @Override
     protected void handleUserSignedOut() {
         super.handleUserSignedOut();
 
+        stopSyncSession();
+
         // The user must be signed in to view this screen, so navigate away from it if the user is
         // signed out.
         finish();
     }
 
+    /**
+     * Handles when loading the current value of the Note the user wants to edit from the
+     * Firebase Realtime Database has completed.
+     *
+     * @param uid The uid of the current user.
+     * @param task The Task which loaded the Note.
+     */
+    private void handleNoteLoaded(String uid, Task<Note> task) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, NoteRepository.getInstance().toString());
+            Log.d(TAG, NoteDeserializer.getStatsSummary());
+        }
+        if (!task.isSuccessful()) {
+            mFreshNoteShown = true;
+            mCachedNoteShown = null;
+            handleNoteToEditNotFound();
+
+            return;
+        }
+
+        Note note = task.getResult();
+        NoteCache.getInstance(this).put(uid, mDatabaseKey, note);
+        mSavedContentBytes = (note != null) ? NoteStats.getContentBytes(note.getContent()) : -1;
+        handleFreshNoteToEditFound(note);
+        startSyncSession(uid, note);
+    }
+
+    /**
+     * Handles when the cached value of the Note the user wants to edit has been gathered.
+     *
+     * Unless the current value of the Note has already been gathered from the Firebase Realtime
+     * Database, the cached value is shown in the Note editor until it is.
+     *
+     * @param cachedNote The cached value of the Note, or null if the Note was not cached.
+     */
+    private void handleCachedNoteToEditFound(@Nullable Note cachedNote) {
+        if (cachedNote == null || mFreshNoteShown) {
+            return;
+        }
+
+        mCachedNoteShown = cachedNote;
+        handleNoteToEditFound(cachedNote);
+    }
+
+    /**
+     * Handles when the current value of the Note the user wants to edit has been gathered from
+     * the Firebase Realtime Database.
+     *
+     * If the cached value of the Note is already shown, it is reconciled with the current value:
+     * the Note editor is only updated if the values differ and the user has not yet started
+     * editing the cached value, so no input from the user is ever discarded.
+     *
+     * @param note The current value of the Note that the user wishes to edit.
+     */
+    private void handleFreshNoteToEditFound(@Nullable Note note) {
+        mFreshNoteShown = true;
+
+        Note cachedNote = mCachedNoteShown;
+        mCachedNoteShown = null;
+        if (cachedNote != null
+                && (noteEditorInputsMatch(note) || !noteEditorInputsMatch(cachedNote))) {
+            // Either the cached value was already current, or the user has started editing it.
+            return;
+        }
+
+        handleNoteToEditFound(note);
+    }
+
+    /**
+     * Starts syncing edits to the Note with any other client that has it open.
+     *
+     * Any edits the user already made (for example, to the cached value of the Note) are sent to
+     * the other clients first.
+     *
+     * @param uid The uid of the current user.
+     * @param note The current value of the Note, or null if the Note does not exist.
+     */
+    private void startSyncSession(String uid, @Nullable Note note) {
+        stopSyncSession();
+        if (note == null) {
+            return;
+        }
+
+        mSyncSession = new NoteSyncSession(uid, mDatabaseKey, note, new NoteSyncSession.Listener() {
+            @Override
+            public void onRemoteOperationApplied(NoteOperation operation) {
+                applyRemoteOperationToNoteEditorInputs(operation);
+            }
+        });
+        sendNoteEditorInputsToSyncSession();
+        mSyncSession.start();
+    }
+
+    /**
+     * Stops syncing edits to the Note, if they are being synced.
+     */
+    private void stopSyncSession() {
+        if (mSyncSession != null) {
+            mSyncSession.stop();
+            mSyncSession = null;
+        }
+    }
+
+    /**
+     * Applies an edit another client made to the Note to the Note editor's inputs, without moving
+     * the user's cursor any more than necessary.
+     *
+     * @param operation The edit, relative to the current values of the Note editor's inputs.
+     */
+    private void applyRemoteOperationToNoteEditorInputs(NoteOperation operation) {
+        EditText input = NoteOperation.FIELD_TITLE.equals(operation.getField())
+                ? mNoteTitleTextInput : mNoteContentTextInput;
+        Editable editable = input.getText();
+        int start = Math.max(0, Math.min(operation.getPosition(), editable.length()));
+        int end = Math.max(start, Math.min(start + operation.getDeleteCount(), editable.length()));
+
+        mUpdatingNoteEditorInputs = true;
+        try {
+            editable.replace(start, end, (operation.getText() != null) ? operation.getText() : "");
+
+            // The inputs should now match the session, but if they somehow do not, the session is
+            // the source of truth.
+            if (mSyncSession != null
+                    && !mSyncSession.getLocalTitle().equals(
+                            mNoteTitleTextInput.getText().toString())) {
+                mNoteTitleTextInput.setText(mSyncSession.getLocalTitle());
+            }
+            if (mSyncSession != null
+                    && !mSyncSession.getLocalContent().equals(
+                            mNoteContentTextInput.getText().toString())) {
+                mNoteContentTextInput.setText(mSyncSession.getLocalContent());
+            }
+        } finally {
+            mUpdatingNoteEditorInputs = false;
+        }
+    }
+
+    /**
+     * Sends any differences between the Note editor's inputs and the sync session's values of the
+     * Note to the other clients, as edits which replace the whole field.
+     */
+    private void sendNoteEditorInputsToSyncSession() {
+        String title = mNoteTitleTextInput.getText().toString();
+        String localTitle = mSyncSession.getLocalTitle();
+        if (!title.equals(localTitle)) {
+            mSyncSession.applyLocalOperation(new NoteOperation(
+                    null, NoteOperation.FIELD_TITLE, 0, localTitle.length(), title));
+        }
+
+        String content = mNoteContentTextInput.getText().toString();
+        String localContent = mSyncSession.getLocalContent();
+        if (!content.equals(localContent)) {
+            mSyncSession.applyLocalOperation(new NoteOperation(
+                    null, NoteOperation.FIELD_CONTENT, 0, localContent.length(), content));
+        }
+    }
+
     /**
      * Handles when the Note the user wants to edit has been found.
      *
@@ -182,6 +434,26 @@ public class EditNoteActivity extends BaseActivity {
      * @param note The Note that the user wishes to edit.
      */
     private void handleNoteToEditFound(Note note) {
+        Tracing.beginSection("EditNoteActivity.showNote");
+        try {
+            showNoteToEdit(note);
+        } finally {
+            Tracing.endSection();
+        }
+
+        if (mRequestedAtUptimeMillis >= 0) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Note shown " + (SystemClock.uptimeMillis() - mRequestedAtUptimeMillis)
+                        + "ms after it was requested");
+            }
+            mRequestedAtUptimeMillis = -1;
+        }
+    }
+
+    /**
+     * Shows the provided Note in the Note editor, and enables the Note editor UI elements.
+     */
+    private void showNoteToEdit(Note note) {
         // The Note to edit was found, so show and enable only the appropriate UI elements.
         resetUiToInitialState();
         setNoteEditorInputsToUseValuesFrom(note);
@@ -224,8 +496,28 @@ public class EditNoteActivity extends BaseActivity {
      * @param note The Note to use for the Note editor's inputs.
      */
     private void setNoteEditorInputsToUseValuesFrom(@Nullable Note note) {
-        mNoteTitleTextInput.setText((note != null) ? note.getTitle() : "");
-        mNoteContentTextInput.setText((note != null) ? note.getContent() : "");
+        mUpdatingNoteEditorInputs = true;
+        try {
+            mNoteTitleTextInput.setText((note != null) ? note.getTitle() : "");
+            mNoteContentTextInput.setText((note != null) ? note.getContent() : "");
+        } finally {
+            mUpdatingNoteEditorInputs = false;
+        }
+    }
+
+    /**
+     * Determines and then returns whether or not the Note editor's inputs match the values from
+     * the provided Note.
+     *
+     * @param note The Note to compare the Note editor's inputs to.
+     * @return true iff the Note editor's inputs are the same as the Note's values, false otherwise.
+     */
+    private boolean noteEditorInputsMatch(@Nullable Note note) {
+        String title = (note != null && note.getTitle() != null) ? note.getTitle() : "";
+        String content = (note != null && note.getContent() != null) ? note.getContent() : "";
+
+        return title.equals(mNoteTitleTextInput.getText().toString())
+                && content.equals(mNoteContentTextInput.getText().toString());
     }
 
     /**
@@ -260,24 +552,128 @@ public class EditNoteActivity extends BaseActivity {
             return task;
         }
 
-        // Finally, attempt to save the Note asynchronously.
-        Note noteFromInputs = new Note(
-                mNoteTitleTextInput.getText().toString(),
-                mNoteContentTextInput.getText().toString());
-        mDatabaseRef.setValue(noteFromInputs, new DatabaseReference.CompletionListener() {
+        // Finally, attempt to save the Note asynchronously, logging the save first so that it is
+        // replayed if the app is killed before the database acknowledges it.
+        final Note noteFromInputs = getNoteFromEditorInputs();
+        final String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+        final PendingSaveLog pendingSaveLog = PendingSaveLog.getInstance(this);
+        pendingSaveLog.append(uid, mDatabaseKey, noteFromInputs);
+        FirebaseDatabase.getInstance().getReference().updateChildren(
+                createSaveUpdates(uid, noteFromInputs),
+                new DatabaseReference.CompletionListener() {
+                    @Override
+                    public void onComplete(DatabaseError error, DatabaseReference ref) {
+                        pendingSaveLog.acknowledge(uid, mDatabaseKey, noteFromInputs);
+                        if (error == null) {
+                            handleNoteSaved(uid, noteFromInputs);
+
+                            // Set that this Task was successful.
+                            taskCompletion.setResult(null);
+                        } else {
+                            // Set that this Task was unsuccessful.
+                            taskCompletion.setException(error.toException());
+                        }
+                    }
+                });
+
+        return task;
+    }
+
+    /**
+     * Attempts to asynchronously set the value of the Note currently being edited in the Firebase
+     * Realtime Database based on the Note editor inputs, and broadcast that the user may wish to
+     * continue writing it elsewhere, in a single atomic write.
+     *
+     * Since both are committed together, the user can never be offered to continue writing a Note
+     * elsewhere whose latest values did not save, and only one round trip to the database is made.
+     *
+     * @return A Task which, upon completion, signals whether or not the Note was successfully
+     * saved and broadcast, or that neither happened.
+     */
+    private Task<Void> saveNoteToDatabaseAndBroadcastToContinue() {
+        // First, ensure the current user is signed in.
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            return Tasks.forException(new IllegalStateException("The user must be signed in"));
+        }
+
+        // Next, ensure the we have a reference to this Note for the current user.
+        if (mDatabaseRef == null) {
+            return Tasks.forException(new IllegalStateException("Database ref must be non-null"));
+        }
+
+        // Finally, attempt to save and broadcast the Note asynchronously, logging the save first
+        // (see saveNoteToDatabase()).
+        final Note noteFromInputs = getNoteFromEditorInputs();
+        final String uid = user.getUid();
+        final PendingSaveLog pendingSaveLog = PendingSaveLog.getInstance(this);
+        pendingSaveLog.append(uid, mDatabaseKey, noteFromInputs);
+        return FirebaseContinue.broadcastActivityToContinue(
+                getString(R.string.continote_url_to_edit_note_with_key, mDatabaseKey),
+                getString(R.string.app_name_for_firebase_continue),
+                createSaveUpdates(uid, noteFromInputs)
+        ).addOnCompleteListener(new OnCompleteListener<Void>() {
             @Override
-            public void onComplete(DatabaseError error, DatabaseReference ref) {
-                if (error == null) {
-                    // Set that this Task was successful.
-                    taskCompletion.setResult(null);
-                } else {
-                    // Set that this Task was unsuccessful.
-                    taskCompletion.setException(error.toException());
-                }
+            public void onComplete(Task<Void> task) {
+                pendingSaveLog.acknowledge(uid, mDatabaseKey, noteFromInputs);
+            }
+        }).addOnSuccessListener(new OnSuccessListener<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                handleNoteSaved(uid, noteFromInputs);
             }
         });
+    }
 
-        return task;
+    /**
+     * Handles when the Note currently being edited has been saved to the Firebase Realtime
+     * Database, by keeping the cached and loaded values of the Note, along with the statistics of
+     * the current user's Notes (see NoteStats), up to date.
+     *
+     * @param uid The uid of the current user.
+     * @param note The Note that was saved.
+     */
+    private void handleNoteSaved(String uid, Note note) {
+        NoteCache.getInstance(this).put(uid, mDatabaseKey, note);
+        NoteRepository.getInstance().handleNoteSaved(uid, mDatabaseKey, note);
+
+        // If the size of the content before this save is not known, this still records that a
+        // Note was modified, and the size is corrected when the statistics are next reconciled.
+        long contentBytes = NoteStats.getContentBytes(note.getContent());
+        NoteStats.recordChange(
+                uid, 0, (mSavedContentBytes >= 0) ? contentBytes - mSavedContentBytes : 0);
+        mSavedContentBytes = contentBytes;
+    }
+
+    /**
+     * Creates and returns the multi-path update which saves the provided Note, keyed by paths
+     * relative to the root of the Firebase Realtime Database.
+     *
+     * @param uid The uid of the current user.
+     * @param note The Note to save.
+     * @return The updates to save the Note.
+     */
+    private Map<String, Object> createSaveUpdates(String uid, Note note) {
+        if (mSyncSession != null) {
+            // Let the sync session know the Note was saved, along with the Note itself.
+            return mSyncSession.createSaveUpdates(note);
+        }
+
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("notes/" + uid + "/" + mDatabaseKey, NoteCodec.toMap(note));
+
+        return updates;
+    }
+
+    /**
+     * Creates and returns a Note based on the Note editor inputs.
+     *
+     * @return A new Note with the values from the Note editor inputs.
+     */
+    private Note getNoteFromEditorInputs() {
+        return new Note(
+                mNoteTitleTextInput.getText().toString(),
+                mNoteContentTextInput.getText().toString());
     }
 
     /**
@@ -300,6 +696,9 @@ public class EditNoteActivity extends BaseActivity {
                         new OnSuccessListener<Void>() {
                             @Override
                             public void onSuccess(Void result) {
+                                if (BuildConfig.DEBUG) {
+                                    Log.d(TAG, NoteContentCodec.getStatsSummary());
+                                }
                                 showSnackbar(R.string.save_note_successful);
                             }
                         })
@@ -326,23 +725,15 @@ public class EditNoteActivity extends BaseActivity {
             throw new AssertionError("view must be non-null");
         }
 
-        // Save the Note first so that when the user opens it elsewhere they see the latest
-        // values for the Note (that they presumably wrote here in this app).
+        // Save the Note along with the broadcast so that when the user opens it elsewhere they
+        // see the latest values for the Note (that they presumably wrote here in this app).
         final EditNoteActivity activity = (EditNoteActivity) v.getContext();
-        saveNoteToDatabase().continueWithTask(new Continuation<Void, Task<Void>>() {
-            @Override
-            public Task<Void> then(Task<Void> task) throws Exception {
-                // Now that the Note has been saved, broadcast that the user may wish to continue
-                // writing it.
-                return FirebaseContinue.broadcastActivityToContinue(
-                        getString(R.string.continote_url_to_edit_note_with_key, mDatabaseKey),
-                        getString(R.string.app_name_for_firebase_continue));
-            }
-        }).addOnSuccessListener(
+        saveNoteToDatabaseAndBroadcastToContinue().addOnSuccessListener(
                 activity,
                 new OnSuccessListener<Void>() {
                     @Override
                     public void onSuccess(Void result) {
+                        keepBroadcastToContinueAlive();
                         showSnackbar(R.string.broadcast_to_continue_successful);
                     }
                 }
@@ -357,4 +748,50 @@ public class EditNoteActivity extends BaseActivity {
                 }
         );
     }
+
+    /**
+     * Keeps the broadcast to continue writing the Note elsewhere, which was just made, from
+     * expiring while the user stays on this screen, since they may keep writing here for longer
+     * than the broadcast stays relevant. This stops once the user leaves this screen.
+     */
+    private void keepBroadcastToContinueAlive() {
+        if (mActivityKeepAlive != null) {
+            mActivityKeepAlive.stop();
+        }
+
+        mActivityKeepAlive = FirebaseContinue.keepActivityToContinueAlive(
+                this,
+                getString(R.string.continote_url_to_edit_note_with_key, mDatabaseKey),
+                getString(R.string.app_name_for_firebase_continue));
+    }
+
+    /**
+     * Watches one of the Note editor's inputs, and sends each edit the user makes to it to any
+     * other client that has the Note open.
+     */
+    private class NoteEditorInputWatcher implements TextWatcher {
+
+        // The field of the Note the watched input is for.
+        private final String mField;
+
+        NoteEditorInputWatcher(String field) {
+            mField = field;
+        }
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            if (mUpdatingNoteEditorInputs || mSyncSession == null) {
+                return;
+            }
+
+            mSyncSession.applyLocalOperation(new NoteOperation(
+                    null, mField, start, before, s.subSequence(start, start + count).toString()));
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {}
+    }
 }
@@ -0,0 +1,308 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the listeners this app registers (on the Firebase Realtime Database, and with
+ * the AuthStateHub), along with what owns each of them, so that listeners which are never removed
+ * can be found.
+ *
+ * Each listener is registered on behalf of an owner, such as an Activity. When the owner reaches
+ * the end of its lifecycle (for example, when an Activity is destroyed), it lets this know with
+ * handleOwnerReleased(), at which point any listener it still owns has leaked: it keeps the owner
+ * from being garbage collected, and keeps the database syncing data nobody will see.
+ *
+ * This only keeps track of listeners in debug builds. In release builds, registering and removing
+ * listeners through this is the same as doing so directly.
+ */
+public final class ListenerTracker {
+
+    private static final String TAG = "ListenerTracker";
+
+    // The path reported for subscriptions to the AuthStateHub.
+    public static final String AUTH_STATE_PATH = "(auth state)";
+
+    @Nullable
+    private static ListenerTracker sInstance = null;
+
+    /**
+     * A listener registered on behalf of an owner.
+     */
+    private static final class Subscription {
+
+        private final String mPath;
+        private final Object mListener;
+
+        private Subscription(String path, Object listener) {
+            mPath = path;
+            mListener = listener;
+        }
+    }
+
+    private final boolean mEnabled;
+
+    // The listeners currently registered, by owner.
+    private final Map<Object, List<Subscription>> mSubscriptionsByOwner = new IdentityHashMap<>();
+
+    // The number of listeners found to have leaked so far.
+    private int mLeakCount = 0;
+
+    // Whether or not finding a leaked listener throws, rather than only being logged.
+    private boolean mFailOnLeak = false;
+
+    /**
+     * Gets and returns the ListenerTracker for this app, creating it if necessary.
+     *
+     * @return The ListenerTracker for this app.
+     */
+    public static synchronized ListenerTracker getInstance() {
+        if (sInstance == null) {
+            sInstance = new ListenerTracker(BuildConfig.DEBUG);
+        }
+
+        return sInstance;
+    }
+
+    private ListenerTracker(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Sets whether or not finding a leaked listener throws an IllegalStateException (from
+     * handleOwnerReleased()), rather than only being logged, so that tests fail on leaks.
+     *
+     * @param failOnLeak true to throw when a leaked listener is found.
+     */
+    public synchronized void setFailOnLeak(boolean failOnLeak) {
+        mFailOnLeak = failOnLeak;
+    }
+
+    /**
+     * Adds the provided ChildEventListener to the provided Query, on behalf of the provided owner.
+     *
+     * @param owner What the listener is registered for, which must remove it before it is
+     *              released.
+     * @param query The Query to listen to.
+     * @param listener The listener to add.
+     */
+    public void addChildEventListener(Object owner, Query query, ChildEventListener listener) {
+        query.addChildEventListener(listener);
+        track(owner, getPath(query), listener);
+    }
+
+    /**
+     * Adds the provided ValueEventListener to the provided Query, on behalf of the provided owner.
+     *
+     * @param owner What the listener is registered for, which must remove it before it is
+     *              released.
+     * @param query The Query to listen to.
+     * @param listener The listener to add.
+     */
+    public void addValueEventListener(Object owner, Query query, ValueEventListener listener) {
+        query.addValueEventListener(listener);
+        track(owner, getPath(query), listener);
+    }
+
+    /**
+     * Removes the provided ChildEventListener from the provided Query, on behalf of the provided
+     * owner. This does nothing if the listener is not registered.
+     *
+     * @param owner What the listener was registered for.
+     * @param query The Query the listener was added to, or the reference of that Query.
+     * @param listener The listener to remove.
+     */
+    public void removeEventListener(Object owner, Query query, ChildEventListener listener) {
+        query.removeEventListener(listener);
+        untrack(owner, getPath(query), listener);
+    }
+
+    /**
+     * Removes the provided ValueEventListener from the provided Query, on behalf of the provided
+     * owner. This does nothing if the listener is not registered.
+     *
+     * @param owner What the listener was registered for.
+     * @param query The Query the listener was added to, or the reference of that Query.
+     * @param listener The listener to remove.
+     */
+    public void removeEventListener(Object owner, Query query, ValueEventListener listener) {
+        query.removeEventListener(listener);
+        untrack(owner, getPath(query), listener);
+    }
+
+    /**
+     * Records that the provided listener was registered on behalf of the provided owner, for
+     * listeners which are not registered on the Firebase Realtime Database (such as subscriptions
+     * to the AuthStateHub).
+     *
+     * @param owner What the listener is registered for.
+     * @param path What the listener listens to.
+     * @param listener The listener that was registered.
+     */
+    public synchronized void track(Object owner, String path, Object listener) {
+        if (!mEnabled) {
+            return;
+        }
+
+        List<Subscription> subscriptions = mSubscriptionsByOwner.get(owner);
+        if (subscriptions == null) {
+            subscriptions = new ArrayList<>();
+            mSubscriptionsByOwner.put(owner, subscriptions);
+        }
+        subscriptions.add(new Subscription(path, listener));
+    }
+
+    /**
+     * Records that the provided listener, registered on behalf of the provided owner, was
+     * removed. This does nothing if the listener is not registered.
+     *
+     * @param owner What the listener was registered for.
+     * @param path What the listener listened to.
+     * @param listener The listener that was removed.
+     */
+    public synchronized void untrack(Object owner, String path, Object listener) {
+        if (!mEnabled) {
+            return;
+        }
+
+        List<Subscription> subscriptions = mSubscriptionsByOwner.get(owner);
+        if (subscriptions == null) {
+            return;
+        }
+
+        // Removing a listener from a location removes it from every Query of that location.
+        Iterator<Subscription> iterator = subscriptions.iterator();
+        while (iterator.hasNext()) {
+            Subscription subscription = iterator.next();
+            if (subscription.mListener == listener && subscription.mPath.equals(path)) {
+                iterator.remove();
+            }
+        }
+        if (subscriptions.isEmpty()) {
+            mSubscriptionsByOwner.remove(owner);
+        }
+    }
+
+    /**
+     * Handles when the provided owner has reached the end of its lifecycle, by reporting every
+     * listener it still owns as leaked.
+     *
+     * The leaked listeners are then forgotten, so each leak is only reported once.
+     *
+     * @param owner The owner which was released.
+     * @throws IllegalStateException If any listener leaked and setFailOnLeak(true) was called.
+     */
+    public synchronized void handleOwnerReleased(Object owner) {
+        if (!mEnabled) {
+            return;
+        }
+
+        List<Subscription> leaked = mSubscriptionsByOwner.remove(owner);
+        if (leaked == null) {
+            return;
+        }
+
+        mLeakCount += leaked.size();
+        for (Subscription subscription : leaked) {
+            Log.e(TAG, describe(owner) + " leaked a listener on " + subscription.mPath + ": "
+                    + subscription.mListener);
+        }
+        Log.e(TAG, toString());
+
+        if (mFailOnLeak) {
+            throw new IllegalStateException(
+                    describe(owner) + " leaked " + leaked.size() + " listener(s)");
+        }
+    }
+
+    /**
+     * Gets and returns the number of listeners found to have leaked so far.
+     *
+     * @return The number of leaked listeners.
+     */
+    public synchronized int getLeakCount() {
+        return mLeakCount;
+    }
+
+    /**
+     * Gets and returns the number of listeners currently registered.
+     *
+     * @return The number of live listeners.
+     */
+    public synchronized int getLiveCount() {
+        int count = 0;
+        for (List<Subscription> subscriptions : mSubscriptionsByOwner.values()) {
+            count += subscriptions.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets and returns a summary of the listeners currently registered, for logging.
+     *
+     * @return The number of live listeners by owner and by path, along with the number leaked.
+     */
+    @Override
+    public synchronized String toString() {
+        if (!mEnabled) {
+            return "ListenerTracker{disabled}";
+        }
+
+        Map<String, Integer> countsByOwner = new TreeMap<>();
+        Map<String, Integer> countsByPath = new TreeMap<>();
+        for (Map.Entry<Object, List<Subscription>> entry : mSubscriptionsByOwner.entrySet()) {
+            countsByOwner.put(describe(entry.getKey()), entry.getValue().size());
+            for (Subscription subscription : entry.getValue()) {
+                Integer count = countsByPath.get(subscription.mPath);
+                countsByPath.put(subscription.mPath, (count != null) ? count + 1 : 1);
+            }
+        }
+
+        return "ListenerTracker{live=" + getLiveCount()
+                + ", leaked=" + mLeakCount
+                + ", byOwner=" + countsByOwner
+                + ", byPath=" + countsByPath + "}";
+    }
+
+    private static String describe(Object owner) {
+        return owner.getClass().getSimpleName() + "@" + Integer.toHexString(
+                System.identityHashCode(owner));
+    }
+
+    private String getPath(Query query) {
+        if (!mEnabled) {
+            return "";
+        }
+
+        String url = query.getRef().toString();
+        String rootUrl = query.getRef().getRoot().toString();
+
+        return url.startsWith(rootUrl) ? url.substring(rootUrl.length()) : url;
+    }
+}
@@ -15,15 +15,21 @@
 package com.firebasecontinue.sample.continote;
 
 import android.content.Intent;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.TextView;
 
 import com.facebook.login.LoginBehavior;
 import com.facebook.login.LoginManager;
 import com.firebase.ui.auth.AuthUI;
+import com.firebasecontinue.Tracing;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseUser;
@@ -36,14 +42,23 @@ import java.util.List;
  *
  * It presents the user with an initial screen to either sign in and then navigate to other screens,
  * or sign out.
+ *
+ * Since this is the screen the app starts on, nothing it does before its first frame is drawn may
+ * wait on FirebaseUI or the Facebook SDK: they are only configured once the user chooses to sign
+ * in or out (see prepareAuthUi()), and a user who is already signed in is shown as such from the
+ * cached FirebaseUser right away.
  */
 public class MainActivity extends BaseActivity {
 
-    // The authentication methods this app allows.
-    private static final List<AuthUI.IdpConfig> AUTH_PROVIDERS =
-            Arrays.asList(
-                    new AuthUI.IdpConfig.Builder(AuthUI.GOOGLE_PROVIDER).build(),
-                    new AuthUI.IdpConfig.Builder(AuthUI.FACEBOOK_PROVIDER).build());
+    private static final String TAG = "MainActivity";
+
+    // The authentication methods this app allows, or null if they have not been needed yet.
+    @Nullable
+    private static List<AuthUI.IdpConfig> sAuthProviders = null;
+
+    // Whether or not the time to this Activity's first frame has been logged, since only the
+    // first time this Activity is created in each process is a cold start.
+    private static boolean sStartupTimeLogged = false;
 
     // UI elements
     @Nullable
@@ -55,14 +70,23 @@ public class MainActivity extends BaseActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
+        Tracing.beginSection("MainActivity.onCreate");
+        try {
+            super.onCreate(savedInstanceState);
+            logStartupTimeOnFirstFrame(SystemClock.uptimeMillis());
+            setUpUi();
+        } finally {
+            Tracing.endSection();
+        }
+    }
 
+    /**
+     * Sets up the UI of this Activity, showing the cached authentication state (if any) so the
+     * first frame does not have to wait for the AuthStateHub.
+     */
+    private void setUpUi() {
         setContentView(R.layout.activity_main);
 
-        // Force Facebook authentication to use the web. This simplifies the setup process for this
-        // sample since it requires the minimal amount of configuration within Facebook.
-        LoginManager.getInstance().setLoginBehavior(LoginBehavior.WEB_ONLY);
-
         // Gather the UI elements for this Activity for future manipulation.
 
         mAuthMessageTextView = (TextView) findViewById(R.id.authMessageTextView);
@@ -82,6 +106,50 @@ public class MainActivity extends BaseActivity {
             // This should never happen, but just in case.
             throw new AssertionError("mMyNotesButton must be non-null");
         }
+
+        // FirebaseAuth keeps the signed in user on the device, so it is known immediately. The
+        // AuthStateHub confirms it (or informs this of any change) once this Activity starts.
+        FirebaseUser user = AuthStateHub.getInstance().getCurrentUser();
+        if (user != null) {
+            showUserSignedIn(user);
+        } else {
+            showUserSignedOut();
+        }
+    }
+
+    /**
+     * Logs how long it took to draw the first frame of this Activity, if this is the first time
+     * it is created in this process: from when the process started, when that is known, and from
+     * when this Activity was created.
+     *
+     * @param createdAtUptimeMillis When this Activity was created, from SystemClock.uptimeMillis().
+     */
+    private void logStartupTimeOnFirstFrame(final long createdAtUptimeMillis) {
+        if (sStartupTimeLogged) {
+            return;
+        }
+        sStartupTimeLogged = true;
+
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                        long now = SystemClock.uptimeMillis();
+                        String processStartMessage = "";
+                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                            processStartMessage = (now - Process.getStartUptimeMillis())
+                                    + "ms after the process started, ";
+                        }
+                        Log.d(TAG, "First frame drawn " + processStartMessage
+                                + (now - createdAtUptimeMillis) + "ms after onCreate");
+
+                        // Let the frame be drawn.
+                        return true;
+                    }
+                });
     }
 
     @Override
@@ -93,7 +161,20 @@ public class MainActivity extends BaseActivity {
             throw new AssertionError("user must be non-null");
         }
 
-        // Update the UI to reflect the user now being signed in.
+        showUserSignedIn(user);
+    }
+
+    @Override
+    protected void handleUserSignedOut() {
+        super.handleUserSignedOut();
+
+        showUserSignedOut();
+    }
+
+    /**
+     * Updates the UI to reflect the provided user being signed in.
+     */
+    private void showUserSignedIn(FirebaseUser user) {
         mAuthMessageTextView.setText(
                 getString(R.string.auth_message_when_signed_in,
                           user.getDisplayName(),
@@ -102,11 +183,10 @@ public class MainActivity extends BaseActivity {
         mMyNotesButton.setVisibility(View.VISIBLE);
     }
 
-    @Override
-    protected void handleUserSignedOut() {
-        super.handleUserSignedOut();
-
-        // Update the UI to reflect the user now being signed out.
+    /**
+     * Updates the UI to reflect the user being signed out.
+     */
+    private void showUserSignedOut() {
         mAuthMessageTextView.setText(
                 getString(R.string.auth_message_when_signed_out,
                           getString(R.string.app_name)));
@@ -121,6 +201,8 @@ public class MainActivity extends BaseActivity {
      *          This should only be the authButton itself.
      */
     public void handleAuthButtonTapped(@Nullable View v) {
+        prepareAuthUi();
+
         if (currentUserIsSignedIn()) {
             // The current user is signed in, so attempt to sign them out.
             AuthUI.getInstance()
@@ -139,7 +221,7 @@ public class MainActivity extends BaseActivity {
             startActivityForResult(
                     AuthUI.getInstance()
                             .createSignInIntentBuilder()
-                            .setAvailableProviders(AUTH_PROVIDERS)
+                            .setAvailableProviders(sAuthProviders)
                             .setIsSmartLockEnabled(false)
                             .setTheme(R.style.AppTheme)
                             .build(),
@@ -147,6 +229,32 @@ public class MainActivity extends BaseActivity {
         }
     }
 
+    /**
+     * Configures FirebaseUI and the Facebook SDK for signing in or out, if they have not been
+     * already.
+     *
+     * This is deferred until the user actually chooses to sign in or out, so that starting this
+     * app does not have to wait for either.
+     */
+    private void prepareAuthUi() {
+        if (sAuthProviders != null) {
+            return;
+        }
+
+        Tracing.beginSection("MainActivity.prepareAuthUi");
+        try {
+            sAuthProviders = Arrays.asList(
+                    new AuthUI.IdpConfig.Builder(AuthUI.GOOGLE_PROVIDER).build(),
+                    new AuthUI.IdpConfig.Builder(AuthUI.FACEBOOK_PROVIDER).build());
+
+            // Force Facebook authentication to use the web. This simplifies the setup process for
+            // this sample since it requires the minimal amount of configuration within Facebook.
+            LoginManager.getInstance().setLoginBehavior(LoginBehavior.WEB_ONLY);
+        } finally {
+            Tracing.endSection();
+        }
+    }
+
     /**
      * Handles when the user taps the myNotesButton.
      *
@@ -18,44 +18,126 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.support.annotation.Nullable;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AlertDialog;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.text.format.Formatter;
 import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.view.ActionMode;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ListView;
 
-import com.firebase.ui.database.FirebaseListAdapter;
+import com.firebasecontinue.Tracing;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Activity that presents the user with a list of their Notes in Continote.
  *
- * From here the user can add, delete, or open to edit Notes.
+ * From here the user can add, delete, export, import, or open to edit Notes.
  */
 public class MyNotesActivity extends BaseActivity {
 
     private static final String TAG = "MyNotesActivity";
 
+    // The maximum number of search results shown to the user at once.
+    private static final int MAX_SEARCH_RESULTS = 50;
+
+    // The number of Notes, from the top of the visible list items, that are prefetched whenever
+    // the user stops scrolling.
+    private static final int PREFETCH_VISIBLE_NOTE_COUNT = 3;
+
+    // The number of Notes loaded into the list at a time, as the user scrolls to the end of it.
+    private static final int NOTES_PAGE_SIZE = 50;
+
+    // The number of synthetic Notes bound when checking the bind budget (see BindBudget).
+    private static final int BIND_BUDGET_NOTE_COUNT = 200;
+
+    // The maximum number of Notes deleted by a single multi-path update, to stay well within the
+    // database's limits on the size of a single write.
+    private static final int MAX_NOTES_DELETED_PER_UPDATE = 500;
+
+    // The name of the file that Notes are exported to and imported from.
+    private static final String NOTES_EXPORT_FILE_NAME = "continote-notes.ndjson";
+
     // Firebase Realtime Database reference for the current user's Notes within Continote.
     @Nullable
     private DatabaseReference mNotesRef = null;
 
     // Adapter that populates the ListView of Notes.
     @Nullable
-    private FirebaseListAdapter<Note> mAdapter = null;
+    private NoteListAdapter mAdapter = null;
+
+    // The maximum number of the most recently updated Notes currently loaded into the list.
+    private int mNotesLimit = NOTES_PAGE_SIZE;
+
+    // Search index over the current user's Notes, kept up to date by listening to mNotesRef once
+    // the user starts searching, or null until then.
+    @Nullable
+    private NoteSearchIndex mSearchIndex = null;
+
+    // Adapter that populates the ListView of search results.
+    @Nullable
+    private ArrayAdapter<NoteSearchIndex.Result> mSearchResultsAdapter = null;
+
+    // Firebase Realtime Database reference for the statistics of the current user's Notes, which
+    // are shown as the subtitle of this screen (see NoteStats).
+    @Nullable
+    private DatabaseReference mNoteStatsRef = null;
+
+    // Whether or not the statistics of the current user's Notes have been reconciled (or are
+    // being reconciled) since they signed in.
+    private boolean mNoteStatsReconciled = false;
+
+    private final ValueEventListener mNoteStatsListener = new ValueEventListener() {
+        @Override
+        public void onDataChange(DataSnapshot snapshot) {
+            handleNoteStatsChanged(NoteStats.fromSnapshot(snapshot));
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            Log.e(TAG, error.getMessage(), error.toException());
+        }
+    };
 
     // UI elements
     @Nullable
+    private EditText mSearchTextInput = null;
+    @Nullable
+    private ListView mSearchResultsListView = null;
+    @Nullable
     private ListView mListView = null;
     @Nullable
     private Button mNewNoteButton = null;
@@ -68,6 +150,18 @@ public class MyNotesActivity extends BaseActivity {
 
         // Gather the UI elements for this Activity for future manipulation.
 
+        mSearchTextInput = (EditText) findViewById(R.id.searchTextInput);
+        if (mSearchTextInput == null) {
+            // This should never happen, but just in case.
+            throw new AssertionError("mSearchTextInput must be non-null");
+        }
+
+        mSearchResultsListView = (ListView) findViewById(R.id.searchResultsListView);
+        if (mSearchResultsListView == null) {
+            // This should never happen, but just in case.
+            throw new AssertionError("mSearchResultsListView must be non-null");
+        }
+
         mListView = (ListView) findViewById(R.id.listView);
         if (mListView == null) {
             // This should never happen, but just in case.
@@ -79,15 +173,78 @@ public class MyNotesActivity extends BaseActivity {
             // This should never happen, but just in case.
             throw new AssertionError("mNewNoteButton must be non-null");
         }
+
+        // Set up searching the current user's Notes. Results are shown in place of the list of
+        // all Notes while there is a search query.
+        mSearchResultsAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1);
+        mSearchResultsListView.setAdapter(mSearchResultsAdapter);
+        mSearchResultsListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                // Since the search result was tapped, open to edit the Note.
+                openEditScreenForNoteWithKey(
+                        mSearchResultsAdapter.getItem(position).getNoteDatabaseKey(),
+                        SystemClock.uptimeMillis());
+            }
+        });
+        mSearchTextInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                updateSearchResults();
+            }
+        });
     }
 
     @Override
     protected void onDestroy() {
-        super.onDestroy();
-
         if (mAdapter != null) {
             mAdapter.cleanup();
         }
+
+        ListenerTracker listenerTracker = ListenerTracker.getInstance();
+        if (mNotesRef != null && mSearchIndex != null) {
+            listenerTracker.removeEventListener(this, mNotesRef, mSearchIndex);
+            mSearchIndex = null;
+        }
+
+        if (mNoteStatsRef != null) {
+            listenerTracker.removeEventListener(this, mNoteStatsRef, mNoteStatsListener);
+        }
+
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.my_notes, menu);
+
+        // Checking the bind budget is only possible in debug builds.
+        menu.findItem(R.id.checkBindBudgetMenuItem).setVisible(BuildConfig.DEBUG);
+
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.exportNotesMenuItem:
+                transferNotes(true);
+                return true;
+            case R.id.importNotesMenuItem:
+                transferNotes(false);
+                return true;
+            case R.id.checkBindBudgetMenuItem:
+                checkBindBudget();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
     }
 
     @Override
@@ -99,34 +256,83 @@ public class MyNotesActivity extends BaseActivity {
             throw new AssertionError("user must be non-null");
         }
 
+        // Stop syncing with the Notes for any previously signed in user.
+        if (mAdapter != null) {
+            mAdapter.cleanup();
+        }
+
         // Set up our ListView up to sync with the Notes for the current user from the Firebase
-        // Realtime Database.
+        // Realtime Database, with the most recently updated Notes first. The database orders the
+        // Notes and only sends the first page of them; more are loaded as the user scrolls.
+        ListenerTracker listenerTracker = ListenerTracker.getInstance();
+        if (mNotesRef != null && mSearchIndex != null) {
+            listenerTracker.removeEventListener(this, mNotesRef, mSearchIndex);
+        }
+        mSearchIndex = null;
         mNotesRef = FirebaseDatabase.getInstance().getReference("notes/" + user.getUid());
-        mAdapter = new FirebaseListAdapter<Note>(
-                this,
-                Note.class,
-                R.layout.note_list_item,
-                mNotesRef) {
+        mNotesLimit = NOTES_PAGE_SIZE;
+        mAdapter = new NoteListAdapter(this, R.layout.note_list_item, createNotesQuery(), true) {
             @Override
             protected void populateView(View view, Note note, int position) {
-                String noteDatabaseKey = getRef(position).getKey();
-                NoteListItemViewHolder viewHolder =
-                        (NoteListItemViewHolder) view.getTag();
-                if (viewHolder == null) {
-                    // Set up the ViewHolder to manage this View (i.e. set the content
-                    // of the View based on the Note).
-                    viewHolder =
-                            new NoteListItemViewHolder(view, note, noteDatabaseKey);
-                    view.setTag(viewHolder);
-                } else {
-                    // Since a ViewHolder already existed for this View, update it
-                    // based on the Note (since values for the Note may have changed).
-                    viewHolder.update(view, note, noteDatabaseKey);
+                Tracing.beginSection("MyNotesActivity.populateView");
+                try {
+                    NoteListItemViewHolder.bind(view, note, getKey(position));
+                } finally {
+                    Tracing.endSection();
                 }
             }
         };
         mListView.setAdapter(mAdapter);
 
+        // Prefetch the Notes the user is likely to open next (see NoteRepository), so that the
+        // Edit Note screen does not have to wait for them: the Note list item the user has
+        // started to press, and the topmost visible Note list items once the user stops
+        // scrolling.
+        final String uid = user.getUid();
+        mListView.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View view, MotionEvent event) {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                    prefetchNoteAtPosition(
+                            uid, mListView.pointToPosition((int) event.getX(), (int) event.getY()));
+                }
+
+                // Let the ListView handle the touch as usual.
+                return false;
+            }
+        });
+        mListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
+                    int firstVisiblePosition = view.getFirstVisiblePosition();
+                    int lastVisiblePosition = Math.min(
+                            view.getLastVisiblePosition(),
+                            firstVisiblePosition + PREFETCH_VISIBLE_NOTE_COUNT - 1);
+                    for (int position = firstVisiblePosition;
+                            position <= lastVisiblePosition;
+                            position++) {
+                        prefetchNoteAtPosition(uid, position);
+                    }
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view,
+                                 int firstVisibleItem,
+                                 int visibleItemCount,
+                                 int totalItemCount) {
+                // Once the user reaches the end of the list, load the next page of Notes if the
+                // current page is full (i.e. there may be more Notes).
+                if (mAdapter != null
+                        && totalItemCount >= mNotesLimit
+                        && firstVisibleItem + visibleItemCount >= totalItemCount) {
+                    mNotesLimit += NOTES_PAGE_SIZE;
+                    mAdapter.setQuery(createNotesQuery());
+                }
+            }
+        });
+
         // Allow the user to tap on a Note list item to open and edit that Note.
         mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -138,69 +344,61 @@ public class MyNotesActivity extends BaseActivity {
                 }
 
                 // Since the item was tapped, open to edit the Note.
-                openEditScreenForNoteWithKey(viewHolder.getNoteDatabaseKey());
+                openEditScreenForNoteWithKey(
+                        viewHolder.getNoteDatabaseKey(), SystemClock.uptimeMillis());
             }
         });
 
-        // Allow the user to press and hold on a Note list item to choose to delete that Note.
-        mListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+        // Allow the user to press and hold on a Note list item to start selecting Notes, and then
+        // choose to delete all of the selected Notes at once.
+        mListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        mListView.setMultiChoiceModeListener(new AbsListView.MultiChoiceModeListener() {
             @Override
-            public boolean onItemLongClick(AdapterView<?> parent,
-                                           View view,
-                                           int position,
-                                           long id) {
-                final NoteListItemViewHolder viewHolder = (NoteListItemViewHolder) view.getTag();
-                if (viewHolder == null) {
-                    // This should never happen, but just in case.
-                    throw new AssertionError("viewHolder must be non-null");
-                }
+            public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+                mode.getMenuInflater().inflate(R.menu.note_list_selection, menu);
+                return true;
+            }
 
-                // Show a dialog with an option for the user to delete this Note.
-                final MyNotesActivity myNotesActivity = (MyNotesActivity) view.getContext();
-                new AlertDialog.Builder(myNotesActivity)
-                    .setTitle(R.string.delete_note_dialog_title)
-                    .setMessage(R.string.delete_note_dialog_message)
-                    .setPositiveButton(
-                            R.string.delete_note_dialog_positive_button_text,
-                            new DialogInterface.OnClickListener() {
-                                public void onClick(DialogInterface dialog, int which) {
-                                    // Try to delete the note, and show an error message if
-                                    // something goes wrong.
-                                    deleteNoteFromDatabase(viewHolder.getNoteDatabaseKey())
-                                        .addOnFailureListener(
-                                                myNotesActivity,
-                                                new OnFailureListener() {
-                                                    @Override
-                                                    public void onFailure(Exception e) {
-                                                        Log.e(TAG, e.getMessage(), e);
-                                                        showSnackbar(R.string.delete_note_failed);
-                                                    }
-                                                });
-
-                                    // Regardless of whether or not the Note successfully
-                                    // gets deleted, close the dialog immediately.
-                                    dialog.dismiss();
-                                }
-                            })
-                    .setNegativeButton(
-                            R.string.delete_note_dialog_negative_button_text,
-                            new DialogInterface.OnClickListener() {
-                                @Override
-                                public void onClick(DialogInterface dialog, int which) {
-                                    // Do nothing since the user does not want to delete the Note.
-                                    dialog.dismiss();
-                                }
-                            })
-                    .create()
-                    .show();
+            @Override
+            public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+                return false;
+            }
 
+            @Override
+            public void onItemCheckedStateChanged(ActionMode mode,
+                                                  int position,
+                                                  long id,
+                                                  boolean checked) {
+                mode.setTitle(getString(
+                        R.string.notes_selected_title, mListView.getCheckedItemCount()));
+            }
+
+            @Override
+            public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+                if (item.getItemId() != R.id.deleteSelectedNotesMenuItem) {
+                    return false;
+                }
+
+                showDeleteSelectedNotesDialog(mode);
                 return true;
             }
+
+            @Override
+            public void onDestroyActionMode(ActionMode mode) {}
         });
 
         // Finally, show this screen's UI since everything is ready.
-        mListView.setVisibility(View.VISIBLE);
+        mSearchTextInput.setVisibility(View.VISIBLE);
         mNewNoteButton.setVisibility(View.VISIBLE);
+        updateSearchResults();
+
+        // Show the statistics of the current user's Notes, without having to load all of them.
+        if (mNoteStatsRef != null) {
+            listenerTracker.removeEventListener(this, mNoteStatsRef, mNoteStatsListener);
+        }
+        mNoteStatsReconciled = false;
+        mNoteStatsRef = NoteStats.getRef(user.getUid());
+        listenerTracker.addValueEventListener(this, mNoteStatsRef, mNoteStatsListener);
     }
 
     @Override
@@ -212,12 +410,154 @@ public class MyNotesActivity extends BaseActivity {
         finish();
     }
 
+    /**
+     * Handles when the statistics of the current user's Notes have changed, by showing them, and
+     * reconciling them with the Notes themselves if they are missing or have not been for a
+     * while.
+     *
+     * @param stats The statistics of the current user's Notes, or null if they do not exist yet.
+     */
+    private void handleNoteStatsChanged(@Nullable NoteStats stats) {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setSubtitle((stats != null)
+                    ? getString(R.string.note_stats_subtitle,
+                                stats.getCount(),
+                                Formatter.formatShortFileSize(this, stats.getContentBytes()))
+                    : null);
+        }
+
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user != null
+                && !mNoteStatsReconciled
+                && (stats == null || stats.needsReconciliation())) {
+            // The reconciled statistics are shown once this listener is informed of them.
+            mNoteStatsReconciled = true;
+            NoteStats.reconcile(user.getUid());
+        }
+    }
+
+    /**
+     * Updates the search results based on the current search query, and shows either the search
+     * results (if there is a query) or the list of all Notes (if there is not).
+     */
+    private void updateSearchResults() {
+        String query = mSearchTextInput.getText().toString();
+        if (TextUtils.getTrimmedLength(query) == 0) {
+            mSearchResultsAdapter.clear();
+            mSearchResultsListView.setVisibility(View.GONE);
+            mListView.setVisibility((mAdapter != null) ? View.VISIBLE : View.GONE);
+
+            return;
+        }
+
+        startSearchIndexIfNecessary();
+        if (mSearchIndex == null) {
+            return;
+        }
+
+        mSearchResultsAdapter.clear();
+        mSearchResultsAdapter.addAll(mSearchIndex.search(query, MAX_SEARCH_RESULTS));
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Searched " + mSearchIndex.getNoteCount() + " notes in "
+                    + TimeUnit.NANOSECONDS.toMicros(mSearchIndex.getLastQueryTimeNanos())
+                    + "us (total indexing time "
+                    + TimeUnit.NANOSECONDS.toMillis(mSearchIndex.getTotalIndexTimeNanos())
+                    + "ms)");
+        }
+        mListView.setVisibility(View.GONE);
+        mSearchResultsListView.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Starts building the search index over the current user's Notes, unless it has already been
+     * started, and then updates the search results once the Notes have been indexed.
+     *
+     * Unlike the list of Notes, which is loaded a page at a time, the search index must read all
+     * of the user's Notes, so this only happens once the user starts searching. From then on, only
+     * the Notes which are added, changed, or removed are re-indexed.
+     */
+    private void startSearchIndexIfNecessary() {
+        if (mSearchIndex != null || mNotesRef == null) {
+            return;
+        }
+
+        final NoteSearchIndex searchIndex = new NoteSearchIndex();
+        mSearchIndex = searchIndex;
+        ListenerTracker.getInstance().addChildEventListener(this, mNotesRef, searchIndex);
+
+        // The database informs the search index of every existing Note before informing this
+        // listener of them, and the search index indexes them in order on the executor of
+        // NoteDeserializer. So by the time a task queued there from this listener runs, every
+        // existing Note has been indexed.
+        mNotesRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                NoteDeserializer.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mSearchIndex == searchIndex) {
+                                    updateSearchResults();
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                Log.e(TAG, error.getMessage(), error.toException());
+            }
+        });
+    }
+
+    /**
+     * Creates and returns the Query for the most recently updated Notes of the current user, up
+     * to the current limit, ordered from least to most recently updated.
+     *
+     * Notes which have not been saved since they started recording when they were updated are
+     * ordered first, so they are only loaded once every other Note is.
+     *
+     * @return The Query for the Notes to show in the list.
+     */
+    private Query createNotesQuery() {
+        if (mNotesRef == null) {
+            // This should never happen, but just in case.
+            throw new AssertionError("mNotesRef must be non-null");
+        }
+
+        return mNotesRef.orderByChild(NoteCodec.UPDATED_AT_KEY).limitToLast(mNotesLimit);
+    }
+
+    /**
+     * Prefetches the Note shown by the Note list item at the provided position, if any.
+     *
+     * @param uid The uid of the current user.
+     * @param position The position of the Note list item within the ListView, which may be
+     *                 ListView.INVALID_POSITION.
+     */
+    private void prefetchNoteAtPosition(String uid, int position) {
+        if (mAdapter == null || position < 0 || position >= mAdapter.getCount()) {
+            return;
+        }
+
+        NoteRepository.getInstance().prefetch(uid, mAdapter.getKey(position));
+    }
+
     /**
      * Opens the Edit Note screen for the Note with the provided database key.
      *
      * @param databaseKey The Firebase Realtime Database key of the Note to edit.
+     * @param requestedAtUptimeMillis When the user asked to edit the Note, from
+     *                                SystemClock.uptimeMillis(). The Edit Note screen logs how
+     *                                long it took to show the Note from then.
      */
-    private void openEditScreenForNoteWithKey(final String databaseKey) {
+    private void openEditScreenForNoteWithKey(final String databaseKey,
+                                              long requestedAtUptimeMillis) {
         if (TextUtils.isEmpty(databaseKey)) {
             // This should never happen, but just in case.
             throw new AssertionError("databaseKey must be non-empty");
@@ -225,6 +565,8 @@ public class MyNotesActivity extends BaseActivity {
 
         final Intent intent = new Intent(this, EditNoteActivity.class);
         intent.putExtra(getString(R.string.extra_note_database_key), databaseKey);
+        intent.putExtra(
+                getString(R.string.extra_note_requested_at_uptime_millis), requestedAtUptimeMillis);
         runOnUiThread(new Runnable() {
             public void run() {
                 startActivity(intent);
@@ -235,13 +577,17 @@ public class MyNotesActivity extends BaseActivity {
     /**
      * Handles when the user taps the writeNoteButton.
      *
-     * Adds a new Note to the Firebase Realtime Database for the current user,
-     * then opens that Note to allow the user to begin writing.
+     * Adds a new Note to the Firebase Realtime Database for the current user, and immediately
+     * opens that Note to allow the user to begin writing. The database key of a new Note is
+     * generated locally, so there is no need to wait for the database to confirm the Note was
+     * added before opening it. If adding the Note ultimately fails, the Edit Note screen closes
+     * itself (see EditNoteActivity) and the user is told here.
      *
      * @param v The View that called this triggered this handler.
      *          This should only be the writeNoteButton itself.
      */
     public void handleWriteNoteButtonTapped(@Nullable View v) {
+        long tappedAtUptimeMillis = SystemClock.uptimeMillis();
         if (!currentUserIsSignedIn() || mNotesRef == null) {
             // This should never happen, but just in case.
             throw new AssertionError(
@@ -249,29 +595,36 @@ public class MyNotesActivity extends BaseActivity {
         }
 
         // Try to add a new, empty Note to the Firebase Realtime Database for the current user.
-        addNoteToDatabase(new Note("", ""))
-                .addOnSuccessListener(
-                        MyNotesActivity.this,
-                        new OnSuccessListener<String>() {
-                            @Override
-                            public void onSuccess(String databaseKey) {
-                                // Open the Edit Note screen with this Note.
-                                // We do this so that the user may immediately edit the Note,
-                                // rather than having to wait for the ListView to update from
-                                // Firebase Realtime Database events and then manually tap the
-                                // list item for the Note.
-                                openEditScreenForNoteWithKey(databaseKey);
-                            }
-                        })
-                .addOnFailureListener(
-                        MyNotesActivity.this,
-                        new OnFailureListener() {
-                            @Override
-                            public void onFailure(Exception e) {
-                                Log.e(TAG, e.getMessage(), e);
-                                showSnackbar(R.string.create_new_note_failed);
-                            }
-                        });
+        final String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+        DatabaseReference newNoteRef = mNotesRef.push();
+        final String databaseKey = newNoteRef.getKey();
+        Task<Void> addNoteTask = addNoteToDatabase(newNoteRef, new Note("", ""));
+        NoteRepository.getInstance().trackPendingCreation(uid, databaseKey, addNoteTask);
+        addNoteTask.addOnSuccessListener(new OnSuccessListener<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                NoteStats.recordChange(uid, 1, 0);
+            }
+        });
+
+        // This listener is not scoped to this Activity, since this Activity will usually be
+        // stopped behind the Edit Note screen by the time adding the Note fails. The ListView
+        // rolls back by itself, since the database reverts the Note it optimistically added.
+        addNoteTask.addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(Exception e) {
+                Log.e(TAG, e.getMessage(), e);
+                if (!isFinishing()) {
+                    showSnackbar(R.string.create_new_note_failed);
+                }
+            }
+        });
+
+        // Open the Edit Note screen with this Note.
+        // We do this so that the user may immediately edit the Note, rather than having to wait
+        // for the ListView to update from Firebase Realtime Database events and then manually tap
+        // the list item for the Note.
+        openEditScreenForNoteWithKey(databaseKey, tappedAtUptimeMillis);
     }
 
     /**
@@ -280,13 +633,14 @@ public class MyNotesActivity extends BaseActivity {
      * This could be modified to go into the Note class, but this is the only place it is used,
      * so this is sufficient for this sample app.
      *
+     * @param newNoteRef The reference to add the Note at, from push() on the current user's Notes.
      * @param note The Note to add to the database for the current user.
      * @return A Task which, upon completion, signals whether or not the Note was successfully
-     * added to the database. Upon success, the Task provides the database key of the new Note.
+     * added to the database.
      */
-    private Task<String> addNoteToDatabase(Note note) {
-        final TaskCompletionSource<String> taskCompletion = new TaskCompletionSource<>();
-        Task<String> task = taskCompletion.getTask();
+    private Task<Void> addNoteToDatabase(DatabaseReference newNoteRef, Note note) {
+        final TaskCompletionSource<Void> taskCompletion = new TaskCompletionSource<>();
+        Task<Void> task = taskCompletion.getTask();
 
         // First, ensure the Note could be valid.
         if (note == null || note.getTitle() == null || note.getContent() == null) {
@@ -302,23 +656,15 @@ public class MyNotesActivity extends BaseActivity {
             return task;
         }
 
-        // Next, ensure the we have a reference to the current user's Notes.
-        if (mNotesRef == null) {
-            taskCompletion.setException(new IllegalStateException("No reference to user notes"));
-
-            return task;
-        }
-
         // Finally, attempt to add the Note asynchronously.
-        DatabaseReference newNoteRef = mNotesRef.push();
         newNoteRef.setValue(
-                note,
+                NoteCodec.toMap(note),
                 new DatabaseReference.CompletionListener() {
                     @Override
                     public void onComplete(DatabaseError error, DatabaseReference ref) {
                         if (error == null) {
                             // Set that this Task was successful.
-                            taskCompletion.setResult(ref.getKey());
+                            taskCompletion.setResult(null);
                         } else {
                             // Set that this Task was unsuccessful.
                             taskCompletion.setException(error.toException());
@@ -330,47 +676,212 @@ public class MyNotesActivity extends BaseActivity {
     }
 
     /**
-     * Attempts to asynchronously delete the Note for the current user with the provided database
-     * key from the Firebase Realtime Database.
+     * Checks that binding Note list items stays within its budget (see BindBudget), and then lets
+     * the user know whether or not it did. The measurements are logged.
+     */
+    private void checkBindBudget() {
+        BindBudget.Report report = BindBudget.getInstance()
+                .check(this, R.layout.note_list_item, BIND_BUDGET_NOTE_COUNT);
+        if (report != null) {
+            showSnackbar(report.isWithinBudget()
+                    ? R.string.bind_budget_met : R.string.bind_budget_exceeded);
+        }
+    }
+
+    /**
+     * Exports all of the current user's Notes to, or imports Notes from, the export file of this
+     * app (see NoteTransfer), and then lets the user know whether or not it worked.
      *
-     * This could be modified to go into the Note class, but this is the only place it is used,
-     * so this is sufficient for this sample app.
+     * @param export true to export the Notes, or false to import them.
+     */
+    private void transferNotes(final boolean export) {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            showSnackbar(export ? R.string.export_notes_failed : R.string.import_notes_failed);
+
+            return;
+        }
+
+        // Keep the file within this app's external files directory, so that it can be copied off
+        // of the device, without needing any permissions on KitKat and above.
+        File directory = getExternalFilesDir(null);
+        File file = new File(
+                (directory != null) ? directory : getFilesDir(), NOTES_EXPORT_FILE_NAME);
+
+        Task<NoteTransfer.Result> transferTask = export
+                ? NoteTransfer.exportNotes(user.getUid(), file)
+                : NoteTransfer.importNotes(user.getUid(), file);
+        transferTask.addOnSuccessListener(this, new OnSuccessListener<NoteTransfer.Result>() {
+            @Override
+            public void onSuccess(NoteTransfer.Result result) {
+                showSnackbar(export
+                        ? R.string.export_notes_successful : R.string.import_notes_successful);
+            }
+        }).addOnFailureListener(this, new OnFailureListener() {
+            @Override
+            public void onFailure(Exception e) {
+                Log.e(TAG, e.getMessage(), e);
+                showSnackbar(export ? R.string.export_notes_failed : R.string.import_notes_failed);
+            }
+        });
+    }
+
+    /**
+     * Shows a dialog with an option for the user to delete the currently selected Notes.
      *
-     * @param databaseKey The database key of the Note to delete.
-     * @return A Task which, upon completion, signals whether or not the Note with the provided key
-     * was successfully deleted from the database.
+     * @param mode The ActionMode in which the Notes are selected, which is finished if the user
+     *             chooses to delete them.
      */
-    private Task<Void> deleteNoteFromDatabase(String databaseKey) {
-        final TaskCompletionSource<Void> taskCompletion = new TaskCompletionSource<>();
-        Task<Void> task = taskCompletion.getTask();
+    private void showDeleteSelectedNotesDialog(final ActionMode mode) {
+        if (mAdapter == null) {
+            // This should never happen, but just in case.
+            throw new AssertionError("mAdapter must be non-null");
+        }
 
-        // First, ensure the database key could be valid.
-        if (TextUtils.isEmpty(databaseKey)) {
-            taskCompletion.setException(new IllegalArgumentException("databaseKey is invalid"));
+        // Gather the selected Notes now, since the list may change while the dialog is shown.
+        final Map<String, Note> notes = new LinkedHashMap<>();
+        SparseBooleanArray checkedPositions = mListView.getCheckedItemPositions();
+        for (int i = 0; i < checkedPositions.size(); i++) {
+            int position = checkedPositions.keyAt(i);
+            if (checkedPositions.valueAt(i) && position < mAdapter.getCount()) {
+                notes.put(mAdapter.getKey(position), mAdapter.getItem(position));
+            }
+        }
 
-            return task;
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.delete_notes_dialog_title)
+            .setMessage(R.string.delete_notes_dialog_message)
+            .setPositiveButton(
+                    R.string.delete_notes_dialog_positive_button_text,
+                    new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialog, int which) {
+                            // Try to delete the Notes, and show an error message if something
+                            // goes wrong.
+                            deleteNotesFromDatabase(notes)
+                                .addOnFailureListener(
+                                        MyNotesActivity.this,
+                                        new OnFailureListener() {
+                                            @Override
+                                            public void onFailure(Exception e) {
+                                                Log.e(TAG, e.getMessage(), e);
+                                                showSnackbar(R.string.delete_notes_failed);
+                                            }
+                                        });
+
+                            // Regardless of whether or not the Notes successfully get deleted,
+                            // stop selecting Notes and close the dialog immediately.
+                            mode.finish();
+                            dialog.dismiss();
+                        }
+                    })
+            .setNegativeButton(
+                    R.string.delete_notes_dialog_negative_button_text,
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            // Do nothing since the user does not want to delete the Notes.
+                            dialog.dismiss();
+                        }
+                    })
+            .create()
+            .show();
+    }
+
+    /**
+     * Attempts to asynchronously delete the Notes for the current user with the provided database
+     * keys from the Firebase Realtime Database.
+     *
+     * Each Note is deleted along with its operation log (see NoteSyncSession). All of the Notes
+     * are deleted in a single multi-path update, unless there are so many that the update would
+     * risk exceeding the database's limits on the size of a single write. In that case, they are
+     * deleted in several updates (each of which is still atomic), in parallel.
+     *
+     * This could be modified to go into the Note class, but this is the only place it is used,
+     * so this is sufficient for this sample app.
+     *
+     * @param notes The Notes to delete, keyed by their database keys. The Notes are only used to
+     *              keep the statistics of the current user's Notes up to date (see NoteStats).
+     * @return A Task which, upon completion, signals whether or not all of the Notes with the
+     * provided keys were successfully deleted from the database.
+     */
+    private Task<Void> deleteNotesFromDatabase(Map<String, Note> notes) {
+        // First, ensure the database keys could be valid.
+        List<String> databaseKeys = new ArrayList<>(notes.keySet());
+        for (String databaseKey : databaseKeys) {
+            if (TextUtils.isEmpty(databaseKey)) {
+                return Tasks.forException(new IllegalArgumentException("databaseKey is invalid"));
+            }
         }
 
         // Next, ensure the current user is signed in.
         if (FirebaseAuth.getInstance().getCurrentUser() == null) {
-            taskCompletion.setException(new IllegalStateException("The user must be signed in"));
-
-            return task;
+            return Tasks.forException(new IllegalStateException("The user must be signed in"));
         }
 
         // Next, ensure the we have a reference to the current user's Notes.
         if (mNotesRef == null) {
-            taskCompletion.setException(new IllegalStateException("No reference to user notes"));
+            return Tasks.forException(new IllegalStateException("No reference to user notes"));
+        }
 
-            return task;
+        // Finally, attempt to delete the Notes asynchronously, first discarding any of their
+        // saves which are pending, so that they are never replayed (see PendingSaveLog).
+        String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+        PendingSaveLog.getInstance(this).discard(uid, databaseKeys);
+        List<Task<Void>> chunkTasks = new ArrayList<>();
+        for (int start = 0; start < databaseKeys.size(); start += MAX_NOTES_DELETED_PER_UPDATE) {
+            int end = Math.min(databaseKeys.size(), start + MAX_NOTES_DELETED_PER_UPDATE);
+            long contentBytes = 0;
+            for (String databaseKey : databaseKeys.subList(start, end)) {
+                Note note = notes.get(databaseKey);
+                if (note != null) {
+                    contentBytes += NoteStats.getContentBytes(note.getContent());
+                }
+            }
+            chunkTasks.add(
+                    deleteNotesFromDatabase(uid, databaseKeys.subList(start, end), contentBytes));
         }
 
-        // Finally, attempt to delete the Note asynchronously.
-        mNotesRef.child(databaseKey).removeValue(
+        return Tasks.whenAll(chunkTasks);
+    }
+
+    /**
+     * Attempts to asynchronously delete the provided Notes for the current user from the
+     * Firebase Realtime Database, in a single multi-path update.
+     *
+     * @param uid The uid of the current user.
+     * @param databaseKeys The database keys of the Notes to delete.
+     * @param contentBytes The total size of the content of the Notes to delete.
+     * @return A Task which, upon completion, signals whether or not the Notes were successfully
+     * deleted from the database.
+     */
+    private Task<Void> deleteNotesFromDatabase(final String uid,
+                                               List<String> databaseKeys,
+                                               final long contentBytes) {
+        final TaskCompletionSource<Void> taskCompletion = new TaskCompletionSource<>();
+        Task<Void> task = taskCompletion.getTask();
+
+        final List<String> noteDatabaseKeys = new ArrayList<>(databaseKeys);
+        Map<String, Object> deletions = new HashMap<>();
+        for (String databaseKey : noteDatabaseKeys) {
+            deletions.put("notes/" + uid + "/" + databaseKey, null);
+            deletions.put("noteOperations/" + uid + "/" + databaseKey, null);
+        }
+        FirebaseDatabase.getInstance().getReference().updateChildren(
+                deletions,
                 new DatabaseReference.CompletionListener() {
                     @Override
                     public void onComplete(DatabaseError error, DatabaseReference ref) {
                         if (error == null) {
+                            // The Notes no longer exist, so they should no longer be cached. The
+                            // search index removes them as the database informs it they were.
+                            NoteCache noteCache = NoteCache.getInstance(MyNotesActivity.this);
+                            for (String noteDatabaseKey : noteDatabaseKeys) {
+                                noteCache.remove(uid, noteDatabaseKey);
+                                NoteRepository.getInstance()
+                                        .handleNoteSaved(uid, noteDatabaseKey, null);
+                            }
+                            NoteStats.recordChange(uid, -noteDatabaseKeys.size(), -contentBytes);
+
                             // Set that this Task was successful.
                             taskCompletion.setResult(null);
                         } else {
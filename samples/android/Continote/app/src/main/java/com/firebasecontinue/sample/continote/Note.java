@@ -19,6 +19,9 @@ import android.support.annotation.Nullable;
 /**
  * A Note for the user within Continote.
  * The schema of each Note is outlined in sample-database.rules.json within the web sample.
+ *
+ * Notes are converted to and from the values stored in the Firebase Realtime Database by
+ * NoteCodec, rather than by the Firebase Realtime Database via reflection.
  */
 public class Note {
 
@@ -30,6 +33,12 @@ public class Note {
     @Nullable
     private String mContent = null;
 
+    // When this Note was last saved, in milliseconds since the epoch, as set by the Firebase
+    // Realtime Database servers. This is null for Notes which have not been saved since this was
+    // added, and for Notes created on the client-side which have not been read back.
+    @Nullable
+    private Long mUpdatedAt = null;
+
     /**
      * Constructs a default Note without any values.
      *
@@ -72,6 +81,16 @@ public class Note {
         return mContent;
     }
 
+    /**
+     * Gets and returns when this Note was last saved.
+     *
+     * @return When this Note was last saved, in milliseconds since the epoch, or null if unknown.
+     */
+    @Nullable
+    public Long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+
     /**
      * Sets the title of this Note on the client-side.
      *
@@ -93,4 +112,17 @@ public class Note {
     public void setContent(@Nullable String content) {
         mContent = content;
     }
+
+    /**
+     * Sets when this Note was last saved on the client-side.
+     *
+     * Important reminder:
+     * This is never written to the Firebase Realtime Database: every save sets it to the time of
+     * the save on the servers instead (see NoteCodec).
+     *
+     * @param updatedAt When this Note was last saved, in milliseconds since the epoch.
+     */
+    public void setUpdatedAt(@Nullable Long updatedAt) {
+        mUpdatedAt = updatedAt;
+    }
 }
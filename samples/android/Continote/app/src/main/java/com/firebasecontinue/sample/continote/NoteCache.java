@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * A local, size-bounded, on-disk cache of the user's Notes.
+ *
+ * Each Note is cached under the key "[uid]/[noteKey]" so that a screen can render the last known
+ * value of a Note immediately, and then reconcile it with the fresh value once it arrives from the
+ * Firebase Realtime Database (i.e. stale-while-revalidate).
+ *
+ * When the total size of the cached Notes exceeds the maximum size, the least recently used Notes
+ * are evicted first. All disk access happens on a single background thread, so every operation
+ * is asynchronous and returns a Task. To understand how to use Tasks,
+ * see: https://developers.google.com/android/guides/tasks.
+ */
+public final class NoteCache {
+
+    private static final String TAG = "NoteCache";
+
+    // The name of the directory (within the app's cache directory) that holds the cached Notes.
+    private static final String CACHE_DIRECTORY_NAME = "note-cache";
+
+    // The maximum total size, in bytes, of all cached Notes on disk.
+    private static final long MAX_SIZE_BYTES = 1024 * 1024;
+
+    // The keys of the JSON object each Note is stored as on disk.
+    private static final String TITLE_KEY = "title";
+    private static final String CONTENT_KEY = "content";
+
+    // The suffix of the file each Note is written to before it replaces the cached value.
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    @Nullable
+    private static NoteCache sInstance = null;
+
+    // The directory that holds one subdirectory per user, which each hold one file per Note.
+    private final File mDirectory;
+
+    // All disk access happens on this executor, so the index below only needs to be guarded
+    // against the statistics getters.
+    private final Executor mDiskExecutor = Executors.newSingleThreadExecutor();
+
+    // The size on disk of each cached Note, keyed by "[uid]/[noteKey]", ordered from least to most
+    // recently used. This is lazily loaded from disk the first time the cache is used.
+    private final LinkedHashMap<String, Long> mEntrySizes =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private boolean mIndexLoaded = false;
+    private long mSizeBytes = 0;
+
+    // Statistics
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+
+    /**
+     * Gets and returns the NoteCache for this app, creating it if necessary.
+     *
+     * @param context Any Context within this app.
+     * @return The NoteCache for this app.
+     */
+    public static synchronized NoteCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NoteCache(
+                    new File(context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY_NAME));
+        }
+
+        return sInstance;
+    }
+
+    private NoteCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Attempts to asynchronously get the cached value of a Note.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @return A Task which, upon completion, provides the cached Note, or null if the Note is not
+     * cached.
+     */
+    public Task<Note> get(final String uid, final String noteKey) {
+        return Tasks.call(mDiskExecutor, new Callable<Note>() {
+            @Override
+            public Note call() throws Exception {
+                loadIndexIfNecessary();
+
+                String key = getKey(uid, noteKey);
+                File file = getFile(uid, noteKey);
+                Note note = null;
+                if (mEntrySizes.get(key) != null) {
+                    try {
+                        note = readNote(file);
+                    } catch (IOException | JSONException e) {
+                        // The cached Note is unreadable, so treat it as though it does not exist.
+                        Log.w(TAG, "Could not read cached note " + key, e);
+                        removeEntry(key, file);
+                    }
+                }
+
+                synchronized (NoteCache.this) {
+                    if (note != null) {
+                        mHitCount++;
+                    } else {
+                        mMissCount++;
+                    }
+                }
+
+                if (note != null) {
+                    // Record the access on disk as well, so least recently used ordering survives
+                    // the app restarting.
+                    file.setLastModified(System.currentTimeMillis());
+                }
+
+                return note;
+            }
+        });
+    }
+
+    /**
+     * Attempts to asynchronously cache the value of a Note, evicting the least recently used Notes
+     * if the cache grows too large.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @param note The Note to cache. If null, any cached value for the Note is removed instead.
+     * @return A Task which, upon completion, signals whether or not the Note was cached.
+     */
+    public Task<Void> put(final String uid, final String noteKey, @Nullable Note note) {
+        if (note == null) {
+            return remove(uid, noteKey);
+        }
+
+        // Copy the Note's values now, since the Note could be modified before the write happens.
+        final String title = note.getTitle();
+        final String content = note.getContent();
+        return Tasks.call(mDiskExecutor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                loadIndexIfNecessary();
+
+                String key = getKey(uid, noteKey);
+                File file = getFile(uid, noteKey);
+                removeEntry(key, file);
+                writeNote(file, title, content);
+                mEntrySizes.put(key, file.length());
+                mSizeBytes += file.length();
+                trimToSize();
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Attempts to asynchronously remove the cached value of a Note, if there is one.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @return A Task which, upon completion, signals whether or not the Note is no longer cached.
+     */
+    public Task<Void> remove(final String uid, final String noteKey) {
+        return Tasks.call(mDiskExecutor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                loadIndexIfNecessary();
+                removeEntry(getKey(uid, noteKey), getFile(uid, noteKey));
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gets and returns the number of times a requested Note was found in the cache.
+     *
+     * @return The number of cache hits since the app started.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Gets and returns the number of times a requested Note was not found in the cache.
+     *
+     * @return The number of cache misses since the app started.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Gets and returns the number of Notes removed from the cache to keep it within its size limit.
+     *
+     * @return The number of evictions since the app started.
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NoteCache{hits=" + mHitCount
+                + ", misses=" + mMissCount
+                + ", evictions=" + mEvictionCount + "}";
+    }
+
+    /**
+     * Loads the index of cached Notes from disk, ordered by when each Note was last used, if that
+     * has not already been done.
+     *
+     * Must only be called on the disk executor.
+     */
+    private void loadIndexIfNecessary() {
+        if (mIndexLoaded) {
+            return;
+        }
+        mIndexLoaded = true;
+
+        List<File> files = new ArrayList<>();
+        File[] userDirectories = mDirectory.listFiles();
+        if (userDirectories != null) {
+            for (File userDirectory : userDirectories) {
+                File[] noteFiles = userDirectory.listFiles();
+                if (noteFiles == null) {
+                    continue;
+                }
+
+                for (File noteFile : noteFiles) {
+                    if (noteFile.getName().endsWith(TEMPORARY_FILE_SUFFIX)) {
+                        // This is left over from a write that was interrupted, so discard it.
+                        noteFile.delete();
+                    } else {
+                        files.add(noteFile);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aLastModified = a.lastModified();
+                long bLastModified = b.lastModified();
+                return (aLastModified < bLastModified) ? -1
+                        : ((aLastModified == bLastModified) ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            mEntrySizes.put(getKey(file.getParentFile().getName(), file.getName()), file.length());
+            mSizeBytes += file.length();
+        }
+
+        trimToSize();
+    }
+
+    /**
+     * Evicts the least recently used Notes until the cache is within its size limit.
+     *
+     * Must only be called on the disk executor.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntrySizes.entrySet().iterator();
+        while (mSizeBytes > MAX_SIZE_BYTES && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(mDirectory, entry.getKey()).delete();
+            mSizeBytes -= entry.getValue();
+            iterator.remove();
+
+            synchronized (this) {
+                mEvictionCount++;
+            }
+        }
+    }
+
+    /**
+     * Removes a Note from the index and from disk.
+     *
+     * Must only be called on the disk executor.
+     */
+    private void removeEntry(String key, File file) {
+        Long size = mEntrySizes.remove(key);
+        if (size != null) {
+            mSizeBytes -= size;
+        }
+        file.delete();
+    }
+
+    private File getFile(String uid, String noteKey) {
+        if (TextUtils.isEmpty(uid) || TextUtils.isEmpty(noteKey)) {
+            throw new IllegalArgumentException("uid and noteKey must be non-empty");
+        }
+
+        return new File(new File(mDirectory, uid), noteKey);
+    }
+
+    private static String getKey(String uid, String noteKey) {
+        return uid + "/" + noteKey;
+    }
+
+    private static Note readNote(File file) throws IOException, JSONException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = input.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+                offset += read;
+            }
+        } finally {
+            input.close();
+        }
+
+        JSONObject json = new JSONObject(new String(bytes, "UTF-8"));
+        return new Note(json.optString(TITLE_KEY, null), json.optString(CONTENT_KEY, null));
+    }
+
+    private static void writeNote(File file, @Nullable String title, @Nullable String content)
+            throws IOException, JSONException {
+        JSONObject json = new JSONObject();
+        json.put(TITLE_KEY, title);
+        json.put(CONTENT_KEY, content);
+
+        // Write to a temporary file first, so a partially written Note is never read back.
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File temporaryFile = new File(directory, file.getName() + TEMPORARY_FILE_SUFFIX);
+        FileOutputStream output = new FileOutputStream(temporaryFile);
+        try {
+            output.write(json.toString().getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.ServerValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts Notes to and from the values stored in the Firebase Realtime Database.
+ *
+ * Passing a Note directly to the Firebase Realtime Database (or calling getValue(Note.class)) maps
+ * it via reflection over its getters and setters, which is slow and allocates heavily when done for
+ * many Notes at once. This reads and writes the fields of a Note directly instead, while storing
+ * exactly the same values: the schema of each Note is outlined in sample-database.rules.json
+ * within the web sample.
+ */
+public final class NoteCodec {
+
+    // The keys of the values of a Note within the Firebase Realtime Database.
+    public static final String TITLE_KEY = "title";
+    public static final String CONTENT_KEY = "content";
+    public static final String UPDATED_AT_KEY = "updatedAt";
+
+    /**
+     * Converts the provided DataSnapshot into a Note.
+     *
+     * @param snapshot The DataSnapshot of a Note.
+     * @return The Note, or null if the Note does not exist.
+     * @throws DatabaseException If the DataSnapshot is not of a Note.
+     */
+    @Nullable
+    public static Note fromSnapshot(DataSnapshot snapshot) {
+        if (!snapshot.exists()) {
+            return null;
+        }
+        if (!snapshot.hasChildren()) {
+            throw new DatabaseException("Expected a Note at " + snapshot.getKey()
+                    + ", but found a " + snapshot.getValue().getClass().getName());
+        }
+
+        Note note = new Note(
+                getString(snapshot.child(TITLE_KEY).getValue(), TITLE_KEY),
+                NoteContentCodec.decode(
+                        getString(snapshot.child(CONTENT_KEY).getValue(), CONTENT_KEY)));
+        note.setUpdatedAt(getLong(snapshot.child(UPDATED_AT_KEY).getValue(), UPDATED_AT_KEY));
+
+        return note;
+    }
+
+    /**
+     * Converts the provided Map, as the Firebase Realtime Database represents a Note (for example,
+     * within the value of a parent of the Note), into a Note.
+     *
+     * @param value The Map of the values of a Note.
+     * @return The Note, or null if the Map is null.
+     * @throws DatabaseException If the Map is not of a Note.
+     */
+    @Nullable
+    public static Note fromMap(@Nullable Map<String, Object> value) {
+        if (value == null) {
+            return null;
+        }
+
+        Note note = new Note(
+                getString(value.get(TITLE_KEY), TITLE_KEY),
+                NoteContentCodec.decode(getString(value.get(CONTENT_KEY), CONTENT_KEY)));
+        note.setUpdatedAt(getLong(value.get(UPDATED_AT_KEY), UPDATED_AT_KEY));
+
+        return note;
+    }
+
+    /**
+     * Converts the provided Note into the Map to store in the Firebase Realtime Database, such as
+     * via setValue() or as the value of an update within updateChildren().
+     *
+     * When the Note was last updated is always set to the time it is saved on the servers.
+     *
+     * @param note The Note to store.
+     * @return The values of the Note to store.
+     */
+    public static Map<String, Object> toMap(Note note) {
+        Map<String, Object> value = new HashMap<>(4);
+        value.put(TITLE_KEY, note.getTitle());
+        value.put(CONTENT_KEY, NoteContentCodec.encode(note.getContent()));
+        value.put(UPDATED_AT_KEY, ServerValue.TIMESTAMP);
+
+        return value;
+    }
+
+    @Nullable
+    private static String getString(@Nullable Object value, String key) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+
+        throw new DatabaseException("Expected a String for " + key
+                + ", but found a " + value.getClass().getName());
+    }
+
+    @Nullable
+    private static Long getLong(@Nullable Object value, String key) {
+        if (value == null || value instanceof Number) {
+            return (value != null) ? ((Number) value).longValue() : null;
+        }
+
+        throw new DatabaseException("Expected a Number for " + key
+                + ", but found a " + value.getClass().getName());
+    }
+
+    /**
+     * This class only exposes static methods, so no instances are necessary.
+     */
+    private NoteCodec() {
+        throw new UnsupportedOperationException("NoteCodec cannot be instantiated");
+    }
+}
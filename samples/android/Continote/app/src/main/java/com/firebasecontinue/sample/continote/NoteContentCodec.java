@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes the content of Notes as it is stored in the Firebase Realtime Database.
+ *
+ * Compression is opt-in: by default, content is stored as-is. When compression is enabled, content
+ * at least as long as the threshold is deflated and then Base64 encoded, behind a version marker,
+ * but only if doing so actually makes it smaller. Decoding always supports both forms, so Notes
+ * saved before compression was enabled (or by clients which never enable it) are read as-is.
+ *
+ * Important reminder:
+ * The other Continote samples do not decode compressed content, so only enable compression if
+ * every client that reads the user's Notes uses this codec.
+ */
+public final class NoteContentCodec {
+
+    private static final String TAG = "NoteContentCodec";
+
+    // The marker at the start of content which was compressed by version 1 of this codec.
+    // It starts with a control character that a user would not type, so it does not collide with
+    // the content of any uncompressed Note in practice.
+    private static final String VERSION_1_MARKER = "\u0001deflate1:";
+
+    // The default minimum length of content, in characters, for it to be compressed.
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    private static boolean sCompressionEnabled = false;
+    private static int sCompressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    // Statistics
+    private static int sEncodeCount = 0;
+    private static int sCompressedCount = 0;
+    private static long sEncodeInputBytes = 0;
+    private static long sEncodeOutputBytes = 0;
+    private static long sEncodeTimeNanos = 0;
+    private static int sDecompressedCount = 0;
+    private static long sDecodeTimeNanos = 0;
+
+    /**
+     * Sets whether or not content at least as long as the compression threshold is compressed
+     * when it is encoded.
+     *
+     * @param enabled true to compress content, false to store all content as-is.
+     */
+    public static synchronized void setCompressionEnabled(boolean enabled) {
+        sCompressionEnabled = enabled;
+    }
+
+    /**
+     * Sets the minimum length of content, in characters, for it to be compressed.
+     *
+     * @param threshold The minimum length of content to compress.
+     */
+    public static synchronized void setCompressionThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must be non-negative");
+        }
+
+        sCompressionThreshold = threshold;
+    }
+
+    /**
+     * Encodes the provided content for storage in the Firebase Realtime Database.
+     *
+     * @param content The content of a Note.
+     * @return The content as it should be stored.
+     */
+    @Nullable
+    public static String encode(@Nullable String content) {
+        boolean compressionEnabled;
+        int compressionThreshold;
+        synchronized (NoteContentCodec.class) {
+            compressionEnabled = sCompressionEnabled;
+            compressionThreshold = sCompressionThreshold;
+        }
+
+        if (content == null || !compressionEnabled || content.length() < compressionThreshold) {
+            return content;
+        }
+
+        long startTimeNanos = System.nanoTime();
+        byte[] input = getUtf8Bytes(content);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        String compressedContent =
+                VERSION_1_MARKER + Base64.encodeToString(output.toByteArray(), Base64.NO_WRAP);
+
+        // Only use the compressed content if it is actually smaller.
+        boolean compressed = compressedContent.length() < input.length;
+        String encodedContent = compressed ? compressedContent : content;
+        long elapsedNanos = System.nanoTime() - startTimeNanos;
+
+        synchronized (NoteContentCodec.class) {
+            sEncodeCount++;
+            sCompressedCount += compressed ? 1 : 0;
+            sEncodeInputBytes += input.length;
+            sEncodeOutputBytes += compressed ? compressedContent.length() : input.length;
+            sEncodeTimeNanos += elapsedNanos;
+        }
+
+        return encodedContent;
+    }
+
+    /**
+     * Decodes content as it was stored in the Firebase Realtime Database, whether or not it was
+     * compressed.
+     *
+     * @param encodedContent The content of a Note as it was stored.
+     * @return The content of the Note.
+     */
+    @Nullable
+    public static String decode(@Nullable String encodedContent) {
+        if (encodedContent == null || !encodedContent.startsWith(VERSION_1_MARKER)) {
+            // The content was stored as-is.
+            return encodedContent;
+        }
+
+        long startTimeNanos = System.nanoTime();
+        Inflater inflater = new Inflater();
+        try {
+            byte[] input = Base64.decode(
+                    encodedContent.substring(VERSION_1_MARKER.length()), Base64.NO_WRAP);
+            inflater.setInput(input);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated content");
+                }
+                output.write(buffer, 0, length);
+            }
+            String content = output.toString("UTF-8");
+
+            synchronized (NoteContentCodec.class) {
+                sDecompressedCount++;
+                sDecodeTimeNanos += System.nanoTime() - startTimeNanos;
+            }
+
+            return content;
+        } catch (IllegalArgumentException | DataFormatException | UnsupportedEncodingException e) {
+            // The content only looked compressed, so treat it as though it was stored as-is.
+            Log.w(TAG, "Could not decompress content", e);
+            return encodedContent;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Gets and returns the size of all compressed content relative to its original size, where
+     * content that was not worth compressing counts as its original size.
+     *
+     * @return The compression ratio of all encoded content so far, or 1 if none was encoded.
+     */
+    public static synchronized double getCompressionRatio() {
+        return (sEncodeInputBytes > 0) ? (double) sEncodeOutputBytes / sEncodeInputBytes : 1.0;
+    }
+
+    /**
+     * Gets and returns the total time spent compressing content.
+     *
+     * @return The total time spent encoding content, in nanoseconds.
+     */
+    public static synchronized long getEncodeTimeNanos() {
+        return sEncodeTimeNanos;
+    }
+
+    /**
+     * Gets and returns the total time spent decompressing content.
+     *
+     * @return The total time spent decoding compressed content, in nanoseconds.
+     */
+    public static synchronized long getDecodeTimeNanos() {
+        return sDecodeTimeNanos;
+    }
+
+    /**
+     * Gets and returns a summary of the statistics of this codec, for logging.
+     *
+     * @return A summary of the compression ratio and CPU cost of this codec so far.
+     */
+    public static synchronized String getStatsSummary() {
+        return "NoteContentCodec{encoded=" + sEncodeCount
+                + ", compressed=" + sCompressedCount
+                + ", ratio=" + getCompressionRatio()
+                + ", encodeNanos=" + sEncodeTimeNanos
+                + ", decompressed=" + sDecompressedCount
+                + ", decodeNanos=" + sDecodeTimeNanos + "}";
+    }
+
+    private static byte[] getUtf8Bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // This should never happen, since all Android devices support UTF-8.
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * This class only exposes static methods, so no instances are necessary.
+     */
+    private NoteContentCodec() {
+        throw new UnsupportedOperationException("NoteContentCodec cannot be instantiated");
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Converts DataSnapshots from the Firebase Realtime Database into Notes off of the main thread.
+ *
+ * The Firebase Realtime Database calls its listeners on the main thread, but converting a
+ * DataSnapshot into a Note (which may decompress the Note's content, see NoteContentCodec) can
+ * cause the UI to stutter for large Notes. Instead, listeners should hand their DataSnapshots to
+ * this, and only use the resulting Notes back on the main thread. Notes are converted by NoteCodec
+ * rather than via reflection.
+ *
+ * All conversions happen, in the order they were requested, on a single background thread. Since
+ * Task listeners are called on the main thread in the order their Tasks complete, the resulting
+ * Notes arrive on the main thread in the same order as the DataSnapshots they came from.
+ */
+public final class NoteDeserializer {
+
+    private static final String TAG = "NoteDeserializer";
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    // Statistics
+    private static int sDeserializationCount = 0;
+    private static long sDeserializationTimeNanos = 0;
+
+    // The number of Notes that were deserialized on the main thread, which should always be 0.
+    private static int sMainThreadDeserializationCount = 0;
+
+    /**
+     * Gets and returns the executor all Notes are deserialized on.
+     *
+     * Work which must happen in order with deserializing Notes (such as handling a Note being
+     * removed after it was added) should also be run on this executor.
+     *
+     * @return The executor Notes are deserialized on.
+     */
+    public static Executor getExecutor() {
+        return sExecutor;
+    }
+
+    /**
+     * Attempts to asynchronously convert the provided DataSnapshot into a Note on the background
+     * thread.
+     *
+     * @param snapshot The DataSnapshot of a Note.
+     * @return A Task which, upon completion, provides the Note, or null if the Note does not
+     * exist.
+     */
+    public static Task<Note> deserializeInBackground(final DataSnapshot snapshot) {
+        return Tasks.call(sExecutor, new Callable<Note>() {
+            @Override
+            public Note call() throws Exception {
+                return deserialize(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Converts the provided DataSnapshot into a Note on the calling thread.
+     *
+     * This should only be called from the executor of this class (see getExecutor()). If it is
+     * called on the main thread, a warning is logged so it can be found and fixed.
+     *
+     * @param snapshot The DataSnapshot of a Note.
+     * @return The Note, or null if the Note does not exist.
+     */
+    @Nullable
+    public static Note deserialize(DataSnapshot snapshot) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            synchronized (NoteDeserializer.class) {
+                sMainThreadDeserializationCount++;
+            }
+            Log.w(TAG, "Note deserialized on the main thread", new Throwable());
+        }
+
+        long startTimeNanos = System.nanoTime();
+        Note note = NoteCodec.fromSnapshot(snapshot);
+        long elapsedNanos = System.nanoTime() - startTimeNanos;
+
+        synchronized (NoteDeserializer.class) {
+            sDeserializationCount++;
+            sDeserializationTimeNanos += elapsedNanos;
+        }
+
+        return note;
+    }
+
+    /**
+     * Gets and returns the number of Notes that were deserialized on the main thread.
+     *
+     * @return The number of Notes deserialized on the main thread, which should always be 0.
+     */
+    public static synchronized int getMainThreadDeserializationCount() {
+        return sMainThreadDeserializationCount;
+    }
+
+    /**
+     * Gets and returns a summary of the statistics of this class, for logging.
+     *
+     * @return A summary of how many Notes were deserialized, and how long that took.
+     */
+    public static synchronized String getStatsSummary() {
+        return "NoteDeserializer{deserialized=" + sDeserializationCount
+                + ", nanos=" + sDeserializationTimeNanos
+                + ", mainThread=" + sMainThreadDeserializationCount + "}";
+    }
+
+    /**
+     * This class only exposes static methods, so no instances are necessary.
+     */
+    private NoteDeserializer() {
+        throw new UnsupportedOperationException("NoteDeserializer cannot be instantiated");
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.app.Activity;
+import android.support.annotation.LayoutRes;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import com.firebasecontinue.Tracing;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Populates a ListView with the Notes from a Query on the Firebase Realtime Database.
+ *
+ * This works like FirebaseUI's FirebaseListAdapter, except that each DataSnapshot is converted into
+ * a Note off of the main thread (see NoteDeserializer). Child events are applied to the list in the
+ * order they happened, once the Notes they carry have been deserialized (and their snippets
+ * extracted, see NoteSnippetCache).
+ *
+ * The Notes can be shown in the order of the Query, or in reverse, so that a Query ordered by
+ * when each Note was last updated can show the most recently updated Notes first.
+ */
+public abstract class NoteListAdapter extends BaseAdapter {
+
+    private static final String TAG = "NoteListAdapter";
+
+    // The types of child events, as handled by applyChildEvent().
+    private static final int CHILD_ADDED = 0;
+    private static final int CHILD_CHANGED = 1;
+    private static final int CHILD_REMOVED = 2;
+    private static final int CHILD_MOVED = 3;
+
+    private final Activity mActivity;
+    @LayoutRes
+    private final int mLayout;
+    private final boolean mReversed;
+    private Query mQuery;
+
+    // The database key and value of each Note in the list, in the same order as the Query.
+    private final List<String> mKeys = new ArrayList<>();
+    private final List<Note> mNotes = new ArrayList<>();
+
+    // Whether or not this is still listening to the Query, i.e. cleanup() has not been called.
+    private boolean mListening = true;
+
+    private final ChildEventListener mChildEventListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+            handleChildEvent(CHILD_ADDED, snapshot, previousChildName);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+            handleChildEvent(CHILD_CHANGED, snapshot, previousChildName);
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {
+            handleChildEvent(CHILD_REMOVED, snapshot, null);
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+            handleChildEvent(CHILD_MOVED, snapshot, previousChildName);
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            Log.e(TAG, error.getMessage(), error.toException());
+        }
+    };
+
+    /**
+     * Constructs a new NoteListAdapter, which immediately starts listening to the provided Query.
+     *
+     * @param activity The Activity containing the ListView.
+     * @param layout The layout of each Note list item.
+     * @param query The Query of the Notes to show.
+     * @param reversed true to show the Notes in the reverse order of the Query.
+     */
+    public NoteListAdapter(Activity activity,
+                           @LayoutRes int layout,
+                           Query query,
+                           boolean reversed) {
+        mActivity = activity;
+        mLayout = layout;
+        mReversed = reversed;
+        mQuery = query;
+        ListenerTracker.getInstance().addChildEventListener(activity, mQuery, mChildEventListener);
+    }
+
+    /**
+     * Starts listening to the provided Query instead of the current one.
+     *
+     * The Notes already shown stay shown until the new Query informs this of them again, so
+     * changing to a Query of more of the same Notes (such as when paging) does not empty the list.
+     *
+     * @param query The Query of the Notes to show, on the same reference as the current Query.
+     */
+    public void setQuery(Query query) {
+        ListenerTracker listenerTracker = ListenerTracker.getInstance();
+        listenerTracker.removeEventListener(mActivity, mQuery, mChildEventListener);
+        mQuery = query;
+        listenerTracker.addChildEventListener(mActivity, mQuery, mChildEventListener);
+    }
+
+    /**
+     * Stops listening to the Query and empties the list.
+     *
+     * This must be called once the adapter is no longer needed, and before the Activity is
+     * destroyed (see ListenerTracker).
+     */
+    public void cleanup() {
+        ListenerTracker.getInstance()
+                .removeEventListener(mActivity, mQuery, mChildEventListener);
+        mListening = false;
+        mKeys.clear();
+        mNotes.clear();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Gets and returns the Firebase Realtime Database reference of the Note at the provided
+     * position.
+     *
+     * @param position The position of the Note within the list.
+     * @return The database reference of the Note.
+     */
+    public DatabaseReference getRef(int position) {
+        return mQuery.getRef().child(mKeys.get(getIndex(position)));
+    }
+
+    /**
+     * Gets and returns the Firebase Realtime Database key of the Note at the provided position.
+     *
+     * Unlike getRef(position).getKey(), this allocates nothing, so it is the one to use while
+     * binding Note list items.
+     *
+     * @param position The position of the Note within the list.
+     * @return The database key of the Note.
+     */
+    public String getKey(int position) {
+        return mKeys.get(getIndex(position));
+    }
+
+    @Override
+    public int getCount() {
+        return mNotes.size();
+    }
+
+    @Override
+    public Note getItem(int position) {
+        return mNotes.get(getIndex(position));
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        // This lets the ListView keep the right Note list items selected as the list changes.
+        return true;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mKeys.get(getIndex(position)).hashCode();
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        Tracing.beginSection("NoteListAdapter.getView");
+        try {
+            View view = (convertView != null)
+                    ? convertView : mActivity.getLayoutInflater().inflate(mLayout, parent, false);
+            populateView(view, getItem(position), position);
+
+            return view;
+        } finally {
+            Tracing.endSection();
+        }
+    }
+
+    /**
+     * Populates the provided Note list item View with the provided Note.
+     *
+     * @param view The View of the Note list item, inflated from the layout.
+     * @param note The Note at the position.
+     * @param position The position of the Note within the list.
+     */
+    protected abstract void populateView(View view, Note note, int position);
+
+    /**
+     * Deserializes the Note carried by a child event (if any) in the background, and then applies
+     * the child event to the list on the main thread.
+     */
+    private void handleChildEvent(final int eventType,
+                                  final DataSnapshot snapshot,
+                                  @Nullable final String previousChildName) {
+        Tasks.call(NoteDeserializer.getExecutor(), new Callable<Note>() {
+            @Override
+            public Note call() throws Exception {
+                // Removed Notes are not needed, but their removal must still wait for every
+                // earlier child event to be applied.
+                if (eventType == CHILD_REMOVED) {
+                    return null;
+                }
+
+                // Also extract the snippet of the Note here, so that binding its list item is
+                // just a lookup (see NoteSnippetCache).
+                Tracing.beginSection("NoteListAdapter.deserialize");
+                try {
+                    Note note = NoteDeserializer.deserialize(snapshot);
+                    if (note != null) {
+                        NoteSnippetCache.getInstance()
+                                .getSnippet(snapshot.getKey(), note.getContent());
+                    }
+
+                    return note;
+                } finally {
+                    Tracing.endSection();
+                }
+            }
+        }).addOnSuccessListener(new OnSuccessListener<Note>() {
+            @Override
+            public void onSuccess(Note note) {
+                if (mListening) {
+                    Tracing.beginSection("NoteListAdapter.applyChildEvent");
+                    try {
+                        applyChildEvent(eventType, snapshot.getKey(), note, previousChildName);
+                    } finally {
+                        Tracing.endSection();
+                    }
+                }
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(Exception e) {
+                Log.e(TAG, "Could not deserialize note " + snapshot.getKey(), e);
+            }
+        });
+    }
+
+    /**
+     * Applies a child event to the list.
+     */
+    private void applyChildEvent(int eventType,
+                                 String key,
+                                 @Nullable Note note,
+                                 @Nullable String previousChildName) {
+        int index = mKeys.indexOf(key);
+        if (index >= 0 && eventType != CHILD_CHANGED) {
+            // The Note is either being removed, moved, or (if an earlier event for it could not
+            // be deserialized) re-added.
+            mKeys.remove(index);
+            mNotes.remove(index);
+        }
+
+        if (eventType == CHILD_CHANGED && index >= 0) {
+            mNotes.set(index, note);
+        } else if (eventType != CHILD_REMOVED && note != null) {
+            int newIndex = getIndexAfter(previousChildName);
+            mKeys.add(newIndex, key);
+            mNotes.add(newIndex, note);
+        }
+
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Gets and returns the index within the list of the Note shown at the provided position.
+     */
+    private int getIndex(int position) {
+        return mReversed ? mNotes.size() - 1 - position : position;
+    }
+
+    /**
+     * Gets and returns the index a Note should be inserted at to come after the Note with the
+     * provided key, or first if the key is null.
+     */
+    private int getIndexAfter(@Nullable String previousChildName) {
+        if (previousChildName == null) {
+            return 0;
+        }
+
+        int previousIndex = mKeys.indexOf(previousChildName);
+        return (previousIndex >= 0) ? previousIndex + 1 : mKeys.size();
+    }
+}
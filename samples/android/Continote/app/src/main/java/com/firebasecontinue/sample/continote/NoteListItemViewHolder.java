@@ -26,6 +26,9 @@ import android.widget.TextView;
  *
  * For more details about the ViewHolder design pattern, see:
  * https://developer.android.com/training/improving-layouts/smooth-scrolling.html
+ *
+ * Updating a ViewHolder runs for every visible Note list item each time the list changes, so it
+ * allocates nothing, and leaves the Views alone where the Note has not changed (see BindBudget).
  */
 public class NoteListItemViewHolder {
 
@@ -34,6 +37,10 @@ public class NoteListItemViewHolder {
     @Nullable
     private String mNoteDatabaseKey = null;
 
+    // The Views within the View managed by this ViewHolder.
+    private final TextView mTitleTextView;
+    private final TextView mContentTextView;
+
     /**
      * Constructs a new NoteListItemViewHolder instance for the provided View and Note combination.
      *
@@ -47,9 +54,33 @@ public class NoteListItemViewHolder {
             throw new AssertionError("itemView, note, and database key must be non-null/non-empty");
         }
 
+        mTitleTextView = (TextView) itemView.findViewById(R.id.noteItemTitleTextView);
+        mContentTextView = (TextView) itemView.findViewById(R.id.noteItemContentTextView);
         update(itemView, note, databaseKey);
     }
 
+    /**
+     * Binds the provided Note list item View to the provided Note, creating the ViewHolder that
+     * manages the View if it does not have one yet.
+     *
+     * @param itemView The View of the Note list item.
+     * @param note The Note to show.
+     * @param databaseKey The database key of the Note.
+     */
+    public static void bind(View itemView, Note note, String databaseKey) {
+        NoteListItemViewHolder viewHolder = (NoteListItemViewHolder) itemView.getTag();
+        if (viewHolder == null) {
+            // Set up the ViewHolder to manage this View (i.e. set the content of the View based
+            // on the Note).
+            viewHolder = new NoteListItemViewHolder(itemView, note, databaseKey);
+            itemView.setTag(viewHolder);
+        } else {
+            // Since a ViewHolder already existed for this View, update it based on the Note
+            // (since values for the Note may have changed).
+            viewHolder.update(itemView, note, databaseKey);
+        }
+    }
+
     /**
      * Updates this ViewHolder and the UI of the View managed by it based on the provided Note and
      * database key.
@@ -66,10 +97,11 @@ public class NoteListItemViewHolder {
 
         mNoteDatabaseKey = databaseKey;
 
-        TextView titleTextView = (TextView) itemView.findViewById(R.id.noteItemTitleTextView);
-        setTextWithPlaceholder(titleTextView, note.getTitle(), "No Title");
-        TextView contentTextView = (TextView) itemView.findViewById(R.id.noteItemContentTextView);
-        setTextWithPlaceholder(contentTextView, note.getContent(), "No Content");
+        setTextWithPlaceholder(mTitleTextView, note.getTitle(), "No Title");
+        setTextWithPlaceholder(
+                mContentTextView,
+                NoteSnippetCache.getInstance().getSnippet(databaseKey, note.getContent()),
+                "No Content");
     }
 
     /**
@@ -86,6 +118,9 @@ public class NoteListItemViewHolder {
      * Sets the text of the provided textView to the provided value, or the placeholder if the
      * value is null or empty. Also italicizes the textView if the placeholder is used.
      *
+     * Nothing is changed if the textView already shows the text, since setting the text of a
+     * TextView (even to the same value) makes it measure and lay out its text again.
+     *
      * This could go into a "Utils" class, but this is the only place it is used, so this
      * is sufficient for this sample app.
      *
@@ -96,14 +131,17 @@ public class NoteListItemViewHolder {
     private static void setTextWithPlaceholder(TextView textView,
                                                @Nullable String value,
                                                @Nullable String placeholder) {
-        if (!TextUtils.isEmpty(value)) {
-            // The provided value is nonempty, so use it.
-            textView.setText(value);
-            textView.setTypeface(textView.getTypeface(), Typeface.NORMAL);
-        } else {
-            // The provided value is empty, so use the placeholder.
-            textView.setText(placeholder);
-            textView.setTypeface(textView.getTypeface(), Typeface.ITALIC);
+        boolean usePlaceholder = TextUtils.isEmpty(value);
+        CharSequence text = usePlaceholder ? placeholder : value;
+        if (!TextUtils.equals(textView.getText(), text)) {
+            textView.setText(text);
+        }
+
+        // If the provided value is empty, italicize the placeholder.
+        int style = usePlaceholder ? Typeface.ITALIC : Typeface.NORMAL;
+        Typeface typeface = textView.getTypeface();
+        if (((typeface != null) ? typeface.getStyle() : Typeface.NORMAL) != style) {
+            textView.setTypeface(typeface, style);
         }
     }
 }
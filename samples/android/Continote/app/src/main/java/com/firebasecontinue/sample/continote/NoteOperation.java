@@ -0,0 +1,299 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+
+/**
+ * A single edit to one field (i.e. the title or the content) of a Note: at a position, some
+ * number of characters are deleted and then some text is inserted in their place.
+ *
+ * Operations are appended to the operation log of a Note by NoteSyncSession. The schema of each
+ * Operation is outlined in sample-database.rules.json within the web sample.
+ *
+ * Operations are converted to and from the values stored in the Firebase Realtime Database by
+ * NoteOperationCodec, rather than by the Firebase Realtime Database via reflection.
+ */
+public class NoteOperation {
+
+    // The names of the fields of a Note that an Operation can edit.
+    public static final String FIELD_TITLE = "title";
+    public static final String FIELD_CONTENT = "content";
+
+    // The ID of the NoteSyncSession which created this Operation.
+    @Nullable
+    private String mAuthor = null;
+
+    // The field of the Note this Operation edits.
+    @Nullable
+    private String mField = null;
+
+    // The position within the field at which this Operation applies.
+    private int mPosition = 0;
+
+    // The number of characters deleted at the position.
+    private int mDeleteCount = 0;
+
+    // The text inserted at the position, after the deletion.
+    @Nullable
+    private String mText = null;
+
+    /**
+     * Constructs a default Operation without any values.
+     *
+     * This is necessary for Firebase to be able to create a new instance of this class.
+     */
+    public NoteOperation() {}
+
+    /**
+     * Constructs a new Operation instance with the provided values.
+     *
+     * @param author The ID of the NoteSyncSession which created this Operation.
+     * @param field The field of the Note this Operation edits.
+     * @param position The position within the field at which this Operation applies.
+     * @param deleteCount The number of characters deleted at the position.
+     * @param text The text inserted at the position, after the deletion.
+     */
+    public NoteOperation(@Nullable String author,
+                         @Nullable String field,
+                         int position,
+                         int deleteCount,
+                         @Nullable String text) {
+        mAuthor = author;
+        mField = field;
+        mPosition = position;
+        mDeleteCount = deleteCount;
+        mText = text;
+    }
+
+    /**
+     * Gets and returns the ID of the NoteSyncSession which created this Operation.
+     *
+     * @return The ID of the author of this Operation.
+     */
+    @Nullable
+    public String getAuthor() {
+        return mAuthor;
+    }
+
+    /**
+     * Gets and returns the field of the Note this Operation edits.
+     *
+     * @return The field this Operation edits.
+     */
+    @Nullable
+    public String getField() {
+        return mField;
+    }
+
+    /**
+     * Gets and returns the position within the field at which this Operation applies.
+     *
+     * @return The position of this Operation.
+     */
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Gets and returns the number of characters this Operation deletes.
+     *
+     * @return The number of characters deleted.
+     */
+    public int getDeleteCount() {
+        return mDeleteCount;
+    }
+
+    /**
+     * Gets and returns the text this Operation inserts.
+     *
+     * @return The text inserted.
+     */
+    @Nullable
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * Sets the ID of the NoteSyncSession which created this Operation.
+     *
+     * This is necessary for Firebase to create Operation instances.
+     *
+     * @param author The ID of the author of this Operation.
+     */
+    public void setAuthor(@Nullable String author) {
+        mAuthor = author;
+    }
+
+    /**
+     * Sets the field of the Note this Operation edits.
+     *
+     * This is necessary for Firebase to create Operation instances.
+     *
+     * @param field The field this Operation edits.
+     */
+    public void setField(@Nullable String field) {
+        mField = field;
+    }
+
+    /**
+     * Sets the position within the field at which this Operation applies.
+     *
+     * This is necessary for Firebase to create Operation instances.
+     *
+     * @param position The position of this Operation.
+     */
+    public void setPosition(int position) {
+        mPosition = position;
+    }
+
+    /**
+     * Sets the number of characters this Operation deletes.
+     *
+     * This is necessary for Firebase to create Operation instances.
+     *
+     * @param deleteCount The number of characters deleted.
+     */
+    public void setDeleteCount(int deleteCount) {
+        mDeleteCount = deleteCount;
+    }
+
+    /**
+     * Sets the text this Operation inserts.
+     *
+     * This is necessary for Firebase to create Operation instances.
+     *
+     * @param text The text inserted.
+     */
+    public void setText(@Nullable String text) {
+        mText = text;
+    }
+
+    /**
+     * Applies this Operation to the provided value of the field it edits.
+     *
+     * The position and deletion are clamped to the value, so a malformed Operation can never
+     * cause an exception.
+     *
+     * @param value The value of the field before this Operation.
+     * @return The value of the field after this Operation.
+     */
+    public String applyTo(@Nullable String value) {
+        String before = (value != null) ? value : "";
+        int start = Math.max(0, Math.min(mPosition, before.length()));
+        int end = Math.max(start, Math.min(start + mDeleteCount, before.length()));
+
+        return before.substring(0, start) + ((mText != null) ? mText : "") + before.substring(end);
+    }
+
+    /**
+     * Transforms this Operation so that it has the same intent when applied after the provided
+     * Operation, which was applied first.
+     *
+     * Transforming two concurrent Operations against each other always converges: applying either
+     * one and then the other transformed against it gives the same value. To do so:
+     *
+     * - When both Operations start at the same position, the text of the one which deletes fewer
+     *   characters comes first. If they delete as many, the text of the one with the lower author
+     *   ID comes first, regardless of which Operation was applied first.
+     * - If one Operation starts within the range the other deletes, its text is deleted along
+     *   with that range.
+     * - If this Operation deletes a range which the other Operation already (partially) deleted,
+     *   only the remaining characters are deleted.
+     *
+     * @param applied The Operation which was applied before this one.
+     * @return The transformed copy of this Operation.
+     */
+    public NoteOperation transformAgainst(NoteOperation applied) {
+        if (mField == null || !mField.equals(applied.getField())) {
+            // Operations on different fields never affect each other.
+            return new NoteOperation(mAuthor, mField, mPosition, mDeleteCount, mText);
+        }
+
+        int appliedStart = applied.getPosition();
+        int appliedEnd = appliedStart + applied.getDeleteCount();
+        int appliedInsertLength = (applied.getText() != null) ? applied.getText().length() : 0;
+        int end = mPosition + mDeleteCount;
+
+        if (mPosition < appliedStart) {
+            // This Operation starts first, so only its end can be affected. If it deletes past the
+            // start of the applied Operation, the applied Operation's text is deleted too.
+            int transformedEnd = (end <= appliedStart)
+                    ? end
+                    : transformIndex(end, appliedStart, appliedEnd, appliedInsertLength);
+            return new NoteOperation(
+                    mAuthor, mField, mPosition, transformedEnd - mPosition, mText);
+        } else if (mPosition == appliedStart && comesBefore(applied)) {
+            // This Operation's text goes before the applied Operation's text. Everything this
+            // Operation deletes was already deleted by the applied Operation.
+            return new NoteOperation(mAuthor, mField, mPosition, 0, mText);
+        }
+
+        String text = mText;
+        if (mPosition > appliedStart && mPosition < appliedEnd) {
+            // The applied Operation deleted the position of this Operation.
+            text = "";
+        }
+
+        int start = transformIndex(mPosition, appliedStart, appliedEnd, appliedInsertLength);
+        int transformedEnd = transformIndex(end, appliedStart, appliedEnd, appliedInsertLength);
+        return new NoteOperation(mAuthor, mField, start, Math.max(0, transformedEnd - start), text);
+    }
+
+    /**
+     * Gets and returns whether or not the text of this Operation comes before the text of the
+     * provided Operation, which starts at the same position.
+     *
+     * This is the opposite for the two Operations, unless they are identical.
+     */
+    private boolean comesBefore(NoteOperation other) {
+        int end = mPosition + mDeleteCount;
+        int otherEnd = other.getPosition() + other.getDeleteCount();
+        if (end != otherEnd) {
+            // The Operation that deletes further must come second, so that the characters it has
+            // left to delete directly follow its text.
+            return end < otherEnd;
+        }
+
+        int authorOrder = compare(mAuthor, other.getAuthor());
+        if (authorOrder != 0) {
+            return authorOrder < 0;
+        }
+
+        // Operations from the same author are never concurrent, but order them anyway.
+        return compare(mText, other.getText()) < 0;
+    }
+
+    private static int compare(@Nullable String first, @Nullable String second) {
+        return ((first != null) ? first : "").compareTo((second != null) ? second : "");
+    }
+
+    /**
+     * Transforms an index at or after the start of the applied Operation. An index within the
+     * range the applied Operation deleted moves to after the applied Operation's text.
+     */
+    private static int transformIndex(int index,
+                                      int appliedStart,
+                                      int appliedEnd,
+                                      int appliedInsertLength) {
+        if (index >= appliedEnd) {
+            // The index is after the applied Operation, so it shifts by the change in length.
+            return index - (appliedEnd - appliedStart) + appliedInsertLength;
+        } else {
+            // The index was within the range the applied Operation deleted.
+            return appliedStart + appliedInsertLength;
+        }
+    }
+}
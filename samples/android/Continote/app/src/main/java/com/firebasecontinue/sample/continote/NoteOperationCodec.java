@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts NoteOperations to and from the values stored in the Firebase Realtime Database.
+ *
+ * An Operation is read and written for every edit the user makes, on the main thread, so (as
+ * NoteCodec does for Notes) this reads and writes the fields of each Operation directly rather
+ * than letting the Firebase Realtime Database map them via reflection, while storing exactly the
+ * same values: the schema of each Operation is outlined in sample-database.rules.json within the
+ * web sample.
+ */
+public final class NoteOperationCodec {
+
+    // The keys of the values of an Operation within the Firebase Realtime Database.
+    public static final String AUTHOR_KEY = "author";
+    public static final String FIELD_KEY = "field";
+    public static final String POSITION_KEY = "position";
+    public static final String DELETE_COUNT_KEY = "deleteCount";
+    public static final String TEXT_KEY = "text";
+
+    /**
+     * Converts the provided DataSnapshot into an Operation.
+     *
+     * @param snapshot The DataSnapshot of an Operation.
+     * @return The Operation, or null if the Operation does not exist.
+     * @throws DatabaseException If the DataSnapshot is not of an Operation.
+     */
+    @Nullable
+    public static NoteOperation fromSnapshot(DataSnapshot snapshot) {
+        if (!snapshot.exists()) {
+            return null;
+        }
+        if (!snapshot.hasChildren()) {
+            throw new DatabaseException("Expected an Operation at " + snapshot.getKey()
+                    + ", but found a " + snapshot.getValue().getClass().getName());
+        }
+
+        return new NoteOperation(
+                getString(snapshot.child(AUTHOR_KEY).getValue(), AUTHOR_KEY),
+                getString(snapshot.child(FIELD_KEY).getValue(), FIELD_KEY),
+                getInt(snapshot.child(POSITION_KEY).getValue(), POSITION_KEY),
+                getInt(snapshot.child(DELETE_COUNT_KEY).getValue(), DELETE_COUNT_KEY),
+                getString(snapshot.child(TEXT_KEY).getValue(), TEXT_KEY));
+    }
+
+    /**
+     * Converts the provided Operation into the Map to store in the Firebase Realtime Database,
+     * such as via setValue() within a Transaction.
+     *
+     * @param operation The Operation to store.
+     * @return The values of the Operation to store.
+     */
+    public static Map<String, Object> toMap(NoteOperation operation) {
+        Map<String, Object> value = new HashMap<>(8);
+        value.put(AUTHOR_KEY, operation.getAuthor());
+        value.put(FIELD_KEY, operation.getField());
+        value.put(POSITION_KEY, operation.getPosition());
+        value.put(DELETE_COUNT_KEY, operation.getDeleteCount());
+        if (operation.getText() != null) {
+            value.put(TEXT_KEY, operation.getText());
+        }
+
+        return value;
+    }
+
+    @Nullable
+    private static String getString(@Nullable Object value, String key) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+
+        throw new DatabaseException("Expected a String for " + key
+                + ", but found a " + value.getClass().getName());
+    }
+
+    private static int getInt(@Nullable Object value, String key) {
+        if (value == null || value instanceof Number) {
+            return (value != null) ? ((Number) value).intValue() : 0;
+        }
+
+        throw new DatabaseException("Expected a Number for " + key
+                + ", but found a " + value.getClass().getName());
+    }
+
+    /**
+     * This class only exposes static methods, so no instances are necessary.
+     */
+    private NoteOperationCodec() {
+        throw new UnsupportedOperationException("NoteOperationCodec cannot be instantiated");
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the current values of the user's Notes from the Firebase Realtime Database.
+ *
+ * Several parts of this app may want the same Note at roughly the same time (for example, the
+ * editor each time the user signs in, a prefetch, and the user returning to a screen). Rather than
+ * each of them reading the Note separately, concurrent loads of the same Note share a single read,
+ * and a Note that was loaded (or saved) within the last few seconds is provided from memory.
+ *
+ * Screens may also prefetch Notes the user is likely to open soon (for example, the Note list item
+ * the user has started pressing), so that the Note is already in memory by the time it is loaded.
+ * The Notes held in memory are bounded, with the least recently used evicted first.
+ *
+ * It also tracks Notes which were created optimistically (i.e. opened for editing before the
+ * database confirmed they were created), so that a screen showing one can roll back if the
+ * creation ultimately fails.
+ *
+ * Important reminder:
+ * The Notes provided are shared between everything that loaded them, so they must be treated as
+ * read-only.
+ */
+public final class NoteRepository {
+
+    // How long, in milliseconds, a loaded or saved Note is provided from memory rather than being
+    // read from the database again.
+    private static final long FRESHNESS_WINDOW_MILLIS = 5000;
+
+    // How long, in milliseconds, a prefetched Note which nothing has loaded yet is provided from
+    // memory. This is longer than the freshness window since the user may take a while to open the
+    // Note after it is prefetched (for example, while they read the Note list).
+    private static final long PREFETCH_FRESHNESS_WINDOW_MILLIS = 30000;
+
+    // The maximum number of Notes held in memory.
+    private static final int MAX_LOADED_NOTES = 32;
+
+    /**
+     * A value of a Note held in memory, along with when it was known to be current.
+     */
+    private static final class LoadedNote {
+
+        @Nullable
+        final Note mNote;
+        final long mLoadedAtMillis;
+
+        // Whether or not this value was read by a prefetch which nothing has loaded yet.
+        boolean mUnusedPrefetch;
+
+        LoadedNote(@Nullable Note note, long loadedAtMillis, boolean unusedPrefetch) {
+            mNote = note;
+            mLoadedAtMillis = loadedAtMillis;
+            mUnusedPrefetch = unusedPrefetch;
+        }
+
+        /**
+         * Determines whether or not this value is still recent enough to be provided from memory.
+         *
+         * @param nowMillis The current time, as given by SystemClock.elapsedRealtime().
+         * @return Whether or not this value is still fresh.
+         */
+        boolean isFresh(long nowMillis) {
+            long freshnessWindowMillis =
+                    mUnusedPrefetch ? PREFETCH_FRESHNESS_WINDOW_MILLIS : FRESHNESS_WINDOW_MILLIS;
+            return nowMillis - mLoadedAtMillis < freshnessWindowMillis;
+        }
+    }
+
+    @Nullable
+    private static NoteRepository sInstance = null;
+
+    // The reads currently in progress, keyed by the database path of the Note being read.
+    private final Map<String, TaskCompletionSource<Note>> mInFlightLoads = new HashMap<>();
+
+    // The database paths of the reads currently in progress which were started by a prefetch, and
+    // which nothing has loaded yet.
+    private final Set<String> mInFlightPrefetches = new HashSet<>();
+
+    // The most recently loaded or saved value of each Note, keyed by its database path, ordered
+    // from least to most recently used.
+    private final LinkedHashMap<String, LoadedNote> mLoadedNotes =
+            new LinkedHashMap<String, LoadedNote>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LoadedNote> eldest) {
+                    return size() > MAX_LOADED_NOTES;
+                }
+            };
+
+    // The writes creating new Notes which the database has not yet confirmed, keyed by the
+    // database path of each new Note.
+    private final Map<String, Task<Void>> mPendingCreations = new HashMap<>();
+
+    // Statistics
+    private int mLoadCount = 0;
+    private int mDatabaseReadCount = 0;
+    private int mCoalescedCount = 0;
+    private int mMemoryHitCount = 0;
+    private int mPrefetchCount = 0;
+    private int mPrefetchHitCount = 0;
+
+    /**
+     * Gets and returns the NoteRepository for this app, creating it if necessary.
+     *
+     * @return The NoteRepository for this app.
+     */
+    public static synchronized NoteRepository getInstance() {
+        if (sInstance == null) {
+            sInstance = new NoteRepository();
+        }
+
+        return sInstance;
+    }
+
+    private NoteRepository() {}
+
+    /**
+     * Attempts to asynchronously load the current value of a Note.
+     *
+     * If the Note is already being read, this waits for that read rather than starting another.
+     * If the Note was loaded or saved within the freshness window, or prefetched within the
+     * (longer) prefetch freshness window, that value is provided immediately instead.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @return A Task which, upon completion, provides the Note, or null if the Note does not
+     * exist.
+     */
+    public Task<Note> load(String uid, String noteKey) {
+        return load(getPath(uid, noteKey), false);
+    }
+
+    /**
+     * Starts reading a Note the user is likely to open soon into memory, unless it is already in
+     * memory or being read.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     */
+    public void prefetch(String uid, String noteKey) {
+        load(getPath(uid, noteKey), true);
+    }
+
+    /**
+     * Gets and returns the fraction of prefetched Notes which were then loaded while still in
+     * memory (or still being read).
+     *
+     * @return The prefetch hit rate, or 0 if nothing was prefetched.
+     */
+    public synchronized double getPrefetchHitRate() {
+        return (mPrefetchCount > 0) ? (double) mPrefetchHitCount / mPrefetchCount : 0.0;
+    }
+
+    private Task<Note> load(final String path, final boolean isPrefetch) {
+        final TaskCompletionSource<Note> taskCompletion;
+        synchronized (this) {
+            LoadedNote loadedNote = mLoadedNotes.get(path);
+            boolean isFresh =
+                    loadedNote != null && loadedNote.isFresh(SystemClock.elapsedRealtime());
+            TaskCompletionSource<Note> inFlightLoad = mInFlightLoads.get(path);
+            if (isPrefetch) {
+                if (isFresh || inFlightLoad != null) {
+                    // There is nothing to prefetch.
+                    return inFlightLoad != null
+                            ? inFlightLoad.getTask() : Tasks.forResult(loadedNote.mNote);
+                }
+                mPrefetchCount++;
+            } else {
+                mLoadCount++;
+            }
+
+            if (isFresh) {
+                mMemoryHitCount++;
+                if (loadedNote.mUnusedPrefetch) {
+                    loadedNote.mUnusedPrefetch = false;
+                    mPrefetchHitCount++;
+                }
+                return Tasks.forResult(loadedNote.mNote);
+            }
+
+            if (inFlightLoad != null) {
+                mCoalescedCount++;
+                if (mInFlightPrefetches.remove(path)) {
+                    mPrefetchHitCount++;
+                }
+                return inFlightLoad.getTask();
+            }
+
+            mDatabaseReadCount++;
+            taskCompletion = new TaskCompletionSource<>();
+            mInFlightLoads.put(path, taskCompletion);
+            if (isPrefetch) {
+                mInFlightPrefetches.add(path);
+            }
+        }
+
+        FirebaseDatabase.getInstance().getReference(path).addListenerForSingleValueEvent(
+                new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot snapshot) {
+                        NoteDeserializer.deserializeInBackground(snapshot).addOnCompleteListener(
+                                new OnCompleteListener<Note>() {
+                                    @Override
+                                    public void onComplete(Task<Note> task) {
+                                        handleLoadComplete(path, taskCompletion, task);
+                                    }
+                                });
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        synchronized (NoteRepository.this) {
+                            mInFlightLoads.remove(path);
+                            mInFlightPrefetches.remove(path);
+                        }
+
+                        // Set that this Task was unsuccessful.
+                        taskCompletion.setException(error.toException());
+                    }
+                });
+
+        return taskCompletion.getTask();
+    }
+
+    /**
+     * Handles when a Note read from the database by load() has been deserialized.
+     */
+    private void handleLoadComplete(String path,
+                                    TaskCompletionSource<Note> taskCompletion,
+                                    Task<Note> deserializeTask) {
+        synchronized (this) {
+            mInFlightLoads.remove(path);
+            boolean unusedPrefetch = mInFlightPrefetches.remove(path);
+            if (deserializeTask.isSuccessful()) {
+                mLoadedNotes.put(path, new LoadedNote(deserializeTask.getResult(),
+                                                      SystemClock.elapsedRealtime(),
+                                                      unusedPrefetch));
+            }
+        }
+
+        if (deserializeTask.isSuccessful()) {
+            // Set that this Task was successful.
+            taskCompletion.setResult(deserializeTask.getResult());
+        } else {
+            // Set that this Task was unsuccessful.
+            taskCompletion.setException(deserializeTask.getException());
+        }
+    }
+
+    /**
+     * Records the value of a Note that was just successfully saved (or deleted), so that loads
+     * within the freshness window provide it rather than an older value.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @param note The saved value of the Note, or null if the Note was deleted.
+     */
+    public synchronized void handleNoteSaved(String uid, String noteKey, @Nullable Note note) {
+        mLoadedNotes.put(
+                getPath(uid, noteKey), new LoadedNote(note, SystemClock.elapsedRealtime(), false));
+    }
+
+    /**
+     * Tracks the write creating a new Note until the database confirms or rejects it.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the new Note.
+     * @param creation The Task writing the new Note to the database.
+     */
+    public synchronized void trackPendingCreation(String uid,
+                                                  String noteKey,
+                                                  final Task<Void> creation) {
+        final String path = getPath(uid, noteKey);
+        mPendingCreations.put(path, creation);
+        creation.addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(Task<Void> task) {
+                synchronized (NoteRepository.this) {
+                    if (mPendingCreations.get(path) == creation) {
+                        mPendingCreations.remove(path);
+                    }
+                    if (!task.isSuccessful()) {
+                        // Any value loaded from the database's local cache no longer exists.
+                        mLoadedNotes.remove(path);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets and returns the write creating a Note, if the database has not yet confirmed it.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @return The Task writing the new Note to the database, or null if the Note is not pending
+     * creation.
+     */
+    @Nullable
+    public synchronized Task<Void> getPendingCreation(String uid, String noteKey) {
+        return mPendingCreations.get(getPath(uid, noteKey));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NoteRepository{loads=" + mLoadCount
+                + ", databaseReads=" + mDatabaseReadCount
+                + ", coalesced=" + mCoalescedCount
+                + ", memoryHits=" + mMemoryHitCount
+                + ", prefetches=" + mPrefetchCount
+                + ", prefetchHitRate=" + getPrefetchHitRate() + "}";
+    }
+
+    private static String getPath(String uid, String noteKey) {
+        return "notes/" + uid + "/" + noteKey;
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An on-device, full-text, inverted index over the titles and content of the user's Notes.
+ *
+ * The index is kept up to date incrementally by listening to child events on the user's Notes
+ * within the Firebase Realtime Database: only the Note that was added, changed, or removed is
+ * re-indexed, so the index never has to be rebuilt from scratch. Notes are deserialized and indexed
+ * off of the main thread (see NoteDeserializer), so searches may briefly lag behind the database.
+ *
+ * Every word of a query is treated as a prefix, and only Notes matching all of the words of a query
+ * are returned. Results are ranked by how often the matching words occur within each Note
+ * (with occurrences in the title counting more), weighted by how rare those words are across all
+ * of the user's Notes.
+ */
+public class NoteSearchIndex implements ChildEventListener {
+
+    private static final String TAG = "NoteSearchIndex";
+
+    // How much more an occurrence of a word within a Note's title counts than one within its
+    // content.
+    private static final int TITLE_WEIGHT = 3;
+    private static final int CONTENT_WEIGHT = 1;
+
+    /**
+     * A Note that matched a search query.
+     */
+    public static final class Result {
+
+        private final String mNoteDatabaseKey;
+        @Nullable
+        private final String mNoteTitle;
+        private final double mScore;
+
+        private Result(String noteDatabaseKey, @Nullable String noteTitle, double score) {
+            mNoteDatabaseKey = noteDatabaseKey;
+            mNoteTitle = noteTitle;
+            mScore = score;
+        }
+
+        /**
+         * Gets and returns the Firebase Realtime Database key of the Note that matched.
+         *
+         * @return The database key of the Note.
+         */
+        public String getNoteDatabaseKey() {
+            return mNoteDatabaseKey;
+        }
+
+        /**
+         * Gets and returns the title of the Note that matched, as of when it was last indexed.
+         *
+         * @return The title of the Note.
+         */
+        @Nullable
+        public String getNoteTitle() {
+            return mNoteTitle;
+        }
+
+        /**
+         * Gets and returns how relevant the Note is to the query. Higher is more relevant.
+         *
+         * @return The relevance score of the Note.
+         */
+        public double getScore() {
+            return mScore;
+        }
+
+        @Override
+        public String toString() {
+            return TextUtils.isEmpty(mNoteTitle) ? "No Title" : mNoteTitle;
+        }
+    }
+
+    /**
+     * The indexed form of a single Note.
+     */
+    private static final class IndexedNote {
+
+        @Nullable
+        final String mTitle;
+
+        // The weighted number of occurrences of each word within the Note.
+        final Map<String, Integer> mTermFrequencies;
+
+        IndexedNote(@Nullable String title, Map<String, Integer> termFrequencies) {
+            mTitle = title;
+            mTermFrequencies = termFrequencies;
+        }
+    }
+
+    // For each word, the weighted number of occurrences within each Note containing it, keyed by
+    // the Notes' database keys. This is sorted so that prefix queries are a range lookup.
+    private final TreeMap<String, Map<String, Integer>> mPostings = new TreeMap<>();
+
+    // Each indexed Note, keyed by its database key.
+    private final Map<String, IndexedNote> mNotes = new HashMap<>();
+
+    // Statistics
+    private long mTotalIndexTimeNanos = 0;
+    private long mLastQueryTimeNanos = 0;
+
+    /**
+     * Indexes the provided Note, replacing the indexed form of any previous value it had.
+     *
+     * @param noteDatabaseKey The Firebase Realtime Database key of the Note.
+     * @param note The Note to index. If null, the Note is removed from the index instead.
+     */
+    public synchronized void addOrUpdateNote(String noteDatabaseKey, @Nullable Note note) {
+        long startTimeNanos = System.nanoTime();
+
+        removeNoteFromPostings(noteDatabaseKey);
+        if (note != null) {
+            Map<String, Integer> termFrequencies = new HashMap<>();
+            addTerms(termFrequencies, note.getTitle(), TITLE_WEIGHT);
+            addTerms(termFrequencies, note.getContent(), CONTENT_WEIGHT);
+
+            for (Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+                Map<String, Integer> posting = mPostings.get(entry.getKey());
+                if (posting == null) {
+                    posting = new HashMap<>();
+                    mPostings.put(entry.getKey(), posting);
+                }
+                posting.put(noteDatabaseKey, entry.getValue());
+            }
+            mNotes.put(noteDatabaseKey, new IndexedNote(note.getTitle(), termFrequencies));
+        }
+
+        mTotalIndexTimeNanos += System.nanoTime() - startTimeNanos;
+    }
+
+    /**
+     * Removes the Note with the provided database key from the index, if it is indexed.
+     *
+     * @param noteDatabaseKey The Firebase Realtime Database key of the Note.
+     */
+    public synchronized void removeNote(String noteDatabaseKey) {
+        long startTimeNanos = System.nanoTime();
+        removeNoteFromPostings(noteDatabaseKey);
+        mTotalIndexTimeNanos += System.nanoTime() - startTimeNanos;
+    }
+
+    /**
+     * Searches the index for the Notes matching all of the words within the provided query, where
+     * each word is treated as a prefix.
+     *
+     * @param query The text the user is searching for.
+     * @param maxResults The maximum number of results to return.
+     * @return The matching Notes, from most to least relevant.
+     */
+    public synchronized List<Result> search(@Nullable String query, int maxResults) {
+        long startTimeNanos = System.nanoTime();
+
+        List<String> queryTerms = tokenize(query);
+        Map<String, Double> scores = null;
+        for (String queryTerm : queryTerms) {
+            // Score every Note containing a word with this prefix.
+            Map<String, Double> termScores = new HashMap<>();
+            SortedMap<String, Map<String, Integer>> matchingPostings =
+                    mPostings.subMap(queryTerm, queryTerm + Character.MAX_VALUE);
+            for (Map<String, Integer> posting : matchingPostings.values()) {
+                double inverseDocumentFrequency =
+                        Math.log(1.0 + (double) mNotes.size() / posting.size());
+                for (Map.Entry<String, Integer> entry : posting.entrySet()) {
+                    Double score = termScores.get(entry.getKey());
+                    termScores.put(
+                            entry.getKey(),
+                            ((score != null) ? score : 0.0)
+                                    + entry.getValue() * inverseDocumentFrequency);
+                }
+            }
+
+            // Only keep the Notes that matched every previous word as well.
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                Map<String, Double> intersection = new HashMap<>();
+                for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                    Double termScore = termScores.get(entry.getKey());
+                    if (termScore != null) {
+                        intersection.put(entry.getKey(), entry.getValue() + termScore);
+                    }
+                }
+                scores = intersection;
+            }
+
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        if (scores != null) {
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                results.add(new Result(
+                        entry.getKey(), mNotes.get(entry.getKey()).mTitle, entry.getValue()));
+            }
+        }
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                int comparison = Double.compare(b.getScore(), a.getScore());
+                return (comparison != 0)
+                        ? comparison : a.getNoteDatabaseKey().compareTo(b.getNoteDatabaseKey());
+            }
+        });
+        if (results.size() > maxResults) {
+            results = new ArrayList<>(results.subList(0, maxResults));
+        }
+
+        mLastQueryTimeNanos = System.nanoTime() - startTimeNanos;
+        return results;
+    }
+
+    /**
+     * Gets and returns the number of Notes within the index.
+     *
+     * @return The number of indexed Notes.
+     */
+    public synchronized int getNoteCount() {
+        return mNotes.size();
+    }
+
+    /**
+     * Gets and returns the total time spent adding, updating, and removing Notes within the index.
+     *
+     * @return The total time spent maintaining the index, in nanoseconds.
+     */
+    public synchronized long getTotalIndexTimeNanos() {
+        return mTotalIndexTimeNanos;
+    }
+
+    /**
+     * Gets and returns how long the most recent search took.
+     *
+     * @return The time the most recent search took, in nanoseconds.
+     */
+    public synchronized long getLastQueryTimeNanos() {
+        return mLastQueryTimeNanos;
+    }
+
+    @Override
+    public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+        addOrUpdateNoteInBackground(snapshot);
+    }
+
+    @Override
+    public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+        addOrUpdateNoteInBackground(snapshot);
+    }
+
+    @Override
+    public void onChildRemoved(final DataSnapshot snapshot) {
+        // This must still happen in order with any Note being added or updated in the background.
+        NoteDeserializer.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                removeNote(snapshot.getKey());
+            }
+        });
+    }
+
+    @Override
+    public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+        // The order of the Notes does not affect the index, so there is nothing to do.
+    }
+
+    @Override
+    public void onCancelled(DatabaseError error) {
+        Log.e(TAG, error.getMessage(), error.toException());
+    }
+
+    /**
+     * Deserializes and then indexes the Note from the provided DataSnapshot off of the main thread
+     * (see NoteDeserializer).
+     */
+    private void addOrUpdateNoteInBackground(final DataSnapshot snapshot) {
+        NoteDeserializer.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    addOrUpdateNote(snapshot.getKey(), NoteDeserializer.deserialize(snapshot));
+                } catch (DatabaseException e) {
+                    Log.e(TAG, "Could not deserialize note " + snapshot.getKey(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the Note with the provided database key from the postings and the indexed Notes.
+     */
+    private void removeNoteFromPostings(String noteDatabaseKey) {
+        IndexedNote indexedNote = mNotes.remove(noteDatabaseKey);
+        if (indexedNote == null) {
+            return;
+        }
+
+        for (String term : indexedNote.mTermFrequencies.keySet()) {
+            Map<String, Integer> posting = mPostings.get(term);
+            if (posting != null) {
+                posting.remove(noteDatabaseKey);
+                if (posting.isEmpty()) {
+                    mPostings.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the provided weight to the frequency of each word within the provided text.
+     */
+    private static void addTerms(Map<String, Integer> termFrequencies,
+                                 @Nullable String text,
+                                 int weight) {
+        for (String term : tokenize(text)) {
+            Integer frequency = termFrequencies.get(term);
+            termFrequencies.put(term, ((frequency != null) ? frequency : 0) + weight);
+        }
+    }
+
+    /**
+     * Splits the provided text into its lowercase words, where a word is any run of letters
+     * and/or digits.
+     */
+    private static List<String> tokenize(@Nullable String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+
+        String lowercaseText = text.toLowerCase(Locale.ROOT);
+        int termStart = -1;
+        for (int i = 0; i <= lowercaseText.length(); i++) {
+            boolean isTermCharacter = i < lowercaseText.length()
+                    && Character.isLetterOrDigit(lowercaseText.charAt(i));
+            if (isTermCharacter && termStart < 0) {
+                termStart = i;
+            } else if (!isTermCharacter && termStart >= 0) {
+                terms.add(lowercaseText.substring(termStart, i));
+                termStart = -1;
+            }
+        }
+
+        return terms;
+    }
+}
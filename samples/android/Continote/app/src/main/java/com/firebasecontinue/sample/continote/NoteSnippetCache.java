@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.text.BreakIterator;
+
+/**
+ * A bounded, in-memory cache of the short previews of the content of Notes shown within the Note
+ * list items of MyNotesActivity.
+ *
+ * Each Note list item only shows the first line of the content of a Note, but giving its TextView
+ * the entire content makes measuring and laying it out slow for large Notes. Instead, the preview
+ * (i.e. snippet) of each Note is extracted once, cached by the Note's database key along with the
+ * content it was extracted from, and then the TextView is only given the snippet.
+ *
+ * Looking up a cached snippet allocates nothing, since it happens every time a Note list item is
+ * bound (see BindBudget).
+ *
+ * NoteListAdapter extracts the snippet of each Note off of the main thread as the Note is
+ * deserialized, so binding a Note list item is usually just a lookup within this cache.
+ */
+public final class NoteSnippetCache {
+
+    // The maximum number of snippets cached.
+    private static final int MAX_ENTRIES = 256;
+
+    // The maximum length of a snippet, in characters, not including the trailing ellipsis. This is
+    // more than fits on one line of a Note list item on any device.
+    private static final int MAX_SNIPPET_LENGTH = 160;
+
+    private static final String ELLIPSIS = "\u2026";
+
+    @Nullable
+    private static NoteSnippetCache sInstance = null;
+
+    /**
+     * A cached snippet, along with the content it was extracted from.
+     */
+    private static final class Entry {
+
+        private final String mContent;
+        private final String mSnippet;
+
+        private Entry(String content, String snippet) {
+            mContent = content;
+            mSnippet = snippet;
+        }
+    }
+
+    // The snippet of the latest content of each Note, by the Note's database key.
+    private final LruCache<String, Entry> mSnippets = new LruCache<>(MAX_ENTRIES);
+
+    /**
+     * Gets and returns the NoteSnippetCache for this app, creating it if necessary.
+     *
+     * @return The NoteSnippetCache for this app.
+     */
+    public static synchronized NoteSnippetCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new NoteSnippetCache();
+        }
+
+        return sInstance;
+    }
+
+    private NoteSnippetCache() {}
+
+    /**
+     * Gets and returns the snippet of the provided content of a Note, extracting and caching it if
+     * it is not already cached.
+     *
+     * This is safe to call from any thread.
+     *
+     * @param noteDatabaseKey The Firebase Realtime Database key of the Note.
+     * @param content The content of the Note.
+     * @return The snippet of the content, or null if the content is null.
+     */
+    @Nullable
+    public String getSnippet(String noteDatabaseKey, @Nullable String content) {
+        if (content == null) {
+            return null;
+        }
+
+        // The content is usually the same String the snippet was extracted from, in which case
+        // comparing it is free. Otherwise, their (cached) hash codes are compared before any of
+        // their characters.
+        Entry entry = mSnippets.get(noteDatabaseKey);
+        if (entry == null || (entry.mContent != content
+                && (entry.mContent.hashCode() != content.hashCode()
+                        || !entry.mContent.equals(content)))) {
+            entry = new Entry(content, extractSnippet(content));
+            mSnippets.put(noteDatabaseKey, entry);
+        }
+
+        return entry.mSnippet;
+    }
+
+    /**
+     * Gets and returns a summary of the statistics of this cache, for logging.
+     *
+     * @return A summary of the hits and misses of this cache.
+     */
+    @Override
+    public String toString() {
+        return "NoteSnippetCache{" + mSnippets.toString() + "}";
+    }
+
+    /**
+     * Extracts and returns the first line of the provided content, truncated to the maximum
+     * snippet length on a grapheme boundary (so, for example, an emoji is never cut in half), with
+     * an ellipsis if anything was left out.
+     */
+    private static String extractSnippet(String content) {
+        int lineEnd = content.indexOf('\n');
+        int end = Math.min((lineEnd >= 0) ? lineEnd : content.length(), MAX_SNIPPET_LENGTH);
+        if (end == content.length()) {
+            return content;
+        }
+
+        if (end == MAX_SNIPPET_LENGTH) {
+            // Only look at the text around the cut, rather than the entire content.
+            String text = content.substring(0, Math.min(content.length(), end + 16));
+            BreakIterator graphemes = BreakIterator.getCharacterInstance();
+            graphemes.setText(text);
+            end = graphemes.isBoundary(end) ? end : graphemes.preceding(end);
+        }
+
+        return content.substring(0, end) + ELLIPSIS;
+    }
+}
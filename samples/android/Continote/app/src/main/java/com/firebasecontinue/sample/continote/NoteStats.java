@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.Transaction;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The statistics of all of a user's Notes (how many there are, how large their content is, and
+ * when one was last changed), stored at noteStats/<uid> in the Firebase Realtime Database so they
+ * can be shown without loading every Note.
+ *
+ * The statistics are kept up to date incrementally: whenever this app creates, saves, or deletes
+ * Notes, it records the change with recordChange(), which applies it in a transaction so that
+ * changes from several clients at once are never lost. Changes this app cannot see (such as
+ * Notes saved by the web sample, or the content of a Note changing through a NoteSyncSession)
+ * make the statistics drift, so they are periodically recomputed from the Notes themselves with
+ * reconcile(), which reads the Notes a page at a time.
+ */
+public final class NoteStats {
+
+    private static final String TAG = "NoteStats";
+
+    // The keys of the statistics within the Firebase Realtime Database.
+    private static final String COUNT_KEY = "count";
+    private static final String CONTENT_BYTES_KEY = "contentBytes";
+    private static final String LAST_MODIFIED_KEY = "lastModified";
+    private static final String RECONCILED_AT_KEY = "reconciledAt";
+
+    // How long the statistics are trusted after they were last recomputed from the Notes.
+    private static final long RECONCILE_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // The number of Notes read from the database at a time while reconciling.
+    private static final int RECONCILE_PAGE_SIZE = 100;
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private final long mCount;
+    private final long mContentBytes;
+    @Nullable
+    private final Long mLastModified;
+    @Nullable
+    private final Long mReconciledAt;
+
+    private NoteStats(long count,
+                      long contentBytes,
+                      @Nullable Long lastModified,
+                      @Nullable Long reconciledAt) {
+        mCount = count;
+        mContentBytes = contentBytes;
+        mLastModified = lastModified;
+        mReconciledAt = reconciledAt;
+    }
+
+    /**
+     * Gets and returns the Firebase Realtime Database reference of the statistics of a user's
+     * Notes.
+     *
+     * @param uid The uid of the user.
+     * @return The database reference of the statistics.
+     */
+    public static DatabaseReference getRef(String uid) {
+        return FirebaseDatabase.getInstance().getReference("noteStats/" + uid);
+    }
+
+    /**
+     * Converts the provided DataSnapshot into NoteStats.
+     *
+     * @param snapshot The DataSnapshot of the statistics of a user's Notes.
+     * @return The NoteStats, or null if they do not exist yet.
+     */
+    @Nullable
+    public static NoteStats fromSnapshot(DataSnapshot snapshot) {
+        if (!snapshot.exists()) {
+            return null;
+        }
+
+        Long count = snapshot.child(COUNT_KEY).getValue(Long.class);
+        Long contentBytes = snapshot.child(CONTENT_BYTES_KEY).getValue(Long.class);
+        return new NoteStats(
+                (count != null) ? count : 0,
+                (contentBytes != null) ? contentBytes : 0,
+                snapshot.child(LAST_MODIFIED_KEY).getValue(Long.class),
+                snapshot.child(RECONCILED_AT_KEY).getValue(Long.class));
+    }
+
+    /**
+     * Gets and returns the number of Notes.
+     *
+     * @return The number of Notes.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets and returns the total size of the content of the Notes.
+     *
+     * @return The total size of the content of the Notes, in bytes of UTF-8.
+     */
+    public long getContentBytes() {
+        return mContentBytes;
+    }
+
+    /**
+     * Gets and returns when a Note was last created, saved, or deleted.
+     *
+     * @return The time a Note was last modified, in milliseconds since the epoch, or null if it
+     * is not known.
+     */
+    @Nullable
+    public Long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Determines and then returns whether or not these statistics should be recomputed from the
+     * Notes, because they have not been for a while (or ever).
+     *
+     * @return true iff reconcile() should be called.
+     */
+    public boolean needsReconciliation() {
+        return mReconciledAt == null
+                || System.currentTimeMillis() - mReconciledAt > RECONCILE_INTERVAL_MILLIS;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteStats{count=" + mCount
+                + ", contentBytes=" + mContentBytes
+                + ", lastModified=" + mLastModified
+                + ", reconciledAt=" + mReconciledAt + "}";
+    }
+
+    /**
+     * Gets and returns the size of the provided content of a Note, as counted by the statistics.
+     *
+     * @param content The content of a Note.
+     * @return The size of the content, in bytes of UTF-8.
+     */
+    public static long getContentBytes(@Nullable String content) {
+        if (content == null) {
+            return 0;
+        }
+
+        // Count the bytes directly, rather than allocating the encoded content just to measure it.
+        long bytes = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < content.length()
+                    && Character.isLowSurrogate(content.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Attempts to asynchronously record a change to the Notes of a user within their statistics.
+     *
+     * The change is applied to the statistics in a transaction, so changes recorded by several
+     * clients at once are all kept. If the statistics do not exist yet, nothing is recorded,
+     * since they will be computed in full by reconcile().
+     *
+     * @param uid The uid of the user whose Notes changed.
+     * @param countDelta The change in the number of Notes.
+     * @param contentBytesDelta The change in the total size of the content of the Notes.
+     * @return A Task which, upon completion, signals whether or not the change was recorded.
+     */
+    public static Task<Void> recordChange(String uid,
+                                          final long countDelta,
+                                          final long contentBytesDelta) {
+        final TaskCompletionSource<Void> taskCompletion = new TaskCompletionSource<>();
+        getRef(uid).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                if (currentData.getValue() == null) {
+                    // Either the statistics do not exist yet, or they are not known locally yet,
+                    // in which case the transaction is retried with their current value.
+                    return Transaction.success(currentData);
+                }
+
+                Long count = currentData.child(COUNT_KEY).getValue(Long.class);
+                Long contentBytes = currentData.child(CONTENT_BYTES_KEY).getValue(Long.class);
+                currentData.child(COUNT_KEY).setValue(
+                        Math.max(0, ((count != null) ? count : 0) + countDelta));
+                currentData.child(CONTENT_BYTES_KEY).setValue(
+                        Math.max(0, ((contentBytes != null) ? contentBytes : 0)
+                                + contentBytesDelta));
+                currentData.child(LAST_MODIFIED_KEY).setValue(ServerValue.TIMESTAMP);
+
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error,
+                                   boolean committed,
+                                   DataSnapshot currentData) {
+                if (error == null) {
+                    // Set that this Task was successful.
+                    taskCompletion.setResult(null);
+                } else {
+                    // Set that this Task was unsuccessful.
+                    Log.w(TAG, "Could not record change to note stats", error.toException());
+                    taskCompletion.setException(error.toException());
+                }
+            }
+        }, false);
+
+        return taskCompletion.getTask();
+    }
+
+    /**
+     * Attempts to asynchronously recompute the statistics of a user's Notes from the Notes
+     * themselves, replacing the current statistics.
+     *
+     * The Notes are read a page at a time, so this never holds more than a small, fixed number of
+     * Notes in memory. Changes recorded while this is running may be counted twice or not at all,
+     * but this is rare, and corrected the next time this runs.
+     *
+     * @param uid The uid of the user whose statistics to recompute.
+     * @return A Task which, upon completion, provides the recomputed NoteStats.
+     */
+    public static Task<NoteStats> reconcile(final String uid) {
+        return Tasks.call(sExecutor, new Callable<NoteStats>() {
+            @Override
+            public NoteStats call() throws Exception {
+                DatabaseReference notesRef =
+                        FirebaseDatabase.getInstance().getReference("notes/" + uid);
+                long count = 0;
+                long contentBytes = 0;
+                Long lastModified = null;
+
+                // Read one page of Notes at a time, each starting with the last Note of the
+                // previous page.
+                String lastKey = null;
+                boolean morePages = true;
+                while (morePages) {
+                    Query page = (lastKey == null)
+                            ? notesRef.orderByKey().limitToFirst(RECONCILE_PAGE_SIZE)
+                            : notesRef.orderByKey().startAt(lastKey)
+                                    .limitToFirst(RECONCILE_PAGE_SIZE + 1);
+                    DataSnapshot pageSnapshot = Tasks.await(getValue(page));
+
+                    int pageNoteCount = 0;
+                    for (DataSnapshot noteSnapshot : pageSnapshot.getChildren()) {
+                        if (noteSnapshot.getKey().equals(lastKey)) {
+                            continue;
+                        }
+
+                        Note note = NoteCodec.fromSnapshot(noteSnapshot);
+                        count++;
+                        contentBytes += getContentBytes(note.getContent());
+                        if (note.getUpdatedAt() != null
+                                && (lastModified == null || note.getUpdatedAt() > lastModified)) {
+                            lastModified = note.getUpdatedAt();
+                        }
+                        pageNoteCount++;
+                        lastKey = noteSnapshot.getKey();
+                    }
+                    morePages = pageNoteCount == RECONCILE_PAGE_SIZE;
+                }
+
+                Map<String, Object> stats = new HashMap<>();
+                stats.put(COUNT_KEY, count);
+                stats.put(CONTENT_BYTES_KEY, contentBytes);
+                stats.put(LAST_MODIFIED_KEY, lastModified);
+                stats.put(RECONCILED_AT_KEY, ServerValue.TIMESTAMP);
+                Tasks.await(setValue(getRef(uid), stats));
+
+                NoteStats noteStats = new NoteStats(
+                        count, contentBytes, lastModified, System.currentTimeMillis());
+                Log.d(TAG, "Reconciled " + noteStats);
+                return noteStats;
+            }
+        });
+    }
+
+    /**
+     * Attempts to asynchronously get the current value of the provided Query.
+     */
+    private static Task<DataSnapshot> getValue(Query query) {
+        final TaskCompletionSource<DataSnapshot> taskCompletion = new TaskCompletionSource<>();
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                // Set that this Task was successful.
+                taskCompletion.setResult(snapshot);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                // Set that this Task was unsuccessful.
+                taskCompletion.setException(error.toException());
+            }
+        });
+
+        return taskCompletion.getTask();
+    }
+
+    /**
+     * Attempts to asynchronously set the value at the provided reference.
+     */
+    private static Task<Void> setValue(DatabaseReference ref, Object value) {
+        final TaskCompletionSource<Void> taskCompletion = new TaskCompletionSource<>();
+        ref.setValue(value, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError error, DatabaseReference ref) {
+                if (error == null) {
+                    // Set that this Task was successful.
+                    taskCompletion.setResult(null);
+                } else {
+                    // Set that this Task was unsuccessful.
+                    taskCompletion.setException(error.toException());
+                }
+            }
+        });
+
+        return taskCompletion.getTask();
+    }
+}
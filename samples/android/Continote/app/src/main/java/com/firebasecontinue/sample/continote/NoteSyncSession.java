@@ -0,0 +1,581 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.util.Log;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Incrementally syncs edits to a Note between every client which has it open at the same time.
+ *
+ * Rather than each client overwriting the whole Note, each client appends small Operations to
+ * the Note's operation log at "noteOperations/[uid]/[noteKey]/history". Each Operation claims the
+ * next revision of the log within a transaction, so every client applies every Operation in the
+ * same order. A local Operation which loses the race for a revision is transformed against the
+ * Operation which won it and then retried, so concurrent edits are never lost.
+ *
+ * The log starts from a snapshot of the Note (its "checkpoint") at some revision. Every so often,
+ * the client which commits a revision compacts the log: it writes a new checkpoint and deletes
+ * the Operations that no client could still need. The Note itself is only written when it is
+ * saved.
+ *
+ * Each checkpoint also records the values last written to the Note itself by a client using this
+ * class. If the Note no longer has those values when a session starts, it was saved by a client
+ * which does not use the log, so the log is restarted from the Note's current values.
+ *
+ * All methods must be called on the main thread, which is also where all callbacks happen.
+ */
+public class NoteSyncSession {
+
+    private static final String TAG = "NoteSyncSession";
+
+    // A new checkpoint is written every time this many revisions have been committed.
+    private static final int CHECKPOINT_INTERVAL = 100;
+
+    // The keys of the checkpoint of the Note.
+    private static final String CHECKPOINT_REVISION_KEY = "revision";
+    private static final String CHECKPOINT_TITLE_KEY = "title";
+    private static final String CHECKPOINT_CONTENT_KEY = "content";
+    private static final String CHECKPOINT_NOTE_TITLE_KEY = "noteTitle";
+    private static final String CHECKPOINT_NOTE_CONTENT_KEY = "noteContent";
+
+    /**
+     * Listens for changes to the Note made by other clients.
+     */
+    public interface Listener {
+
+        /**
+         * Called when an Operation from another client has been applied to the local values of
+         * the Note.
+         *
+         * @param operation The Operation, transformed to apply to the local values of the Note as
+         *                  they were before this call (i.e. including any local Operations that
+         *                  are not yet committed).
+         */
+        void onRemoteOperationApplied(NoteOperation operation);
+    }
+
+    // The ID of this session, used as the author of every Operation it creates.
+    private final String mId = UUID.randomUUID().toString();
+
+    // Paths within the Firebase Realtime Database, relative to its root.
+    private final String mNotePath;
+    private final String mOperationsPath;
+
+    private final Listener mListener;
+
+    // The values of the Note when this session was created.
+    private final String mInitialTitle;
+    private final String mInitialContent;
+
+    // The values of the Note as of the most recently committed revision.
+    private String mCommittedTitle;
+    private String mCommittedContent;
+
+    // The revision the next Operation committed to the log will have.
+    private int mNextRevision = 0;
+
+    // The revision of the checkpoint this session most recently caught up from, if any.
+    private int mCheckpointRevision = -1;
+
+    // The local Operations which are not yet committed, in the order they were made. Only the first
+    // is ever being sent at a time.
+    private final List<NoteOperation> mPendingOperations = new ArrayList<>();
+    private boolean mSending = false;
+
+    private boolean mStarted = false;
+    private boolean mCheckpointLoaded = false;
+    private boolean mStopped = false;
+
+    // Whether or not the next Operation committed should be applied even if Operations before it
+    // are missing, because they can no longer be recovered.
+    private boolean mSkipMissingOperations = false;
+
+    private final ChildEventListener mHistoryListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+            handleOperationCommitted(snapshot);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildName) {}
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {}
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildName) {}
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            Log.e(TAG, error.getMessage(), error.toException());
+        }
+    };
+
+    /**
+     * Constructs a new session to sync the Note with the provided database key.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @param note The current value of the Note.
+     * @param listener The Listener to inform of changes to the Note made by other clients.
+     */
+    public NoteSyncSession(String uid, String noteKey, Note note, Listener listener) {
+        mNotePath = "notes/" + uid + "/" + noteKey;
+        mOperationsPath = getOperationsPath(uid, noteKey);
+        mListener = listener;
+        mInitialTitle = (note.getTitle() != null) ? note.getTitle() : "";
+        mInitialContent = (note.getContent() != null) ? note.getContent() : "";
+        mCommittedTitle = mInitialTitle;
+        mCommittedContent = mInitialContent;
+    }
+
+    /**
+     * Starts syncing: the latest checkpoint is loaded (or the log is started from the current
+     * values of the Note), and then every Operation committed since then is applied in order.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+
+        getCheckpointRef().runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                Integer revision =
+                        currentData.child(CHECKPOINT_REVISION_KEY).getValue(Integer.class);
+                String noteTitle =
+                        currentData.child(CHECKPOINT_NOTE_TITLE_KEY).getValue(String.class);
+                String noteContent =
+                        currentData.child(CHECKPOINT_NOTE_CONTENT_KEY).getValue(String.class);
+
+                if (revision == null) {
+                    // There is no log yet, so start one.
+                    currentData.setValue(createCheckpoint(
+                            0, mInitialTitle, mInitialContent, mInitialTitle, mInitialContent));
+                } else if (!mInitialTitle.equals(noteTitle)
+                        || !mInitialContent.equals(noteContent)) {
+                    // The Note was saved without using the log, so restart the log from its
+                    // current values. Skipping ahead ensures none of the existing Operations are
+                    // applied on top of it.
+                    currentData.setValue(createCheckpoint(
+                            revision + 2 * CHECKPOINT_INTERVAL,
+                            mInitialTitle,
+                            mInitialContent,
+                            mInitialTitle,
+                            mInitialContent));
+                }
+
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error,
+                                   boolean committed,
+                                   DataSnapshot checkpoint) {
+                if (error != null) {
+                    Log.e(TAG, error.getMessage(), error.toException());
+                } else if (!mStopped) {
+                    handleCheckpointLoaded(checkpoint);
+                }
+            }
+        }, false);
+    }
+
+    /**
+     * Stops syncing. Any local Operations which are not yet committed are discarded, since the
+     * Note itself is saved separately.
+     */
+    public void stop() {
+        mStopped = true;
+        ListenerTracker listenerTracker = ListenerTracker.getInstance();
+        listenerTracker.removeEventListener(this, getHistoryRef(), mHistoryListener);
+        listenerTracker.handleOwnerReleased(this);
+    }
+
+    /**
+     * Records an edit the user made locally, and sends it to every other client.
+     *
+     * @param operation The edit, which must already be applied to the local values of the Note.
+     */
+    public void applyLocalOperation(NoteOperation operation) {
+        operation.setAuthor(mId);
+        mPendingOperations.add(operation);
+        sendNextPendingOperation();
+    }
+
+    /**
+     * Gets and returns the local title of the Note: the committed title with every pending local
+     * Operation applied.
+     *
+     * @return The local title of the Note.
+     */
+    public String getLocalTitle() {
+        return getLocalValue(NoteOperation.FIELD_TITLE, mCommittedTitle);
+    }
+
+    /**
+     * Gets and returns the local content of the Note: the committed content with every pending
+     * local Operation applied.
+     *
+     * @return The local content of the Note.
+     */
+    public String getLocalContent() {
+        return getLocalValue(NoteOperation.FIELD_CONTENT, mCommittedContent);
+    }
+
+    /**
+     * Creates and returns the multi-path update which saves the provided Note, keyed by paths
+     * relative to the root of the Firebase Realtime Database.
+     *
+     * Along with the Note itself, this writes a checkpoint of the committed revision which
+     * records the values saved, so other sessions know the Note was saved using the log.
+     *
+     * @param note The Note to save, which should have the local values of the Note.
+     * @return The updates to save the Note.
+     */
+    public Map<String, Object> createSaveUpdates(Note note) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put(mNotePath, NoteCodec.toMap(note));
+        if (mCheckpointLoaded && !mStopped) {
+            updates.put(mOperationsPath + "/checkpoint", createCheckpoint(
+                    mNextRevision,
+                    mCommittedTitle,
+                    mCommittedContent,
+                    (note.getTitle() != null) ? note.getTitle() : "",
+                    (note.getContent() != null) ? note.getContent() : ""));
+        }
+
+        return updates;
+    }
+
+    /**
+     * Creates and returns the multi-path update which saves the provided Note outside of any
+     * session (such as when PendingSaveLog replays a save), keyed by paths relative to the root of
+     * the Firebase Realtime Database.
+     *
+     * Along with the Note itself, this restarts the log from the saved values, just as a session
+     * does when it finds the Note was saved without using the log, so that none of the Operations
+     * committed before the save are applied on top of it.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @param note The Note to save.
+     * @param checkpoint The DataSnapshot of the current checkpoint of the Note (see
+     *                   getCheckpointRef()), which may not exist.
+     * @return The updates to save the Note.
+     */
+    public static Map<String, Object> createSaveUpdates(String uid,
+                                                        String noteKey,
+                                                        Note note,
+                                                        DataSnapshot checkpoint) {
+        String title = (note.getTitle() != null) ? note.getTitle() : "";
+        String content = (note.getContent() != null) ? note.getContent() : "";
+        Integer revision = checkpoint.child(CHECKPOINT_REVISION_KEY).getValue(Integer.class);
+
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("notes/" + uid + "/" + noteKey, NoteCodec.toMap(note));
+        updates.put(getOperationsPath(uid, noteKey) + "/checkpoint", createCheckpoint(
+                (revision != null) ? revision + 2 * CHECKPOINT_INTERVAL : 0,
+                title,
+                content,
+                title,
+                content));
+
+        return updates;
+    }
+
+    /**
+     * Gets and returns the Firebase Realtime Database reference of the checkpoint of a Note.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @return The database reference of the checkpoint.
+     */
+    public static DatabaseReference getCheckpointRef(String uid, String noteKey) {
+        return FirebaseDatabase.getInstance().getReference(
+                getOperationsPath(uid, noteKey) + "/checkpoint");
+    }
+
+    private String getLocalValue(String field, String committedValue) {
+        String value = committedValue;
+        for (NoteOperation operation : mPendingOperations) {
+            if (field.equals(operation.getField())) {
+                value = operation.applyTo(value);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Handles when the latest checkpoint has been loaded, by catching up to it and then listening
+     * for every Operation committed after it.
+     */
+    private void handleCheckpointLoaded(DataSnapshot checkpoint) {
+        Integer revision = checkpoint.child(CHECKPOINT_REVISION_KEY).getValue(Integer.class);
+        String title = checkpoint.child(CHECKPOINT_TITLE_KEY).getValue(String.class);
+        String content = checkpoint.child(CHECKPOINT_CONTENT_KEY).getValue(String.class);
+
+        // Replace the committed values with the checkpoint's, as though each were an Operation
+        // from another client.
+        mNextRevision = (revision != null) ? revision : 0;
+        mCheckpointRevision = mNextRevision;
+        if (title != null && !title.equals(mCommittedTitle)) {
+            applyRemoteOperation(new NoteOperation(
+                    null, NoteOperation.FIELD_TITLE, 0, mCommittedTitle.length(), title));
+        }
+        if (content != null && !content.equals(mCommittedContent)) {
+            applyRemoteOperation(new NoteOperation(
+                    null, NoteOperation.FIELD_CONTENT, 0, mCommittedContent.length(), content));
+        }
+
+        mCheckpointLoaded = true;
+        ListenerTracker.getInstance().addChildEventListener(
+                this,
+                getHistoryRef().orderByKey().startAt(getRevisionKey(mNextRevision)),
+                mHistoryListener);
+        sendNextPendingOperation();
+    }
+
+    /**
+     * Handles when an Operation has been committed to the log, by any client.
+     */
+    private void handleOperationCommitted(DataSnapshot snapshot) {
+        int revision = getRevision(snapshot.getKey());
+        if (revision < mNextRevision) {
+            // This was already applied, as part of the checkpoint.
+            return;
+        } else if (revision > mNextRevision && !mSkipMissingOperations) {
+            // The log was either compacted past this session or restarted, so catch up from the
+            // latest checkpoint.
+            resyncFromCheckpoint();
+            return;
+        }
+        mSkipMissingOperations = false;
+        mNextRevision = revision + 1;
+
+        NoteOperation operation = NoteOperationCodec.fromSnapshot(snapshot);
+        if (operation == null) {
+            return;
+        }
+
+        if (mId.equals(operation.getAuthor()) && !mPendingOperations.isEmpty()) {
+            // This is the acknowledgement of the local Operation that was being sent, which is
+            // already applied locally.
+            mPendingOperations.remove(0);
+            mSending = false;
+            commit(operation);
+            if (revision % CHECKPOINT_INTERVAL == CHECKPOINT_INTERVAL - 1) {
+                compact();
+            }
+        } else {
+            applyRemoteOperation(operation);
+        }
+
+        sendNextPendingOperation();
+    }
+
+    /**
+     * Stops listening for Operations, then catches up from the latest checkpoint.
+     */
+    private void resyncFromCheckpoint() {
+        ListenerTracker.getInstance().removeEventListener(this, getHistoryRef(), mHistoryListener);
+        mCheckpointLoaded = false;
+
+        getCheckpointRef().addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot checkpoint) {
+                if (mStopped) {
+                    return;
+                }
+
+                Integer revision =
+                        checkpoint.child(CHECKPOINT_REVISION_KEY).getValue(Integer.class);
+                if (revision != null && revision == mCheckpointRevision) {
+                    // There is no newer checkpoint, so the missing Operations can no longer be
+                    // recovered. Continue from the next Operation that exists instead.
+                    Log.w(TAG, "Operations after revision " + mNextRevision + " are missing");
+                    mSkipMissingOperations = true;
+                }
+                handleCheckpointLoaded(checkpoint);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                Log.e(TAG, error.getMessage(), error.toException());
+            }
+        });
+    }
+
+    /**
+     * Applies an Operation from another client: it is committed, every pending local Operation is
+     * transformed to apply after it, and the Listener is informed of the equivalent Operation on
+     * the local values of the Note.
+     */
+    private void applyRemoteOperation(NoteOperation operation) {
+        commit(operation);
+
+        NoteOperation localOperation = operation;
+        for (int i = 0; i < mPendingOperations.size(); i++) {
+            NoteOperation pendingOperation = mPendingOperations.get(i);
+            mPendingOperations.set(i, pendingOperation.transformAgainst(localOperation));
+            localOperation = localOperation.transformAgainst(pendingOperation);
+        }
+
+        mListener.onRemoteOperationApplied(localOperation);
+    }
+
+    private void commit(NoteOperation operation) {
+        if (NoteOperation.FIELD_TITLE.equals(operation.getField())) {
+            mCommittedTitle = operation.applyTo(mCommittedTitle);
+        } else if (NoteOperation.FIELD_CONTENT.equals(operation.getField())) {
+            mCommittedContent = operation.applyTo(mCommittedContent);
+        }
+    }
+
+    /**
+     * Attempts to commit the first pending local Operation as the next revision, if it is not
+     * already being sent.
+     *
+     * If another client commits that revision first, the Operation is sent again once the other
+     * client's Operation has been received and the pending Operation transformed against it.
+     */
+    private void sendNextPendingOperation() {
+        if (mStopped || mSending || !mCheckpointLoaded || mPendingOperations.isEmpty()) {
+            return;
+        }
+        mSending = true;
+
+        final NoteOperation operation = mPendingOperations.get(0);
+        final int revision = mNextRevision;
+        getHistoryRef().child(getRevisionKey(revision)).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                if (currentData.getValue() != null) {
+                    // Another client already committed this revision.
+                    return Transaction.abort();
+                }
+
+                currentData.setValue(NoteOperationCodec.toMap(operation));
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error,
+                                   boolean committed,
+                                   DataSnapshot snapshot) {
+                if (error != null) {
+                    Log.e(TAG, error.getMessage(), error.toException());
+                }
+
+                if (!committed) {
+                    // If the Operation that won this revision has already arrived, retry now.
+                    // Otherwise, the history listener retries as soon as it does.
+                    mSending = false;
+                    if (mNextRevision > revision) {
+                        sendNextPendingOperation();
+                    }
+                }
+
+                // Otherwise, the history listener handles the acknowledgement.
+            }
+        }, false);
+    }
+
+    /**
+     * Writes a checkpoint of the committed values of the Note, and deletes the Operations from
+     * before the previous checkpoint.
+     *
+     * The Note itself, and the values the checkpoint records as last written to it, are left as
+     * is: the Note is only ever written when the user saves it.
+     *
+     * Operations since the previous checkpoint are kept, so a session which loaded the previous
+     * checkpoint just before this one was written can still catch up.
+     */
+    private void compact() {
+        String checkpointPath = mOperationsPath + "/checkpoint/";
+        Map<String, Object> updates = new HashMap<>();
+        updates.put(checkpointPath + CHECKPOINT_REVISION_KEY, mNextRevision);
+        updates.put(checkpointPath + CHECKPOINT_TITLE_KEY, mCommittedTitle);
+        updates.put(checkpointPath + CHECKPOINT_CONTENT_KEY, mCommittedContent);
+        for (int i = Math.max(0, mNextRevision - 2 * CHECKPOINT_INTERVAL);
+             i < mNextRevision - CHECKPOINT_INTERVAL;
+             i++) {
+            updates.put(mOperationsPath + "/history/" + getRevisionKey(i), null);
+        }
+
+        FirebaseDatabase.getInstance().getReference().updateChildren(updates);
+    }
+
+    private DatabaseReference getCheckpointRef() {
+        return FirebaseDatabase.getInstance().getReference(mOperationsPath + "/checkpoint");
+    }
+
+    private DatabaseReference getHistoryRef() {
+        return FirebaseDatabase.getInstance().getReference(mOperationsPath + "/history");
+    }
+
+    private static Map<String, Object> createCheckpoint(int revision,
+                                                        String title,
+                                                        String content,
+                                                        String noteTitle,
+                                                        String noteContent) {
+        Map<String, Object> checkpoint = new HashMap<>();
+        checkpoint.put(CHECKPOINT_REVISION_KEY, revision);
+        checkpoint.put(CHECKPOINT_TITLE_KEY, title);
+        checkpoint.put(CHECKPOINT_CONTENT_KEY, content);
+        checkpoint.put(CHECKPOINT_NOTE_TITLE_KEY, noteTitle);
+        checkpoint.put(CHECKPOINT_NOTE_CONTENT_KEY, noteContent);
+
+        return checkpoint;
+    }
+
+    /**
+     * Gets and returns the path of the operation log of the provided Note, relative to the root of
+     * the Firebase Realtime Database.
+     */
+    private static String getOperationsPath(String uid, String noteKey) {
+        return "noteOperations/" + uid + "/" + noteKey;
+    }
+
+    /**
+     * Gets and returns the key of the Operation with the provided revision within the log.
+     * Keys are zero-padded so that ordering by key is ordering by revision.
+     */
+    private static String getRevisionKey(int revision) {
+        return String.format(Locale.ROOT, "r%010d", revision);
+    }
+
+    private static int getRevision(String revisionKey) {
+        return Integer.parseInt(revisionKey.substring(1));
+    }
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Exports all of a user's Notes to, and imports Notes from, a local file of newline-delimited
+ * JSON: one JSON object per line, with the same values as each Note has in the Firebase Realtime
+ * Database (along with its key).
+ *
+ * Neither ever holds more than a small, fixed number of Notes in memory, no matter how many Notes
+ * the user has. Exporting reads the user's Notes one page at a time (in key order), writing each
+ * page to the file before reading the next. Importing reads the file one line at a time, and adds
+ * the Notes in batches of multi-path writes, waiting for earlier batches to be written before
+ * reading more of the file once too many are in progress.
+ *
+ * All file and database access happens on a single background thread, so every operation is
+ * asynchronous and returns a Task.
+ */
+public final class NoteTransfer {
+
+    private static final String TAG = "NoteTransfer";
+
+    // The number of Notes read from the database at a time while exporting.
+    private static final int EXPORT_PAGE_SIZE = 100;
+
+    // The maximum number of Notes, and the maximum total size of their values, added to the
+    // database by a single multi-path write while importing.
+    private static final int IMPORT_BATCH_SIZE = 100;
+    private static final int IMPORT_BATCH_MAX_CHARS = 1024 * 1024;
+
+    // The maximum number of batches being written to the database at once while importing.
+    private static final int MAX_IMPORT_BATCHES_IN_FLIGHT = 2;
+
+    // The key of the database key of each Note within the file.
+    private static final String KEY_KEY = "key";
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * The outcome of an export or import.
+     */
+    public static final class Result {
+
+        private final int mNoteCount;
+        private final long mCharCount;
+        private final long mElapsedMillis;
+
+        private Result(int noteCount, long charCount, long elapsedMillis) {
+            mNoteCount = noteCount;
+            mCharCount = charCount;
+            mElapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Gets and returns the number of Notes exported or imported.
+         *
+         * @return The number of Notes transferred.
+         */
+        public int getNoteCount() {
+            return mNoteCount;
+        }
+
+        /**
+         * Gets and returns how long the export or import took.
+         *
+         * @return The duration of the transfer, in milliseconds.
+         */
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        /**
+         * Gets and returns the throughput of the export or import.
+         *
+         * @return The number of Notes transferred per second.
+         */
+        public double getNotesPerSecond() {
+            return (mElapsedMillis > 0) ? mNoteCount * 1000.0 / mElapsedMillis : mNoteCount;
+        }
+
+        @Override
+        public String toString() {
+            return "NoteTransfer.Result{notes=" + mNoteCount
+                    + ", chars=" + mCharCount
+                    + ", millis=" + mElapsedMillis
+                    + ", notesPerSecond=" + getNotesPerSecond() + "}";
+        }
+    }
+
+    /**
+     * Attempts to asynchronously export all of the Notes of a user to the provided file,
+     * replacing it if it exists.
+     *
+     * @param uid The uid of the user whose Notes to export.
+     * @param file The file to export the Notes to.
+     * @return A Task which, upon completion, provides the Result of the export.
+     */
+    public static Task<Result> exportNotes(final String uid, final File file) {
+        return Tasks.call(sExecutor, new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                long startTimeMillis = SystemClock.elapsedRealtime();
+                DatabaseReference notesRef =
+                        FirebaseDatabase.getInstance().getReference("notes/" + uid);
+                File temporaryFile = new File(file.getPath() + ".tmp");
+                BufferedWriter writer = new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8"));
+                int noteCount = 0;
+                long charCount = 0;
+                try {
+                    // Read one page of Notes at a time, each starting with the last Note of the
+                    // previous page.
+                    String lastKey = null;
+                    boolean morePages = true;
+                    while (morePages) {
+                        Query page = (lastKey == null)
+                                ? notesRef.orderByKey().limitToFirst(EXPORT_PAGE_SIZE)
+                                : notesRef.orderByKey().startAt(lastKey)
+                                        .limitToFirst(EXPORT_PAGE_SIZE + 1);
+                        DataSnapshot pageSnapshot = Tasks.await(getValue(page));
+
+                        int pageNoteCount = 0;
+                        for (DataSnapshot noteSnapshot : pageSnapshot.getChildren()) {
+                            if (noteSnapshot.getKey().equals(lastKey)) {
+                                continue;
+                            }
+
+                            String line = toJson(noteSnapshot.getKey(),
+                                                 NoteCodec.fromSnapshot(noteSnapshot));
+                            writer.write(line);
+                            writer.write('\n');
+                            noteCount++;
+                            charCount += line.length() + 1;
+                            pageNoteCount++;
+                            lastKey = noteSnapshot.getKey();
+                        }
+                        morePages = pageNoteCount == EXPORT_PAGE_SIZE;
+                    }
+                } finally {
+                    writer.close();
+                }
+
+                // Only replace the file once the export is complete.
+                if (!temporaryFile.renameTo(file)) {
+                    throw new IOException("Could not write " + file);
+                }
+
+                Result result = new Result(
+                        noteCount, charCount, SystemClock.elapsedRealtime() - startTimeMillis);
+                Log.d(TAG, "Exported " + result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Attempts to asynchronously import Notes for a user from the provided file, as previously
+     * exported by exportNotes().
+     *
+     * Each imported Note is added as a new Note, so importing never replaces any existing Note.
+     * If importing fails partway through, the Notes in the batches already written remain.
+     *
+     * @param uid The uid of the user to import the Notes for.
+     * @param file The file to import the Notes from.
+     * @return A Task which, upon completion, provides the Result of the import.
+     */
+    public static Task<Result> importNotes(final String uid, final File file) {
+        return Tasks.call(sExecutor, new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                long startTimeMillis = SystemClock.elapsedRealtime();
+                DatabaseReference rootRef = FirebaseDatabase.getInstance().getReference();
+                DatabaseReference notesRef = rootRef.child("notes/" + uid);
+                ArrayDeque<Task<Void>> batchesInFlight = new ArrayDeque<>();
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                int noteCount = 0;
+                long charCount = 0;
+                try {
+                    Map<String, Object> batch = new HashMap<>();
+                    long batchCharCount = 0;
+                    long batchContentBytes = 0;
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (TextUtils.getTrimmedLength(line) == 0) {
+                            continue;
+                        }
+
+                        Note note = fromJson(line);
+                        batch.put("notes/" + uid + "/" + notesRef.push().getKey(),
+                                  NoteCodec.toMap(note));
+                        noteCount++;
+                        charCount += line.length() + 1;
+                        batchCharCount += line.length();
+                        batchContentBytes += NoteStats.getContentBytes(note.getContent());
+
+                        if (batch.size() >= IMPORT_BATCH_SIZE
+                                || batchCharCount >= IMPORT_BATCH_MAX_CHARS) {
+                            writeBatch(uid, rootRef, batch, batchContentBytes, batchesInFlight);
+                            batch = new HashMap<>();
+                            batchCharCount = 0;
+                            batchContentBytes = 0;
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        writeBatch(uid, rootRef, batch, batchContentBytes, batchesInFlight);
+                    }
+
+                    // Wait for every remaining batch to be written.
+                    while (!batchesInFlight.isEmpty()) {
+                        Tasks.await(batchesInFlight.poll());
+                    }
+                } finally {
+                    reader.close();
+                }
+
+                Result result = new Result(
+                        noteCount, charCount, SystemClock.elapsedRealtime() - startTimeMillis);
+                Log.d(TAG, "Imported " + result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Starts writing a batch of Notes to the database, first waiting for the oldest batch still
+     * being written if too many are already being written. Once the batch is written, it is
+     * recorded within the statistics of the user's Notes (see NoteStats).
+     */
+    private static void writeBatch(final String uid,
+                                   DatabaseReference rootRef,
+                                   final Map<String, Object> batch,
+                                   final long contentBytes,
+                                   ArrayDeque<Task<Void>> batchesInFlight) throws Exception {
+        while (batchesInFlight.size() >= MAX_IMPORT_BATCHES_IN_FLIGHT) {
+            Tasks.await(batchesInFlight.poll());
+        }
+
+        final TaskCompletionSource<Void> taskCompletion = new TaskCompletionSource<>();
+        rootRef.updateChildren(batch, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError error, DatabaseReference ref) {
+                if (error == null) {
+                    NoteStats.recordChange(uid, batch.size(), contentBytes);
+
+                    // Set that this Task was successful.
+                    taskCompletion.setResult(null);
+                } else {
+                    // Set that this Task was unsuccessful.
+                    taskCompletion.setException(error.toException());
+                }
+            }
+        });
+        batchesInFlight.add(taskCompletion.getTask());
+    }
+
+    /**
+     * Attempts to asynchronously get the current value of the provided Query.
+     */
+    private static Task<DataSnapshot> getValue(Query query) {
+        final TaskCompletionSource<DataSnapshot> taskCompletion = new TaskCompletionSource<>();
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                // Set that this Task was successful.
+                taskCompletion.setResult(snapshot);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                // Set that this Task was unsuccessful.
+                taskCompletion.setException(error.toException());
+            }
+        });
+
+        return taskCompletion.getTask();
+    }
+
+    private static String toJson(String key, Note note) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(KEY_KEY, key);
+        json.put(NoteCodec.TITLE_KEY, (note.getTitle() != null) ? note.getTitle() : "");
+        json.put(NoteCodec.CONTENT_KEY, (note.getContent() != null) ? note.getContent() : "");
+        if (note.getUpdatedAt() != null) {
+            json.put(NoteCodec.UPDATED_AT_KEY, note.getUpdatedAt().longValue());
+        }
+
+        return json.toString();
+    }
+
+    private static Note fromJson(String line) throws JSONException {
+        JSONObject json = new JSONObject(line);
+
+        return new Note(json.optString(NoteCodec.TITLE_KEY, ""),
+                        json.optString(NoteCodec.CONTENT_KEY, ""));
+    }
+
+    /**
+     * This class only exposes static methods, so no instances are necessary.
+     */
+    private NoteTransfer() {
+        throw new UnsupportedOperationException("NoteTransfer cannot be instantiated");
+    }
+}
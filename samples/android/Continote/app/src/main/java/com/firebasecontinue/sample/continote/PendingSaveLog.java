@@ -0,0 +1,702 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A local, append-only log of the Note saves which the Firebase Realtime Database has not yet
+ * acknowledged, so that they survive the app's process being killed (for example, while the
+ * device is offline) and can be replayed, in order, once the user signs in again.
+ *
+ * Each save is appended to the log before it is written to the database, and acknowledged once
+ * the database accepts (or rejects) it. Consecutive saves of the same Note which have not reached
+ * the disk yet are coalesced into one entry, and only the latest save of each Note is replayed.
+ *
+ * Rather than flushing the log to disk (i.e. calling fsync) for every save, saves are written in
+ * batches: every save appended within FLUSH_DELAY_MILLIS of the first unwritten one is written and
+ * flushed together, so a burst of saves costs a single flush. Once any save is acknowledged, the
+ * next batch compacts the log instead, rewriting it with only the saves still pending. A save
+ * acknowledged just before the process is killed may therefore be replayed, which is harmless,
+ * since it writes the same values again.
+ *
+ * A save is only replayed if the Note still exists and was not saved again (by any client) after
+ * it, so a replay never resurrects a deleted Note or overwrites newer edits. Deleting Notes should
+ * also discard their pending saves, with discard().
+ *
+ * Each entry is a line of JSON prefixed with its checksum, so that a line torn by the process
+ * being killed mid-write is detected (and discarded) when the log is read back.
+ *
+ * All disk access happens on a single background thread, so every operation is asynchronous and
+ * returns a Task. To understand how to use Tasks,
+ * see: https://developers.google.com/android/guides/tasks.
+ */
+public final class PendingSaveLog {
+
+    private static final String TAG = "PendingSaveLog";
+
+    // The name of the log file within the app's files directory (rather than its cache directory,
+    // which the system may clear at any time).
+    private static final String LOG_FILE_NAME = "pending-saves.log";
+
+    // The suffix of the file the log is compacted into before it replaces the log.
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    // How long after a save is appended the batch it is in is written and flushed to disk.
+    private static final long FLUSH_DELAY_MILLIS = 200;
+
+    // The keys of the JSON object each entry is stored as.
+    private static final String UID_KEY = "uid";
+    private static final String NOTE_KEY_KEY = "noteKey";
+    private static final String TITLE_KEY = "title";
+    private static final String CONTENT_KEY = "content";
+    private static final String SAVED_AT_KEY = "savedAt";
+
+    @Nullable
+    private static PendingSaveLog sInstance = null;
+
+    /**
+     * A save of a Note which the database has not acknowledged yet.
+     */
+    public static final class PendingSave {
+
+        private final String mUid;
+        private final String mNoteKey;
+        private final Note mNote;
+        private final long mSavedAtMillis;
+
+        private PendingSave(String uid, String noteKey, Note note, long savedAtMillis) {
+            mUid = uid;
+            mNoteKey = noteKey;
+            mNote = note;
+            mSavedAtMillis = savedAtMillis;
+        }
+
+        /**
+         * Gets and returns the uid of the user the Note belongs to.
+         *
+         * @return The uid of the user.
+         */
+        public String getUid() {
+            return mUid;
+        }
+
+        /**
+         * Gets and returns the Firebase Realtime Database key of the Note.
+         *
+         * @return The key of the Note.
+         */
+        public String getNoteKey() {
+            return mNoteKey;
+        }
+
+        /**
+         * Gets and returns the values of the Note that were saved.
+         *
+         * @return The saved Note.
+         */
+        public Note getNote() {
+            return mNote;
+        }
+
+        /**
+         * Gets and returns when the Note was saved, according to the device's clock.
+         *
+         * @return When the Note was saved, in milliseconds since the epoch.
+         */
+        public long getSavedAtMillis() {
+            return mSavedAtMillis;
+        }
+    }
+
+    private final Context mContext;
+    private final File mFile;
+
+    // All disk access happens on this executor, which is also where each batch is scheduled, so
+    // the fields below are only accessed on it.
+    private final ScheduledExecutorService mDiskExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // The latest pending save of each Note, keyed by "[uid]/[noteKey]", ordered from least to most
+    // recently saved. This is lazily loaded from disk the first time the log is used.
+    private final LinkedHashMap<String, PendingSave> mPendingSaves = new LinkedHashMap<>();
+    private boolean mLoaded = false;
+
+    // The saves appended since the last batch, in order, which are not on disk yet.
+    private final List<PendingSave> mUnwrittenSaves = new ArrayList<>();
+
+    // Whether or not the next batch must rewrite the log rather than append to it, because a save
+    // was acknowledged (or the log could not be read or written) since the last batch.
+    private boolean mCompactionNeeded = false;
+
+    // Whether or not the next batch has been scheduled.
+    private boolean mBatchScheduled = false;
+
+    // The appends waiting for the next batch to reach the disk.
+    private final List<TaskCompletionSource<Void>> mBatchWaiters = new ArrayList<>();
+
+    // The users whose pending saves have been replayed since the app started.
+    private final Set<String> mReplayedUids = new HashSet<>();
+
+    private final Runnable mRunBatch = new Runnable() {
+        @Override
+        public void run() {
+            runBatch();
+        }
+    };
+
+    /**
+     * Gets and returns the PendingSaveLog for this app, creating it if necessary.
+     *
+     * @param context Any Context within this app.
+     * @return The PendingSaveLog for this app.
+     */
+    public static synchronized PendingSaveLog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PendingSaveLog(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private PendingSaveLog(Context context) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), LOG_FILE_NAME);
+    }
+
+    /**
+     * Appends a save of a Note to the log. This must be called before the save is written to the
+     * database, so that the save is in the log before it could possibly be acknowledged.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @param note The values of the Note being saved.
+     * @return A Task which, upon completion, signals whether or not the save reached the disk.
+     */
+    public Task<Void> append(final String uid, final String noteKey, Note note) {
+        if (TextUtils.isEmpty(uid) || TextUtils.isEmpty(noteKey)) {
+            throw new IllegalArgumentException("uid and noteKey must be non-empty");
+        }
+
+        // Copy the Note's values now, since the Note could be modified before the write happens.
+        final PendingSave save = new PendingSave(
+                uid,
+                noteKey,
+                new Note(note.getTitle(), note.getContent()),
+                System.currentTimeMillis());
+        final TaskCompletionSource<Void> appendTaskCompletion = new TaskCompletionSource<>();
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadIfNecessary();
+
+                String key = getKey(save);
+                mPendingSaves.remove(key);
+                mPendingSaves.put(key, save);
+
+                // Coalesce this save with the previous one if it is of the same Note and is not
+                // on disk yet, since only the latest save of each Note is replayed.
+                int last = mUnwrittenSaves.size() - 1;
+                if (last >= 0 && getKey(mUnwrittenSaves.get(last)).equals(key)) {
+                    mUnwrittenSaves.set(last, save);
+                } else {
+                    mUnwrittenSaves.add(save);
+                }
+
+                mBatchWaiters.add(appendTaskCompletion);
+                scheduleBatch();
+            }
+        });
+
+        return appendTaskCompletion.getTask();
+    }
+
+    /**
+     * Records that the database has acknowledged a save of a Note, either by accepting it or by
+     * rejecting it, so that it is no longer replayed.
+     *
+     * A later save of the same Note with different values stays pending, since the database has
+     * not acknowledged that one yet.
+     *
+     * @param uid The uid of the user the Note belongs to.
+     * @param noteKey The Firebase Realtime Database key of the Note.
+     * @param note The values of the Note that were saved.
+     * @return A Task which, upon completion, signals whether or not the acknowledgement was
+     * recorded. It reaches the disk with the next batch.
+     */
+    public Task<Void> acknowledge(final String uid, final String noteKey, Note note) {
+        final String title = note.getTitle();
+        final String content = note.getContent();
+        return Tasks.call(mDiskExecutor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                loadIfNecessary();
+
+                String key = getKey(uid, noteKey);
+                PendingSave save = mPendingSaves.get(key);
+                if (save == null
+                        || !TextUtils.equals(save.mNote.getTitle(), title)
+                        || !TextUtils.equals(save.mNote.getContent(), content)) {
+                    return null;
+                }
+
+                mPendingSaves.remove(key);
+                mUnwrittenSaves.remove(save);
+                mCompactionNeeded = true;
+                scheduleBatch();
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Discards the pending saves of Notes which are being deleted, so that they are never
+     * replayed.
+     *
+     * @param uid The uid of the user the Notes belong to.
+     * @param noteKeys The Firebase Realtime Database keys of the Notes.
+     * @return A Task which, upon completion, signals whether or not the saves were discarded. They
+     * are removed from the disk with the next batch.
+     */
+    public Task<Void> discard(final String uid, Collection<String> noteKeys) {
+        final List<String> keys = new ArrayList<>(noteKeys);
+        return Tasks.call(mDiskExecutor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                loadIfNecessary();
+
+                for (String noteKey : keys) {
+                    PendingSave save = mPendingSaves.remove(getKey(uid, noteKey));
+                    if (save != null) {
+                        mUnwrittenSaves.remove(save);
+                        mCompactionNeeded = true;
+                    }
+                }
+                if (mCompactionNeeded) {
+                    scheduleBatch();
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Attempts to asynchronously get the pending saves of a user's Notes.
+     *
+     * @param uid The uid of the user.
+     * @return A Task which, upon completion, provides the pending saves, ordered from least to most
+     * recently saved.
+     */
+    public Task<List<PendingSave>> getPendingSaves(final String uid) {
+        return Tasks.call(mDiskExecutor, new Callable<List<PendingSave>>() {
+            @Override
+            public List<PendingSave> call() throws Exception {
+                loadIfNecessary();
+
+                return collectPendingSaves(uid);
+            }
+        });
+    }
+
+    /**
+     * Writes every pending save of a user's Notes to the database again, ordered from least to
+     * most recently saved, unless that has already been done since the app started. Each save is
+     * acknowledged once the database accepts or rejects it, or once it is skipped because the
+     * Note was deleted or saved again since.
+     *
+     * This is meant to be called once the user is signed in, to recover the saves which were never
+     * acknowledged before the app's process ended.
+     *
+     * @param uid The uid of the signed in user.
+     */
+    public void replay(final String uid) {
+        Tasks.call(mDiskExecutor, new Callable<List<PendingSave>>() {
+            @Override
+            public List<PendingSave> call() throws Exception {
+                loadIfNecessary();
+
+                // Any save appended after this is still being written by this process.
+                return mReplayedUids.add(uid) ? collectPendingSaves(uid) : null;
+            }
+        }).addOnSuccessListener(new OnSuccessListener<List<PendingSave>>() {
+            @Override
+            public void onSuccess(@Nullable List<PendingSave> saves) {
+                if (saves == null || saves.isEmpty()) {
+                    return;
+                }
+
+                // Each save is of a different Note, so the saves do not need to wait for each
+                // other.
+                Log.i(TAG, "Replaying " + saves.size() + " pending save(s)");
+                for (PendingSave save : saves) {
+                    replaySave(save);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes a pending save to the database, unless the Note has been deleted or saved again since,
+     * and then acknowledges it.
+     */
+    private void replaySave(final PendingSave save) {
+        FirebaseDatabase.getInstance().getReference("notes/" + save.mUid + "/" + save.mNoteKey)
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot snapshot) {
+                        Note savedNote;
+                        try {
+                            savedNote = NoteCodec.fromSnapshot(snapshot);
+                        } catch (DatabaseException e) {
+                            Log.w(TAG, "Could not read note " + save.mNoteKey, e);
+                            savedNote = null;
+                        }
+
+                        if (savedNote == null) {
+                            // The Note was deleted (or its creation never reached the database),
+                            // so replaying the save would resurrect it.
+                            acknowledge(save.mUid, save.mNoteKey, save.mNote);
+                        } else if (savedNote.getUpdatedAt() != null
+                                && savedNote.getUpdatedAt() > save.mSavedAtMillis) {
+                            // The Note was saved again after this save, so the database already
+                            // has newer values. This is only as accurate as the device's clock.
+                            acknowledge(save.mUid, save.mNoteKey, save.mNote);
+                        } else {
+                            replaySave(save, savedNote);
+                        }
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        // Try again the next time the app starts.
+                        Log.w(TAG, "Could not replay the save of note " + save.mNoteKey,
+                                error.toException());
+                    }
+                });
+    }
+
+    /**
+     * Writes a pending save to the database in place of the provided, older value of the Note,
+     * the same way a session in the Note editor saves it (see NoteSyncSession), and then
+     * acknowledges it.
+     */
+    private void replaySave(final PendingSave save, final Note savedNote) {
+        NoteSyncSession.getCheckpointRef(save.mUid, save.mNoteKey)
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot checkpoint) {
+                        FirebaseDatabase.getInstance().getReference().updateChildren(
+                                NoteSyncSession.createSaveUpdates(
+                                        save.mUid, save.mNoteKey, save.mNote, checkpoint),
+                                new DatabaseReference.CompletionListener() {
+                                    @Override
+                                    public void onComplete(DatabaseError error,
+                                                           DatabaseReference ref) {
+                                        handleSaveReplayed(save, savedNote, error);
+                                    }
+                                });
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        // Try again the next time the app starts.
+                        Log.w(TAG, "Could not replay the save of note " + save.mNoteKey,
+                                error.toException());
+                    }
+                });
+    }
+
+    /**
+     * Handles when the database has accepted or rejected a replayed save, by acknowledging it and,
+     * if it was accepted, keeping the cached and loaded values of the Note, along with the
+     * statistics of the user's Notes (see NoteStats), up to date.
+     */
+    private void handleSaveReplayed(PendingSave save,
+                                    Note savedNote,
+                                    @Nullable DatabaseError error) {
+        acknowledge(save.mUid, save.mNoteKey, save.mNote);
+        if (error != null) {
+            // Replaying the save again would fail the same way, so drop it.
+            Log.w(TAG, "Could not replay the save of note " + save.mNoteKey,
+                    error.toException());
+
+            return;
+        }
+
+        NoteCache.getInstance(mContext).put(save.mUid, save.mNoteKey, save.mNote);
+        NoteRepository.getInstance().handleNoteSaved(save.mUid, save.mNoteKey, save.mNote);
+        NoteStats.recordChange(
+                save.mUid,
+                0,
+                NoteStats.getContentBytes(save.mNote.getContent())
+                        - NoteStats.getContentBytes(savedNote.getContent()));
+    }
+
+    /**
+     * Gets and returns the pending saves of a user's Notes.
+     *
+     * Must only be called on the disk executor.
+     */
+    private List<PendingSave> collectPendingSaves(String uid) {
+        List<PendingSave> saves = new ArrayList<>();
+        for (PendingSave save : mPendingSaves.values()) {
+            if (save.mUid.equals(uid)) {
+                saves.add(save);
+            }
+        }
+
+        return saves;
+    }
+
+    /**
+     * Schedules the next batch, if it is not already scheduled.
+     *
+     * Must only be called on the disk executor.
+     */
+    private void scheduleBatch() {
+        if (!mBatchScheduled) {
+            mBatchScheduled = true;
+            mDiskExecutor.schedule(mRunBatch, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes every save appended since the last batch to disk (or compacts the log, if a save was
+     * acknowledged since then) and flushes it, then lets the appends waiting for it know.
+     *
+     * Must only be called on the disk executor.
+     */
+    private void runBatch() {
+        mBatchScheduled = false;
+        List<TaskCompletionSource<Void>> waiters = new ArrayList<>(mBatchWaiters);
+        mBatchWaiters.clear();
+
+        try {
+            if (mCompactionNeeded) {
+                compact();
+            } else if (!mUnwrittenSaves.isEmpty()) {
+                writeSaves(mUnwrittenSaves, true);
+            }
+            mUnwrittenSaves.clear();
+            mCompactionNeeded = false;
+
+            for (TaskCompletionSource<Void> waiter : waiters) {
+                // Set that this Task was successful.
+                waiter.setResult(null);
+            }
+        } catch (IOException | JSONException e) {
+            // Rewrite the whole log next time, since it is unknown how much of it was written.
+            Log.e(TAG, "Could not write the pending saves", e);
+            mCompactionNeeded = true;
+
+            for (TaskCompletionSource<Void> waiter : waiters) {
+                // Set that this Task was unsuccessful.
+                waiter.setException(e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with only the saves that are still pending, or deletes it if there are
+     * none.
+     *
+     * Must only be called on the disk executor.
+     */
+    private void compact() throws IOException, JSONException {
+        if (mPendingSaves.isEmpty()) {
+            if (mFile.exists() && !mFile.delete()) {
+                throw new IOException("Could not delete " + mFile);
+            }
+
+            return;
+        }
+
+        // Write to a temporary file first, so the log is never left partially written.
+        File temporaryFile = new File(mFile.getPath() + TEMPORARY_FILE_SUFFIX);
+        writeSaves(temporaryFile, mPendingSaves.values(), false);
+        if (!temporaryFile.renameTo(mFile)) {
+            temporaryFile.delete();
+            throw new IOException("Could not compact " + mFile);
+        }
+    }
+
+    private void writeSaves(Collection<PendingSave> saves, boolean append)
+            throws IOException, JSONException {
+        writeSaves(mFile, saves, append);
+    }
+
+    /**
+     * Writes the provided saves to the provided file, one entry per line, and then flushes the
+     * file to disk.
+     */
+    private static void writeSaves(File file, Collection<PendingSave> saves, boolean append)
+            throws IOException, JSONException {
+        StringBuilder lines = new StringBuilder();
+        for (PendingSave save : saves) {
+            JSONObject json = new JSONObject();
+            json.put(UID_KEY, save.mUid);
+            json.put(NOTE_KEY_KEY, save.mNoteKey);
+            json.put(TITLE_KEY, save.mNote.getTitle());
+            json.put(CONTENT_KEY, save.mNote.getContent());
+            json.put(SAVED_AT_KEY, save.mSavedAtMillis);
+
+            String entry = json.toString();
+            lines.append(getChecksum(entry)).append(' ').append(entry).append('\n');
+        }
+
+        FileOutputStream output = new FileOutputStream(file, append);
+        try {
+            output.write(lines.toString().getBytes("UTF-8"));
+
+            // This is the only flush for every save in the batch.
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Loads the pending saves from the log, if that has not already been done. Entries which
+     * cannot be read (i.e. a line torn by the process being killed while writing it) are
+     * discarded, and the log is compacted by the next batch so nothing is appended after them.
+     *
+     * Must only be called on the disk executor.
+     */
+    private void loadIfNecessary() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        // Discard any compaction that was interrupted; the log it was replacing is still intact.
+        new File(mFile.getPath() + TEMPORARY_FILE_SUFFIX).delete();
+        if (!mFile.exists()) {
+            return;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    PendingSave save = readSave(line);
+                    if (save == null) {
+                        Log.w(TAG, "Discarding an unreadable pending save");
+                        mCompactionNeeded = true;
+                        continue;
+                    }
+
+                    String key = getKey(save);
+                    mPendingSaves.remove(key);
+                    mPendingSaves.put(key, save);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the pending saves", e);
+            mCompactionNeeded = true;
+        }
+
+        if (mCompactionNeeded) {
+            scheduleBatch();
+        }
+    }
+
+    /**
+     * Reads and returns the save of the provided entry, or null if the entry is corrupt.
+     */
+    @Nullable
+    private static PendingSave readSave(String line) {
+        int separator = line.indexOf(' ');
+        if (separator < 0) {
+            return null;
+        }
+
+        String entry = line.substring(separator + 1);
+        if (!line.substring(0, separator).equals(getChecksum(entry))) {
+            return null;
+        }
+
+        try {
+            JSONObject json = new JSONObject(entry);
+            return new PendingSave(
+                    json.getString(UID_KEY),
+                    json.getString(NOTE_KEY_KEY),
+                    new Note(json.optString(TITLE_KEY, null), json.optString(CONTENT_KEY, null)),
+                    json.optLong(SAVED_AT_KEY, 0));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static String getChecksum(String entry) {
+        CRC32 checksum = new CRC32();
+        try {
+            checksum.update(entry.getBytes("UTF-8"));
+        } catch (IOException e) {
+            // This should never happen, since every JVM supports UTF-8, but just in case.
+            throw new AssertionError(e);
+        }
+
+        return Long.toHexString(checksum.getValue());
+    }
+
+    private static String getKey(PendingSave save) {
+        return getKey(save.mUid, save.mNoteKey);
+    }
+
+    private static String getKey(String uid, String noteKey) {
+        return uid + "/" + noteKey;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.sample.continote;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Activity;
+import android.app.Application;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that binding Note list items (see NoteListItemViewHolder) stays within the budgets of
+ * BindBudget, failing as soon as a change makes it exceed them.
+ *
+ * The Android runtime's allocation counters are not available to local unit tests, so this counts
+ * allocations with the JVM's instead.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25, application = Application.class)
+public class BindBudgetTest {
+
+    // The number of synthetic Notes to bind, as many as MyNotesActivity binds when checking.
+    private static final int NOTE_COUNT = 200;
+
+    /**
+     * Counts allocations with the per-thread allocation counters of the JVM.
+     *
+     * Reading the counter allocates on some JVMs, so the allocations of a read alone are measured
+     * when counting starts, and subtracted from every count.
+     */
+    private static final class JvmAllocationCounter implements BindBudget.AllocationCounter {
+
+        private final com.sun.management.ThreadMXBean mThreadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        private long mResetBytes = 0;
+        private long mReadOverheadBytes = 0;
+
+        @Override
+        public void start() {
+            mThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+            mReadOverheadBytes = Long.MAX_VALUE;
+            for (int i = 0; i < 10; i++) {
+                reset();
+                mReadOverheadBytes =
+                        Math.min(mReadOverheadBytes, readAllocatedBytes() - mResetBytes);
+            }
+        }
+
+        @Override
+        public void reset() {
+            mResetBytes = readAllocatedBytes();
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            return Math.max(0, readAllocatedBytes() - mResetBytes - mReadOverheadBytes);
+        }
+
+        @Override
+        public void stop() {}
+
+        private long readAllocatedBytes() {
+            return mThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        BindBudget bindBudget = BindBudget.getInstance();
+        bindBudget.setAllocationCounter(BindBudget.RUNTIME_ALLOCATION_COUNTER);
+        bindBudget.setFailOverBudget(false);
+    }
+
+    @Test
+    public void bindingNoteListItemsStaysWithinBudget() {
+        // Only debug builds check the budget.
+        assumeTrue(BuildConfig.DEBUG);
+
+        Activity activity = Robolectric.setupActivity(Activity.class);
+        activity.setTheme(R.style.AppTheme);
+
+        BindBudget bindBudget = BindBudget.getInstance();
+        bindBudget.setAllocationCounter(new JvmAllocationCounter());
+        bindBudget.setFailOverBudget(true);
+
+        BindBudget.Report report = bindBudget.check(activity, R.layout.note_list_item, NOTE_COUNT);
+        assertNotNull(report);
+        assertTrue(report.toString(), report.isWithinBudget());
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.sample.continote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Application;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks that ListenerTracker reports the listeners an owner still has when it is released, and
+ * fails on them once setFailOnLeak(true) is called, as tests of the screens which use it rely on.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25, application = Application.class)
+public class ListenerTrackerTest {
+
+    private static final String PATH = "/notes/uid";
+
+    private ListenerTracker mTracker;
+
+    @Before
+    public void setUp() {
+        // Listeners are only tracked in debug builds.
+        assumeTrue(BuildConfig.DEBUG);
+        mTracker = ListenerTracker.getInstance();
+        mTracker.setFailOnLeak(true);
+    }
+
+    @After
+    public void tearDown() {
+        if (mTracker != null) {
+            mTracker.setFailOnLeak(false);
+        }
+    }
+
+    @Test
+    public void ownerWhichRemovedItsListenersIsNotALeak() {
+        Object owner = new Object();
+        Object listener = new Object();
+        int leakCount = mTracker.getLeakCount();
+        int liveCount = mTracker.getLiveCount();
+
+        mTracker.track(owner, PATH, listener);
+        assertEquals(liveCount + 1, mTracker.getLiveCount());
+        mTracker.untrack(owner, PATH, listener);
+        mTracker.handleOwnerReleased(owner);
+
+        assertEquals(liveCount, mTracker.getLiveCount());
+        assertEquals(leakCount, mTracker.getLeakCount());
+    }
+
+    @Test
+    public void ownerReleasedWithAListenerFails() {
+        Object owner = new Object();
+        int leakCount = mTracker.getLeakCount();
+
+        mTracker.track(owner, PATH, new Object());
+        try {
+            mTracker.handleOwnerReleased(owner);
+            fail("The leaked listener must be reported");
+        } catch (IllegalStateException e) {
+            // This is expected.
+        }
+        assertEquals(leakCount + 1, mTracker.getLeakCount());
+
+        // Each leak is only reported once.
+        mTracker.handleOwnerReleased(owner);
+        assertEquals(leakCount + 1, mTracker.getLeakCount());
+    }
+
+    @Test
+    public void listenerRemovedFromAnotherPathStillLeaks() {
+        Object owner = new Object();
+        Object listener = new Object();
+        int leakCount = mTracker.getLeakCount();
+
+        mTracker.track(owner, PATH, listener);
+        mTracker.untrack(owner, PATH + "/other", listener);
+        try {
+            mTracker.handleOwnerReleased(owner);
+            fail("The leaked listener must be reported");
+        } catch (IllegalStateException e) {
+            // This is expected.
+        }
+        assertEquals(leakCount + 1, mTracker.getLeakCount());
+    }
+
+    @Test
+    public void leakIsOnlyCountedWhenNotFailingOnLeaks() {
+        Object owner = new Object();
+        int leakCount = mTracker.getLeakCount();
+        mTracker.setFailOnLeak(false);
+
+        mTracker.track(owner, PATH, new Object());
+        mTracker.handleOwnerReleased(owner);
+
+        assertEquals(leakCount + 1, mTracker.getLeakCount());
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.Application;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DataSnapshots;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures how long converting a page of Notes takes, and how much it allocates per Note, with
+ * NoteCodec compared to the reflective mapping of getValue(Note.class), and checks that both give
+ * the same Notes.
+ *
+ * Each round converts the same page of real DataSnapshots (see DataSnapshots) once with each
+ * mapping, in turn, and the first rounds (while the JIT warms up) are not recorded. The results
+ * are printed rather than checked against a budget, since they depend on the machine; a device is
+ * several times slower than a development machine, so compare runs with each other.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25, application = Application.class)
+public class NoteCodecBenchmarkTest {
+
+    // The number of Notes in the page, as many as NoteTransfer and NoteStats read at once.
+    private static final int NOTE_COUNT = 100;
+
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 200;
+
+    // The number of characters in the content of each Note.
+    private static final int CONTENT_LENGTH = 500;
+
+    /**
+     * A way of converting a page of Notes, as the app would.
+     */
+    private interface Mapping {
+
+        List<Note> convert(DataSnapshot page, List<Map<String, Object>> noteValues);
+    }
+
+    private static final Mapping CODEC_FROM_SNAPSHOT = new Mapping() {
+        @Override
+        public List<Note> convert(DataSnapshot page, List<Map<String, Object>> noteValues) {
+            List<Note> notes = new ArrayList<>(NOTE_COUNT);
+            for (DataSnapshot noteSnapshot : page.getChildren()) {
+                notes.add(NoteCodec.fromSnapshot(noteSnapshot));
+            }
+
+            return notes;
+        }
+
+        @Override
+        public String toString() {
+            return "NoteCodec.fromSnapshot()";
+        }
+    };
+
+    private static final Mapping CODEC_FROM_MAP = new Mapping() {
+        @Override
+        public List<Note> convert(DataSnapshot page, List<Map<String, Object>> noteValues) {
+            List<Note> notes = new ArrayList<>(NOTE_COUNT);
+            for (Map<String, Object> noteValue : noteValues) {
+                notes.add(NoteCodec.fromMap(noteValue));
+            }
+
+            return notes;
+        }
+
+        @Override
+        public String toString() {
+            return "NoteCodec.fromMap()";
+        }
+    };
+
+    private static final Mapping REFLECTION = new Mapping() {
+        @Override
+        public List<Note> convert(DataSnapshot page, List<Map<String, Object>> noteValues) {
+            List<Note> notes = new ArrayList<>(NOTE_COUNT);
+            for (DataSnapshot noteSnapshot : page.getChildren()) {
+                notes.add(noteSnapshot.getValue(Note.class));
+            }
+
+            return notes;
+        }
+
+        @Override
+        public String toString() {
+            return "getValue(Note.class)";
+        }
+    };
+
+    private final com.sun.management.ThreadMXBean mThreadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void codecMatchesAndIsMeasuredAgainstReflection() {
+        DataSnapshot page = DataSnapshots.write("notes/benchmark", createNotes());
+        // Within the value of a parent (where fromMap() is used), each Note is already a Map.
+        List<Map<String, Object>> noteValues = new ArrayList<>(NOTE_COUNT);
+        for (DataSnapshot noteSnapshot : page.getChildren()) {
+            noteValues.add((Map<String, Object>) noteSnapshot.getValue());
+        }
+
+        List<Note> expected = REFLECTION.convert(page, noteValues);
+        assertSameNotes(expected, CODEC_FROM_SNAPSHOT.convert(page, noteValues));
+        assertSameNotes(expected, CODEC_FROM_MAP.convert(page, noteValues));
+
+        List<Mapping> mappings = Arrays.asList(CODEC_FROM_SNAPSHOT, CODEC_FROM_MAP, REFLECTION);
+        long[][] nanosPerNote = new long[mappings.size()][ROUNDS];
+        long[] allocatedBytes = new long[mappings.size()];
+        mThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            for (int i = 0; i < mappings.size(); i++) {
+                long startBytes = readAllocatedBytes();
+                long startNanos = System.nanoTime();
+                mappings.get(i).convert(page, noteValues);
+                long elapsedNanos = System.nanoTime() - startNanos;
+                long elapsedBytes = readAllocatedBytes() - startBytes;
+
+                if (round >= 0) {
+                    nanosPerNote[i][round] = elapsedNanos / NOTE_COUNT;
+                    allocatedBytes[i] += elapsedBytes;
+                }
+            }
+        }
+
+        long reflectionP50 = getPercentile(nanosPerNote[mappings.size() - 1], 50);
+        for (int i = 0; i < mappings.size(); i++) {
+            long p50 = getPercentile(nanosPerNote[i], 50);
+            System.out.println(String.format(
+                    Locale.US,
+                    "%-26s p50=%6d ns/note p95=%6d ns/note alloc=%6d B/note speedup=%.2fx",
+                    mappings.get(i), p50, getPercentile(nanosPerNote[i], 95),
+                    allocatedBytes[i] / ((long) ROUNDS * NOTE_COUNT),
+                    (double) reflectionP50 / Math.max(1, p50)));
+        }
+    }
+
+    private long readAllocatedBytes() {
+        return mThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getPercentile(long[] values, int percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static void assertSameNotes(List<Note> expected, List<Note> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+            assertEquals(expected.get(i).getContent(), actual.get(i).getContent());
+            assertEquals(expected.get(i).getUpdatedAt(), actual.get(i).getUpdatedAt());
+        }
+    }
+
+    private static Map<String, Object> createNotes() {
+        Random random = new Random(1);
+        Map<String, Object> notes = new HashMap<>();
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            StringBuilder content = new StringBuilder(CONTENT_LENGTH);
+            while (content.length() < CONTENT_LENGTH) {
+                content.append((char) ('a' + random.nextInt(26)));
+            }
+
+            Map<String, Object> note = new HashMap<>();
+            note.put(NoteCodec.TITLE_KEY, "Note " + i);
+            note.put(NoteCodec.CONTENT_KEY, content.toString());
+            note.put(NoteCodec.UPDATED_AT_KEY, 1500000000000L + i);
+            notes.put(String.format(Locale.US, "note%03d", i), note);
+        }
+
+        return notes;
+    }
+}
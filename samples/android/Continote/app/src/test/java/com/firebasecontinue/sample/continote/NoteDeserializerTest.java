@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.Activity;
+import android.app.Application;
+import android.view.View;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DataSnapshots;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Checks that the screens' ways of reading Notes (NoteListAdapter and NoteRepository) never
+ * deserialize them on the main thread, as counted by NoteDeserializer.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25, application = Application.class)
+public class NoteDeserializerTest {
+
+    private static final String UID = "uid";
+
+    // The number of Notes in the list.
+    private static final int NOTE_COUNT = 20;
+
+    @Test
+    public void noteListAdapterDeserializesOffTheMainThread() {
+        int mainThreadCount = NoteDeserializer.getMainThreadDeserializationCount();
+        String path = "notes/" + UID;
+
+        Activity activity = Robolectric.setupActivity(Activity.class);
+        NoteListAdapter adapter = new NoteListAdapter(
+                activity, 0, DataSnapshots.getDatabase().getReference(path), false) {
+            @Override
+            protected void populateView(View view, Note note, int position) {}
+        };
+        try {
+            DataSnapshots.write(path, createNotes());
+            awaitDeserializer();
+
+            assertEquals(NOTE_COUNT, adapter.getCount());
+            assertEquals("Note 0", adapter.getItem(0).getTitle());
+        } finally {
+            adapter.cleanup();
+        }
+
+        assertEquals(mainThreadCount, NoteDeserializer.getMainThreadDeserializationCount());
+    }
+
+    @Test
+    public void noteRepositoryDeserializesOffTheMainThread() {
+        int mainThreadCount = NoteDeserializer.getMainThreadDeserializationCount();
+        DataSnapshots.write("notes/" + UID, createNotes());
+
+        Note note = DataSnapshots.await(NoteRepository.getInstance().load(UID, "note1"));
+
+        assertEquals("Note 1", note.getTitle());
+        assertEquals(mainThreadCount, NoteDeserializer.getMainThreadDeserializationCount());
+    }
+
+    @Test
+    public void deserializingOnTheMainThreadIsCounted() {
+        int mainThreadCount = NoteDeserializer.getMainThreadDeserializationCount();
+        DataSnapshot snapshot =
+                DataSnapshots.write("notes/" + UID + "/note0", createNote("Note 0"));
+
+        NoteDeserializer.deserialize(snapshot);
+
+        assertEquals(mainThreadCount + 1, NoteDeserializer.getMainThreadDeserializationCount());
+    }
+
+    /**
+     * Waits for every Note handed to NoteDeserializer so far to be deserialized, and for the
+     * results to be handled on the main thread.
+     */
+    private static void awaitDeserializer() {
+        DataSnapshots.await(Tasks.call(NoteDeserializer.getExecutor(), new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        }));
+    }
+
+    private static Map<String, Object> createNotes() {
+        Map<String, Object> notes = new HashMap<>();
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            notes.put("note" + i, createNote("Note " + i));
+        }
+
+        return notes;
+    }
+
+    private static Map<String, Object> createNote(String title) {
+        Map<String, Object> note = new HashMap<>();
+        note.put(NoteCodec.TITLE_KEY, title);
+        note.put(NoteCodec.CONTENT_KEY, "The content of " + title);
+        note.put(NoteCodec.UPDATED_AT_KEY, 1500000000000L);
+
+        return note;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that concurrent NoteOperations converge once transformed against each other: applying
+ * either one first, and then the other transformed against it, gives the same value.
+ */
+public class NoteOperationTest {
+
+    private static final String VALUE = "abcdef";
+
+    @Test
+    public void insertsAtTheSamePositionConverge() {
+        assertConverges(insert("a", 2, "X"), insert("b", 2, "Y"), "abXYcdef");
+        assertConverges(insert("b", 2, "X"), insert("a", 2, "Y"), "abYXcdef");
+    }
+
+    @Test
+    public void insertsAtDifferentPositionsConverge() {
+        assertConverges(insert("a", 1, "X"), insert("b", 4, "Y"), "aXbcdYef");
+    }
+
+    @Test
+    public void insertAndDeleteAtTheSamePositionConverge() {
+        assertConverges(insert("b", 2, "X"), delete("a", 2, 2), "abXef");
+    }
+
+    @Test
+    public void insertWithinDeletedRangeConverges() {
+        // The inserted text is deleted along with the range around it.
+        assertConverges(insert("a", 3, "X"), delete("b", 2, 2), "abef");
+    }
+
+    @Test
+    public void insertAtEndOfDeletedRangeConverges() {
+        assertConverges(insert("a", 4, "X"), delete("b", 2, 2), "abXef");
+    }
+
+    @Test
+    public void deletesOfTheSameRangeConverge() {
+        assertConverges(delete("a", 1, 3), delete("b", 1, 3), "aef");
+    }
+
+    @Test
+    public void overlappingDeletesConverge() {
+        assertConverges(delete("a", 1, 3), delete("b", 2, 3), "af");
+        assertConverges(delete("a", 1, 4), delete("b", 2, 1), "af");
+        assertConverges(delete("a", 2, 2), delete("b", 2, 3), "abf");
+    }
+
+    @Test
+    public void replacementsAtTheSamePositionConverge() {
+        assertConverges(replace("a", 2, 2, "X"), replace("b", 2, 2, "Y"), "abXYef");
+        assertConverges(replace("a", 2, 3, "X"), replace("b", 2, 1, "Y"), "abYXf");
+    }
+
+    @Test
+    public void overlappingReplacementsConverge() {
+        assertConverges(replace("a", 1, 3, "X"), replace("b", 2, 3, "Y"), "aXf");
+    }
+
+    @Test
+    public void operationsOnDifferentFieldsAreUnaffected() {
+        NoteOperation title = new NoteOperation("a", NoteOperation.FIELD_TITLE, 0, 2, "X");
+        NoteOperation content = new NoteOperation("b", NoteOperation.FIELD_CONTENT, 0, 2, "Y");
+
+        NoteOperation transformed = title.transformAgainst(content);
+        assertEquals(0, transformed.getPosition());
+        assertEquals(2, transformed.getDeleteCount());
+        assertEquals("X", transformed.getText());
+    }
+
+    @Test
+    public void allSmallOperationsConverge() {
+        String[] texts = {"", "X", "XY"};
+        for (int firstPosition = 0; firstPosition <= VALUE.length(); firstPosition++) {
+            for (int firstDeleteCount = 0;
+                 firstPosition + firstDeleteCount <= VALUE.length();
+                 firstDeleteCount++) {
+                for (int secondPosition = 0; secondPosition <= VALUE.length(); secondPosition++) {
+                    for (int secondDeleteCount = 0;
+                         secondPosition + secondDeleteCount <= VALUE.length();
+                         secondDeleteCount++) {
+                        for (String firstText : texts) {
+                            for (String secondText : texts) {
+                                assertConverges(
+                                        replace("a", firstPosition, firstDeleteCount, firstText),
+                                        replace("b", secondPosition, secondDeleteCount,
+                                                secondText.toLowerCase()));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertConverges(NoteOperation first,
+                                        NoteOperation second,
+                                        String expected) {
+        assertEquals(expected, assertConverges(first, second));
+    }
+
+    /**
+     * Asserts that the provided Operations converge in either order, then returns the value they
+     * converge to.
+     */
+    private static String assertConverges(NoteOperation first, NoteOperation second) {
+        String firstThenSecond = second.transformAgainst(first).applyTo(first.applyTo(VALUE));
+        String secondThenFirst = first.transformAgainst(second).applyTo(second.applyTo(VALUE));
+        assertEquals(describe(first) + " and " + describe(second) + " diverged",
+                firstThenSecond,
+                secondThenFirst);
+
+        return firstThenSecond;
+    }
+
+    private static String describe(NoteOperation operation) {
+        return operation.getAuthor() + "(" + operation.getPosition() + ", "
+                + operation.getDeleteCount() + ", \"" + operation.getText() + "\")";
+    }
+
+    private static NoteOperation insert(String author, int position, String text) {
+        return replace(author, position, 0, text);
+    }
+
+    private static NoteOperation delete(String author, int position, int deleteCount) {
+        return replace(author, position, deleteCount, "");
+    }
+
+    private static NoteOperation replace(String author,
+                                         int position,
+                                         int deleteCount,
+                                         String text) {
+        return new NoteOperation(author, NoteOperation.FIELD_CONTENT, position, deleteCount, text);
+    }
+}
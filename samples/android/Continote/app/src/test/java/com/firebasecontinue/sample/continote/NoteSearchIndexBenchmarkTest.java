@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.firebasecontinue.sample.continote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long NoteSearchIndex takes to build over many Notes, to re-index a Note once it
+ * changes, and to search, and checks that searching finds the Notes it should.
+ *
+ * The Notes are generated from a vocabulary of made-up words, which are used with a Zipf
+ * distribution (as words are in real text), so a few words occur in most Notes while most words
+ * occur in only a few. Each query is made of one to three prefixes of words chosen the same way,
+ * as the user would type them.
+ *
+ * Latencies are only recorded once the JIT has had a chance to warm up, by running the same number
+ * of unrecorded updates and queries beforehand. The results are printed rather than checked
+ * against a budget, since they depend on the machine; a device is several times slower than a
+ * development machine, so compare runs with each other (such as before and after a change to the
+ * index).
+ */
+public class NoteSearchIndexBenchmarkTest {
+
+    private static final int NOTE_COUNT = 10000;
+    private static final int TITLE_WORDS = 4;
+    private static final int CONTENT_WORDS = 200;
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final int UPDATE_COUNT = 1000;
+    private static final int QUERY_COUNT = 1000;
+
+    // As many results as MyNotesActivity shows.
+    private static final int MAX_RESULTS = 50;
+
+    private final Random mRandom = new Random(1);
+
+    private final String[] mVocabulary = new String[VOCABULARY_SIZE];
+
+    // The cumulative probability of each word of the vocabulary being used, for a Zipf
+    // distribution with an exponent of 1.
+    private final double[] mCumulativeProbabilities = new double[VOCABULARY_SIZE];
+
+    @Test
+    public void buildingUpdatingAndSearchingIsMeasured() {
+        createVocabulary();
+        Note[] notes = new Note[NOTE_COUNT];
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            notes[i] = new Note(createText(TITLE_WORDS), createText(CONTENT_WORDS));
+        }
+
+        NoteSearchIndex index = new NoteSearchIndex();
+        long buildStartNanos = System.nanoTime();
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            index.addOrUpdateNote(getNoteKey(i), notes[i]);
+        }
+        long buildNanos = System.nanoTime() - buildStartNanos;
+        assertEquals(NOTE_COUNT, index.getNoteCount());
+
+        long[] updateNanos = new long[UPDATE_COUNT];
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < UPDATE_COUNT; i++) {
+                int note = mRandom.nextInt(NOTE_COUNT);
+                notes[note] = new Note(createText(TITLE_WORDS), createText(CONTENT_WORDS));
+
+                long startNanos = System.nanoTime();
+                index.addOrUpdateNote(getNoteKey(note), notes[note]);
+                updateNanos[i] = System.nanoTime() - startNanos;
+            }
+        }
+        assertEquals(NOTE_COUNT, index.getNoteCount());
+
+        long[] queryNanos = new long[QUERY_COUNT];
+        long resultCount = 0;
+        for (int round = 0; round < 2; round++) {
+            resultCount = 0;
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                String query = createQuery();
+
+                long startNanos = System.nanoTime();
+                resultCount += index.search(query, MAX_RESULTS).size();
+                queryNanos[i] = System.nanoTime() - startNanos;
+            }
+        }
+
+        // Each Note is found by the exact words of its title, although it may be outranked by
+        // enough other Notes containing them more often.
+        int note = mRandom.nextInt(NOTE_COUNT);
+        List<NoteSearchIndex.Result> results =
+                index.search(notes[note].getTitle(), Integer.MAX_VALUE);
+        boolean found = false;
+        for (NoteSearchIndex.Result result : results) {
+            found |= result.getNoteDatabaseKey().equals(getNoteKey(note));
+        }
+        assertTrue("Searching for the title of " + getNoteKey(note) + " must find it", found);
+
+        System.out.println(String.format(
+                Locale.US, "build: %.1fms (%.1fus per note) over %d notes",
+                buildNanos / 1e6, buildNanos / 1e3 / NOTE_COUNT, NOTE_COUNT));
+        System.out.println("update: " + getSummary(updateNanos));
+        System.out.println("query: " + getSummary(queryNanos) + String.format(
+                Locale.US, " results=%.1f per query", resultCount / (double) QUERY_COUNT));
+    }
+
+    private static String getNoteKey(int note) {
+        return "note" + note;
+    }
+
+    /**
+     * Summarizes the provided latencies as their p50/p95/p99 and maximum, in microseconds.
+     */
+    private static String getSummary(long[] latenciesNanos) {
+        long[] sorted = latenciesNanos.clone();
+        Arrays.sort(sorted);
+
+        return String.format(Locale.US, "n=%d p50=%dus p95=%dus p99=%dus max=%dus",
+                sorted.length, getPercentileMicros(sorted, 50), getPercentileMicros(sorted, 95),
+                getPercentileMicros(sorted, 99), getPercentileMicros(sorted, 100));
+    }
+
+    private static long getPercentileMicros(long[] sortedNanos, int percentile) {
+        int index = Math.min(sortedNanos.length - 1, sortedNanos.length * percentile / 100);
+
+        return TimeUnit.NANOSECONDS.toMicros(sortedNanos[index]);
+    }
+
+    private void createVocabulary() {
+        double total = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            mVocabulary[i] = createWord();
+            total += 1.0 / (i + 1);
+            mCumulativeProbabilities[i] = total;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            mCumulativeProbabilities[i] /= total;
+        }
+    }
+
+    /**
+     * Creates a made-up word of 3 to 10 lowercase letters.
+     */
+    private String createWord() {
+        char[] letters = new char[3 + mRandom.nextInt(8)];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (char) ('a' + mRandom.nextInt(26));
+        }
+
+        return new String(letters);
+    }
+
+    /**
+     * Chooses a word of the vocabulary, following a Zipf distribution.
+     */
+    private String chooseWord() {
+        int index = Arrays.binarySearch(mCumulativeProbabilities, mRandom.nextDouble());
+
+        return mVocabulary[Math.min((index >= 0) ? index : -index - 1, mVocabulary.length - 1)];
+    }
+
+    /**
+     * Creates text of between half and one and a half times the provided number of words, with
+     * some capitalized and followed by punctuation, as in a Note.
+     */
+    private String createText(int averageWordCount) {
+        int wordCount = averageWordCount / 2 + mRandom.nextInt(averageWordCount + 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            String word = chooseWord();
+            if (mRandom.nextInt(10) == 0) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            text.append(word).append((mRandom.nextInt(12) == 0) ? ". " : " ");
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Creates a query of one to three words, of which the last may only be partially typed.
+     */
+    private String createQuery() {
+        int wordCount = 1 + mRandom.nextInt(3);
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            String word = chooseWord();
+            if (i == wordCount - 1) {
+                word = word.substring(0, 2 + mRandom.nextInt(word.length() - 1));
+            }
+            query.append(word).append(' ');
+        }
+
+        return query.toString();
+    }
+}
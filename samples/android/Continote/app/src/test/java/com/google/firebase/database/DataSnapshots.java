@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Builds real DataSnapshots for local unit tests.
+ *
+ * The constructors of DataSnapshot take internal (and obfuscated) types of the Firebase Realtime
+ * Database, so instead this writes each value to a database which never goes online, and reads it
+ * back. The database raises events for its local writes straight away, just as it does for a
+ * user who is offline, so nothing here needs a network connection.
+ *
+ * The database calls its listeners on the main thread, which Robolectric runs on the thread of
+ * the test, so tests must wait for anything the database provides with await().
+ */
+public final class DataSnapshots {
+
+    // The URL of the database, which is never connected to.
+    private static final String DATABASE_URL = "https://continote-test.firebaseio.com";
+
+    // How long, in milliseconds, to wait for a Task before failing the test.
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    // How long, in milliseconds, to let background threads run between running main thread tasks.
+    private static final long POLL_INTERVAL_MILLIS = 5;
+
+    /**
+     * Gets and returns the offline database that DataSnapshots are built from, initializing the
+     * default FirebaseApp if necessary.
+     *
+     * @return The offline database.
+     */
+    public static synchronized FirebaseDatabase getDatabase() {
+        if (FirebaseApp.getApps(RuntimeEnvironment.application).isEmpty()) {
+            FirebaseApp.initializeApp(RuntimeEnvironment.application,
+                                      new FirebaseOptions.Builder()
+                                              .setApplicationId("1:0:android:0")
+                                              .setDatabaseUrl(DATABASE_URL)
+                                              .build());
+        }
+
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        database.goOffline();
+
+        return database;
+    }
+
+    /**
+     * Writes the provided value to the provided path of the offline database, and returns the
+     * resulting DataSnapshot.
+     *
+     * @param path The path to write the value to, which becomes the key of the DataSnapshot.
+     * @param value The value to write, such as a Map of the values of a Note.
+     * @return The DataSnapshot of the value.
+     */
+    public static DataSnapshot write(String path, Object value) {
+        DatabaseReference reference = getDatabase().getReference(path);
+        reference.setValue(value);
+
+        final TaskCompletionSource<DataSnapshot> readCompletion = new TaskCompletionSource<>();
+        reference.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                readCompletion.setResult(snapshot);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                readCompletion.setException(error.toException());
+            }
+        });
+
+        return await(readCompletion.getTask());
+    }
+
+    /**
+     * Runs the tasks posted to the main thread until the provided Task completes, and then the
+     * listeners of the Task, failing the test if the Task fails or takes too long.
+     *
+     * Since the database calls its listeners in the order of its events, awaiting a read also
+     * awaits every event the database raised before it.
+     *
+     * @param task The Task to wait for.
+     * @return The result of the Task.
+     */
+    public static <T> T await(Task<T> task) {
+        long deadlineMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!task.isComplete()) {
+            if (System.currentTimeMillis() > deadlineMillis) {
+                throw new AssertionError("Timed out waiting for " + task);
+            }
+
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        if (!task.isSuccessful()) {
+            throw new AssertionError(task.getException());
+        }
+
+        return task.getResult();
+    }
+
+    /**
+     * This class only exposes static methods, so no instances are necessary.
+     */
+    private DataSnapshots() {
+        throw new UnsupportedOperationException("DataSnapshots cannot be instantiated");
+    }
+}
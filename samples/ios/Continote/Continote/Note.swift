@@ -33,6 +33,8 @@ struct Note {
 
   // The Firebase Realtime Database representation of this Note.
   // This could be used to add or set a Note value in the database.
+  // When the Note was last updated is always set to the time it is saved on the database servers,
+  // so that other clients can list the most recently updated Notes first.
   let firebaseData: [String : AnyObject]
 
   /**
@@ -46,7 +48,8 @@ struct Note {
     self.content = content
     firebaseData = [
       "title": self.title as AnyObject,
-      "content": self.content as AnyObject
+      "content": self.content as AnyObject,
+      "updatedAt": ServerValue.timestamp() as AnyObject
     ]
   }
 
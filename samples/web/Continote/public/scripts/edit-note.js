@@ -141,7 +141,8 @@
     // Create a Note from the user's input.
     var noteFromUserInput = {
       title: pageUi_.noteTitleInput.value,
-      content: pageUi_.noteContentInput.value
+      content: pageUi_.noteContentInput.value,
+      updatedAt: firebase.database.ServerValue.TIMESTAMP
     };
 
     // Set the value for the Note in the Firebase Realtime Database to use
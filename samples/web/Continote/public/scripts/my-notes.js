@@ -203,7 +203,8 @@
     // current user.
     var newNote = {
       title: "",
-      content: ""
+      content: "",
+      updatedAt: firebase.database.ServerValue.TIMESTAMP
     };
     addNoteToDatabase_(newNote).then(function(noteKey) {
       // Now that the Note has been added to the database, open to edit it
@@ -436,4 +437,7 @@
  * @typedef {Object} Note
  * @property {!string} title - The title of the Note.
  * @property {!string} content - The main content of the Note.
+ * @property {(number|Object)=} updatedAt - When the Note was last saved, in
+ * milliseconds since the epoch. This is always written as
+ * firebase.database.ServerValue.TIMESTAMP.
  */
@@ -0,0 +1,36 @@
+#!/bin/sh
+#
+# Copyright (c) 2017 Google Inc. All Rights Reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License"); you may not
+# use this file except in compliance with the License. You may obtain a copy of
+# the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+# WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+# License for the specific language governing permissions and limitations under
+# the License.
+
+# Compiles the harnesses, then runs the one named by the first argument with the
+# remaining arguments. For example:
+#
+#   ./run.sh LatencyHarness --drop-rate 0.05
+
+set -e
+
+if [ $# -lt 1 ]; then
+  echo "Usage: $0 <harness class> [--name value ...]" >&2
+  exit 2
+fi
+
+cd "$(dirname "$0")"
+rm -rf build
+mkdir -p build
+javac --release 8 -Xlint:all -d build $(find src -name '*.java')
+
+harness="$1"
+shift
+exec java -cp build "com.firebasecontinue.harness.$harness" "$@"
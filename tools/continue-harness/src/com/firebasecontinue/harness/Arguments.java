@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The command line arguments of a harness, given as "--name value" pairs.
+ *
+ * Each argument must be read (with its default) exactly once, after which checkAllRead() rejects
+ * any argument that was not, so that typos are not silently ignored.
+ *
+ * Invalid arguments (and --help) are reported with the usage of the harness via exitWithUsage(),
+ * rather than with a stack trace.
+ */
+final class Arguments {
+
+    private static final String HELP_ARGUMENT = "--help";
+
+    private final String mUsage;
+    private final Map<String, String> mValues = new HashMap<>();
+    private final Set<String> mRead = new HashSet<>();
+
+    /**
+     * Constructs new Arguments from the provided command line, or exits with the provided usage if
+     * the command line is not made of "--name value" pairs, or asks for help.
+     *
+     * @param args The command line arguments.
+     * @param usage The usage of the harness, such as "Harness [--name value]".
+     */
+    Arguments(String[] args, String usage) {
+        mUsage = usage;
+        if (Arrays.asList(args).contains(HELP_ARGUMENT)) {
+            throw exitWithUsage(null);
+        }
+        if (args.length % 2 != 0) {
+            throw exitWithUsage("Arguments must be given as --name value pairs");
+        }
+
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw exitWithUsage("Unexpected argument: " + args[i]);
+            }
+            mValues.put(args[i].substring(2), args[i + 1]);
+        }
+    }
+
+    String getString(String name, String defaultValue) {
+        mRead.add(name);
+        String value = mValues.get(name);
+
+        return (value != null) ? value : defaultValue;
+    }
+
+    long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        try {
+            return (value != null) ? Long.parseLong(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw exitWithUsage("--" + name + " must be an integer");
+        }
+    }
+
+    double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        try {
+            return (value != null) ? Double.parseDouble(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw exitWithUsage("--" + name + " must be a number");
+        }
+    }
+
+    void checkAllRead() {
+        for (String name : mValues.keySet()) {
+            if (!mRead.contains(name)) {
+                throw exitWithUsage("Unknown argument: --" + name);
+            }
+        }
+    }
+
+    /**
+     * Prints the provided problem with the arguments (if any), followed by the usage of the
+     * harness, to stderr, then exits with status 2.
+     *
+     * @param problem What is wrong with the arguments, or null if the usage was asked for.
+     * @return Never returns. This is declared so callers can throw the result, which lets the
+     *         compiler see that nothing after the call runs.
+     */
+    IllegalArgumentException exitWithUsage(String problem) {
+        if (problem != null) {
+            System.err.println(problem);
+        }
+        System.err.println("Usage: " + mUsage);
+        System.exit(2);
+
+        // This should never happen, but just in case.
+        throw new AssertionError("System.exit() must not return");
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+/**
+ * The source of the current time for the stand-in Firebase Realtime Database, which resolves
+ * ServerValue.TIMESTAMP (i.e. each Activity's addedAt) with it.
+ */
+public interface Clock {
+
+    /**
+     * The Clock of the JVM, for measurements in real time.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Gets and returns the current time.
+     *
+     * @return The current time, in milliseconds since the epoch.
+     */
+    long now();
+}
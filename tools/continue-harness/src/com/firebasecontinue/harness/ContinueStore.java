@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An in-process stand-in for the firebaseContinue subtree of a Firebase Realtime Database.
+ *
+ * It holds at most one Activity per user per application, and enforces the same rules as
+ * sample-firebase-continue-database.rules.json: a user may only write their own Activity, only
+ * within one of the listed applications, each Activity must have a URL, its addedAt is resolved
+ * from this store's Clock (as ServerValue.TIMESTAMP is by the database), which the rules require
+ * of an Activity replacing an existing one.
+ *
+ * Listeners are notified of each change to an Activity, synchronously on the thread that made the
+ * write, in the order the writes to that Activity were applied. Everything here is thread-safe,
+ * and writes to different users' Activities rarely contend with each other.
+ */
+public final class ContinueStore {
+
+    /**
+     * A Firebase Continue Activity, as held by the store.
+     */
+    public static final class Activity {
+
+        private final String mUrl;
+        private final long mAddedAt;
+
+        Activity(String url, long addedAt) {
+            mUrl = url;
+            mAddedAt = addedAt;
+        }
+
+        /**
+         * Gets and returns the URL of this Activity.
+         *
+         * @return The URL which would allow the user to continue this Activity.
+         */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * Gets and returns when this Activity was added.
+         *
+         * @return The time this Activity was written, from the store's Clock.
+         */
+        public long getAddedAt() {
+            return mAddedAt;
+        }
+    }
+
+    /**
+     * Listens for changes to users' Activities.
+     */
+    public interface Listener {
+
+        /**
+         * Handles when a user's Activity within an application changed.
+         *
+         * @param applicationName The name of the application.
+         * @param uid The uid of the user.
+         * @param activity The new Activity, or null if it was deleted.
+         */
+        void onActivityChanged(String applicationName, String uid, Activity activity);
+    }
+
+    // The number of locks writes are spread over, by the Activity they write.
+    private static final int LOCK_COUNT = 64;
+
+    private final Clock mClock;
+    private final Set<String> mApplicationNames;
+    private final Object[] mLocks = new Object[LOCK_COUNT];
+
+    // The Activities, keyed by "<applicationName>/<uid>".
+    private final ConcurrentMap<String, Activity> mActivities = new ConcurrentHashMap<>();
+
+    // The listeners, keyed the same way as the Activities they listen to.
+    private final ConcurrentMap<String, List<Listener>> mListeners = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new, empty ContinueStore.
+     *
+     * @param clock The Clock which addedAt is resolved with.
+     * @param applicationNames The names of the applications listed in the rules.
+     */
+    public ContinueStore(Clock clock, String... applicationNames) {
+        mClock = clock;
+        mApplicationNames = Collections.unmodifiableSet(
+                new HashSet<>(Arrays.asList(applicationNames)));
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Gets and returns the Clock which addedAt is resolved with.
+     *
+     * @return The Clock of this store.
+     */
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Deletes a user's Activity within an application, if there is one.
+     *
+     * @param authUid The uid of the signed in user making the write, or null if signed out.
+     * @param applicationName The name of the application.
+     * @param uid The uid of the user whose Activity to delete.
+     * @throws WriteRejectedException If the rules do not allow the write.
+     */
+    public void remove(String authUid, String applicationName, String uid)
+            throws WriteRejectedException {
+        checkCanWrite(authUid, applicationName, uid);
+
+        String key = getKey(applicationName, uid);
+        synchronized (getLock(key)) {
+            if (mActivities.remove(key) != null) {
+                notifyListeners(key, applicationName, uid, null);
+            }
+        }
+    }
+
+    /**
+     * Sets a user's Activity within an application, resolving its addedAt from the Clock.
+     *
+     * @param authUid The uid of the signed in user making the write, or null if signed out.
+     * @param applicationName The name of the application.
+     * @param uid The uid of the user whose Activity to set.
+     * @param url The URL of the Activity.
+     * @return The Activity that was set.
+     * @throws WriteRejectedException If the rules do not allow the write.
+     */
+    public Activity set(String authUid, String applicationName, String uid, String url)
+            throws WriteRejectedException {
+        checkCanWrite(authUid, applicationName, uid);
+        if (url == null) {
+            throw new WriteRejectedException("An Activity must have a url");
+        }
+
+        String key = getKey(applicationName, uid);
+        synchronized (getLock(key)) {
+            // Resolve addedAt while holding the lock, so writes to each Activity are applied (and
+            // timestamped) in a single order, as they are by the database. Since addedAt is
+            // always the time of the write, a replacement always meets the rules.
+            Activity activity = new Activity(url, mClock.now());
+            mActivities.put(key, activity);
+            notifyListeners(key, applicationName, uid, activity);
+
+            return activity;
+        }
+    }
+
+    /**
+     * Gets and returns a user's Activity within an application.
+     *
+     * @param applicationName The name of the application.
+     * @param uid The uid of the user.
+     * @return The Activity, or null if there is none.
+     */
+    public Activity get(String applicationName, String uid) {
+        return mActivities.get(getKey(applicationName, uid));
+    }
+
+    /**
+     * Gets and returns the number of Activities held, across all users and applications.
+     *
+     * @return The number of Activities.
+     */
+    public int size() {
+        return mActivities.size();
+    }
+
+    /**
+     * Adds a listener for changes to a user's Activity within an application.
+     *
+     * @param applicationName The name of the application.
+     * @param uid The uid of the user.
+     * @param listener The listener to add.
+     */
+    public void addListener(String applicationName, String uid, Listener listener) {
+        String key = getKey(applicationName, uid);
+        List<Listener> listeners = mListeners.get(key);
+        if (listeners == null) {
+            List<Listener> newListeners = new CopyOnWriteArrayList<>();
+            listeners = mListeners.putIfAbsent(key, newListeners);
+            if (listeners == null) {
+                listeners = newListeners;
+            }
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener(). This does nothing if it was not added.
+     *
+     * @param applicationName The name of the application.
+     * @param uid The uid of the user.
+     * @param listener The listener to remove.
+     */
+    public void removeListener(String applicationName, String uid, Listener listener) {
+        List<Listener> listeners = mListeners.get(getKey(applicationName, uid));
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Ensures the rules allow the signed in user to write the Activity.
+     */
+    private void checkCanWrite(String authUid, String applicationName, String uid)
+            throws WriteRejectedException {
+        if (authUid == null || !authUid.equals(uid)) {
+            throw new WriteRejectedException("Users may only write their own Activity");
+        }
+        if (!mApplicationNames.contains(applicationName)) {
+            throw new WriteRejectedException("Unknown application: " + applicationName);
+        }
+    }
+
+    private Object getLock(String key) {
+        return mLocks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_COUNT];
+    }
+
+    private void notifyListeners(String key, String applicationName, String uid,
+                                 Activity activity) {
+        List<Listener> listeners = mListeners.get(key);
+        if (listeners == null) {
+            return;
+        }
+
+        for (Listener listener : listeners) {
+            listener.onActivityChanged(applicationName, uid, activity);
+        }
+    }
+
+    private static String getKey(String applicationName, String uid) {
+        return applicationName + "/" + uid;
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A simulated connection between a client and the Firebase Realtime Database, which delivers
+ * messages (in both directions) in order, after a latency that faults are injected into.
+ *
+ * The faults mirror what a client actually experiences over its single WebSocket:
+ * <ul>
+ *     <li>Latency: each message takes a base latency, plus a uniformly random jitter.</li>
+ *     <li>Drops: a dropped packet is retransmitted by TCP after a timeout, which doubles with
+ *     each consecutive drop, so a drop delays the message (and everything after it) rather than
+ *     losing it.</li>
+ *     <li>Disconnects: the connection goes down at random (on average once per
+ *     disconnectEveryMillis) for disconnectForMillis. Messages sent while down, or still in
+ *     flight when it goes down, are sent again once it reconnects, since the client resends
+ *     unacknowledged writes and re-listens after reconnecting.</li>
+ * </ul>
+ */
+public final class FaultyLink {
+
+    /**
+     * The faults a FaultyLink injects.
+     */
+    public static final class Faults {
+
+        private final long mLatencyMillis;
+        private final long mJitterMillis;
+        private final double mDropRate;
+        private final long mRetransmitTimeoutMillis;
+        private final long mDisconnectEveryMillis;
+        private final long mDisconnectForMillis;
+
+        /**
+         * Constructs a new set of Faults.
+         *
+         * @param latencyMillis The one-way latency of every message.
+         * @param jitterMillis The maximum extra latency, chosen uniformly at random per message.
+         * @param dropRate The probability, from 0 to 1, that each transmission is dropped.
+         * @param retransmitTimeoutMillis How long until the first retransmission of a drop.
+         * @param disconnectEveryMillis The mean time between disconnects, or 0 for none.
+         * @param disconnectForMillis How long each disconnect lasts.
+         */
+        public Faults(long latencyMillis, long jitterMillis, double dropRate,
+                      long retransmitTimeoutMillis, long disconnectEveryMillis,
+                      long disconnectForMillis) {
+            if (latencyMillis < 0 || jitterMillis < 0 || dropRate < 0 || dropRate >= 1
+                    || retransmitTimeoutMillis <= 0 || disconnectEveryMillis < 0
+                    || disconnectForMillis < 0) {
+                throw new IllegalArgumentException("faults are invalid");
+            }
+
+            mLatencyMillis = latencyMillis;
+            mJitterMillis = jitterMillis;
+            mDropRate = dropRate;
+            mRetransmitTimeoutMillis = retransmitTimeoutMillis;
+            mDisconnectEveryMillis = disconnectEveryMillis;
+            mDisconnectForMillis = disconnectForMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "latency=" + mLatencyMillis + "ms"
+                    + ", jitter=" + mJitterMillis + "ms"
+                    + ", dropRate=" + mDropRate
+                    + ", retransmitTimeout=" + mRetransmitTimeoutMillis + "ms"
+                    + ", disconnectEvery=" + mDisconnectEveryMillis + "ms"
+                    + ", disconnectFor=" + mDisconnectForMillis + "ms";
+        }
+    }
+
+    // A period of time during which the connection is down.
+    private static final class Outage {
+
+        private final long mStart;
+        private final long mEnd;
+
+        private Outage(long start, long end) {
+            mStart = start;
+            mEnd = end;
+        }
+    }
+
+    private final Simulation mSimulation;
+    private final Faults mFaults;
+    private final Random mRandom;
+
+    // The outages generated so far, in order, along with when the next one starts.
+    private final List<Outage> mOutages = new ArrayList<>();
+    private long mNextOutageStart;
+
+    // When the most recently sent message arrives, since messages arrive in order.
+    private long mLastArrival = Long.MIN_VALUE;
+
+    private int mDropCount = 0;
+    private int mResendCount = 0;
+
+    /**
+     * Constructs a new FaultyLink.
+     *
+     * @param simulation The Simulation the link delivers messages within.
+     * @param faults The faults to inject.
+     * @param random The source of randomness for the faults.
+     */
+    public FaultyLink(Simulation simulation, Faults faults, Random random) {
+        mSimulation = simulation;
+        mFaults = faults;
+        mRandom = random;
+        mNextOutageStart = simulation.now() + nextOutageGap();
+    }
+
+    /**
+     * Sends a message over the link, which is delivered (by running the provided Runnable) once
+     * it arrives.
+     *
+     * @param delivery What to run when the message arrives.
+     */
+    public void send(Runnable delivery) {
+        long sentAt = mSimulation.now();
+        while (true) {
+            Outage outage = getOutageAt(sentAt);
+            if (outage != null) {
+                // The connection is down, so the message waits until it reconnects.
+                sentAt = outage.mEnd;
+                continue;
+            }
+
+            long arrival = Math.max(sentAt + getTransmitMillis(), mLastArrival);
+            Outage interruption = getOutageStartingWithin(sentAt, arrival);
+            if (interruption != null) {
+                // The connection went down while the message was in flight, so it is sent again
+                // once it reconnects.
+                mResendCount++;
+                sentAt = interruption.mEnd;
+                continue;
+            }
+
+            mLastArrival = arrival;
+            mSimulation.scheduleAt(arrival, delivery);
+            return;
+        }
+    }
+
+    /**
+     * Gets and returns the number of transmissions dropped so far.
+     *
+     * @return The number of drops.
+     */
+    public int getDropCount() {
+        return mDropCount;
+    }
+
+    /**
+     * Gets and returns the number of messages resent after a disconnect so far.
+     *
+     * @return The number of resends.
+     */
+    public int getResendCount() {
+        return mResendCount;
+    }
+
+    /**
+     * Gets and returns how long a single message takes to arrive once sent, including any
+     * retransmissions of it.
+     */
+    private long getTransmitMillis() {
+        long transmitMillis = mFaults.mLatencyMillis
+                + (long) (mRandom.nextDouble() * mFaults.mJitterMillis);
+        long retransmitTimeoutMillis = mFaults.mRetransmitTimeoutMillis;
+        while (mRandom.nextDouble() < mFaults.mDropRate) {
+            mDropCount++;
+            transmitMillis += retransmitTimeoutMillis;
+            retransmitTimeoutMillis *= 2;
+        }
+
+        return transmitMillis;
+    }
+
+    /**
+     * Gets and returns the outage the connection is in at the provided time, if any.
+     */
+    private Outage getOutageAt(long time) {
+        generateOutagesUntil(time);
+        for (Outage outage : mOutages) {
+            if (outage.mStart <= time && time < outage.mEnd) {
+                return outage;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets and returns the first outage which starts after the first time, and no later than the
+     * second, if any.
+     */
+    private Outage getOutageStartingWithin(long after, long until) {
+        generateOutagesUntil(until);
+        for (Outage outage : mOutages) {
+            if (outage.mStart > after && outage.mStart <= until) {
+                return outage;
+            }
+        }
+
+        return null;
+    }
+
+    private void generateOutagesUntil(long time) {
+        if (mFaults.mDisconnectEveryMillis == 0 || mFaults.mDisconnectForMillis == 0) {
+            return;
+        }
+
+        while (mNextOutageStart <= time) {
+            long end = mNextOutageStart + mFaults.mDisconnectForMillis;
+            mOutages.add(new Outage(mNextOutageStart, end));
+            mNextOutageStart = end + nextOutageGap();
+        }
+
+        // Outages which ended long before anything still to be sent can be forgotten.
+        while (mOutages.size() > 1 && mOutages.get(0).mEnd < mSimulation.now()) {
+            mOutages.remove(0);
+        }
+    }
+
+    /**
+     * Gets and returns a random time between outages, exponentially distributed so that
+     * disconnects happen at random, on average once per disconnectEveryMillis.
+     */
+    private long nextOutageGap() {
+        if (mFaults.mDisconnectEveryMillis == 0) {
+            return Long.MAX_VALUE / 2;
+        }
+
+        return (long) (-Math.log(1 - mRandom.nextDouble()) * mFaults.mDisconnectEveryMillis);
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures how long it takes from a broadcast on Android until an observer (i.e. a Chrome
+ * extension listening for the user's Activities) sees the Activity, while faults are injected
+ * into both of their connections to the database.
+ *
+ * A single user broadcasts Activities at a fixed interval using each WritePath of the library,
+ * against a ContinueStore, over FaultyLinks, all within a Simulation. The observer counts an
+ * Activity as seen once it receives it and it is not yet stale, as the Chrome extensions library
+ * does. The latency from each broadcast being started to its Activity being seen is then
+ * reported as p50/p95/p99.
+ *
+ * Usage (all arguments are optional):
+ * <pre>
+ *     LatencyHarness [--broadcasts 1000] [--interval-ms 2000] [--latency-ms 50]
+ *             [--jitter-ms 30] [--drop-rate 0] [--retransmit-timeout-ms 200]
+ *             [--disconnect-every-ms 0] [--disconnect-for-ms 0]
+ *             [--write-path remove-then-set|replace|all] [--seed 1]
+ * </pre>
+ */
+public final class LatencyHarness {
+
+    // How to run this harness, printed along with any problem with its arguments.
+    private static final String USAGE =
+            "LatencyHarness [--broadcasts 1000] [--interval-ms 2000] [--latency-ms 50]\n"
+            + "    [--jitter-ms 30] [--drop-rate 0] [--retransmit-timeout-ms 200]\n"
+            + "    [--disconnect-every-ms 0] [--disconnect-for-ms 0]\n"
+            + "    [--write-path remove-then-set|replace|all] [--seed 1]";
+
+    private static final String APPLICATION_NAME = "harness";
+    private static final String UID = "user";
+
+    // How long after an Activity is added it is no longer relevant to the user.
+    private static final long ACTIVITY_MAX_AGE_MILLIS = 300000;
+
+    // An arbitrary, fixed time to start each simulation at, so runs are reproducible.
+    private static final long START_TIME = 1500000000000L;
+
+    private final Simulation mSimulation = new Simulation(START_TIME);
+    private final ContinueStore mStore = new ContinueStore(mSimulation, APPLICATION_NAME);
+    private final WritePath mWritePath;
+    private final FaultyLink mBroadcasterLink;
+    private final FaultyLink mObserverLink;
+
+    // When each broadcast that has not been seen (or superseded) yet started, by index.
+    private final TreeMap<Integer, Long> mPendingBroadcasts = new TreeMap<>();
+
+    private final LatencyRecorder mLatencies = new LatencyRecorder();
+    private int mSupersededCount = 0;
+    private int mExpiredCount = 0;
+    private int mRejectedCount = 0;
+
+    private LatencyHarness(WritePath writePath, FaultyLink.Faults faults, long seed) {
+        mWritePath = writePath;
+        mBroadcasterLink = new FaultyLink(mSimulation, faults, new Random(seed));
+        mObserverLink = new FaultyLink(mSimulation, faults, new Random(seed + 1));
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments(args, USAGE);
+        int broadcastCount = (int) arguments.getLong("broadcasts", 1000);
+        long intervalMillis = arguments.getLong("interval-ms", 2000);
+        long latencyMillis = arguments.getLong("latency-ms", 50);
+        long jitterMillis = arguments.getLong("jitter-ms", 30);
+        double dropRate = arguments.getDouble("drop-rate", 0);
+        long retransmitTimeoutMillis = arguments.getLong("retransmit-timeout-ms", 200);
+        long disconnectEveryMillis = arguments.getLong("disconnect-every-ms", 0);
+        long disconnectForMillis = arguments.getLong("disconnect-for-ms", 0);
+        String writePathName = arguments.getString("write-path", "all");
+        long seed = arguments.getLong("seed", 1);
+        arguments.checkAllRead();
+
+        if (!writePathName.equals("all") && !WritePath.isName(writePathName)) {
+            throw arguments.exitWithUsage("Unknown write path: " + writePathName);
+        }
+        FaultyLink.Faults faults;
+        try {
+            faults = new FaultyLink.Faults(latencyMillis, jitterMillis, dropRate,
+                                           retransmitTimeoutMillis, disconnectEveryMillis,
+                                           disconnectForMillis);
+        } catch (IllegalArgumentException e) {
+            throw arguments.exitWithUsage(e.getMessage());
+        }
+
+        System.out.println("Faults: " + faults);
+        for (WritePath writePath : WritePath.values()) {
+            if (writePathName.equals("all") || writePath.getName().equals(writePathName)) {
+                LatencyHarness harness = new LatencyHarness(writePath, faults, seed);
+                harness.run(broadcastCount, intervalMillis);
+                harness.printReport();
+            }
+        }
+    }
+
+    private void run(int broadcastCount, long intervalMillis) {
+        // The observer listens for the user's Activity, as the Chrome extensions library does.
+        mStore.addListener(APPLICATION_NAME, UID, new ContinueStore.Listener() {
+            @Override
+            public void onActivityChanged(String applicationName, String uid,
+                                          final ContinueStore.Activity activity) {
+                mObserverLink.send(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleActivityObserved(activity);
+                    }
+                });
+            }
+        });
+
+        for (int i = 0; i < broadcastCount; i++) {
+            final int index = i;
+            mSimulation.scheduleAfter(i * intervalMillis, new Runnable() {
+                @Override
+                public void run() {
+                    mPendingBroadcasts.put(index, mSimulation.now());
+                    sendStage(index, 0);
+                }
+            });
+        }
+
+        mSimulation.run();
+    }
+
+    /**
+     * Sends one stage of a broadcast to the database, then sends the next stage once the
+     * database acknowledges it, as the library's Task chains do.
+     */
+    private void sendStage(final int index, final int stage) {
+        mBroadcasterLink.send(new Runnable() {
+            @Override
+            public void run() {
+                // The write has reached the database.
+                final boolean successful = applyStage(index, stage);
+                mBroadcasterLink.send(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The acknowledgement has reached the broadcaster.
+                        if (successful && stage + 1 < mWritePath.getStageCount()) {
+                            sendStage(index, stage + 1);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean applyStage(int index, int stage) {
+        try {
+            mWritePath.applyStage(stage, mStore, APPLICATION_NAME, UID, getActivityUrl(index));
+            return true;
+        } catch (WriteRejectedException e) {
+            mRejectedCount++;
+            mPendingBroadcasts.remove(index);
+            return false;
+        }
+    }
+
+    private void handleActivityObserved(ContinueStore.Activity activity) {
+        if (activity == null) {
+            return;
+        }
+
+        int index = getIndex(activity.getUrl());
+        Long startedAt = mPendingBroadcasts.get(index);
+        if (startedAt == null) {
+            // This Activity was already seen, or superseded by a later one.
+            return;
+        }
+
+        // Any earlier broadcast still pending can never be seen now.
+        int earlierCount = mPendingBroadcasts.headMap(index).size();
+        mSupersededCount += earlierCount;
+        mPendingBroadcasts.headMap(index, true).clear();
+
+        // The Chrome extensions library ignores Activities which are already stale.
+        if (activity.getAddedAt() < mSimulation.now() - ACTIVITY_MAX_AGE_MILLIS) {
+            mExpiredCount++;
+        } else {
+            mLatencies.record(mSimulation.now() - startedAt);
+        }
+    }
+
+    private void printReport() {
+        System.out.println(mWritePath.getName() + ":"
+                + " seen=" + mLatencies.getCount()
+                + " superseded=" + mSupersededCount
+                + " expired=" + mExpiredCount
+                + " rejected=" + mRejectedCount
+                + " neverSeen=" + mPendingBroadcasts.size()
+                + " drops=" + (mBroadcasterLink.getDropCount() + mObserverLink.getDropCount())
+                + " resends="
+                + (mBroadcasterLink.getResendCount() + mObserverLink.getResendCount()));
+        System.out.println("  broadcast-to-visible latency: " + mLatencies.getSummary("ms"));
+    }
+
+    private static String getActivityUrl(int index) {
+        return "https://example.com/harness/" + index;
+    }
+
+    private static int getIndex(String activityUrl) {
+        return Integer.parseInt(activityUrl.substring(activityUrl.lastIndexOf('/') + 1));
+    }
+}
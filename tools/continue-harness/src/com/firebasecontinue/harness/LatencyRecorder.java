@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+import java.util.Arrays;
+
+/**
+ * Records latencies and summarizes them as percentiles. This is thread-safe.
+ */
+public final class LatencyRecorder {
+
+    private long[] mLatencies = new long[1024];
+    private int mCount = 0;
+
+    /**
+     * Records a latency.
+     *
+     * @param latency The latency, in any unit, as long as every latency recorded uses the same.
+     */
+    public synchronized void record(long latency) {
+        if (mCount == mLatencies.length) {
+            mLatencies = Arrays.copyOf(mLatencies, mCount * 2);
+        }
+        mLatencies[mCount++] = latency;
+    }
+
+    /**
+     * Gets and returns the number of latencies recorded.
+     *
+     * @return The number of latencies.
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets and returns the latency which the provided percentage of recorded latencies are at or
+     * below, using the nearest-rank method.
+     *
+     * @param percentile The percentile, from 0 (exclusive) to 100 (inclusive).
+     * @return The latency at the percentile, or -1 if nothing was recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile is invalid");
+        }
+        if (mCount == 0) {
+            return -1;
+        }
+
+        long[] sorted = Arrays.copyOf(mLatencies, mCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * mCount);
+
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Gets and returns a one line summary of the recorded latencies.
+     *
+     * @param unit The unit of the latencies, such as "ms".
+     * @return The count, p50, p95, p99 and maximum latencies.
+     */
+    public synchronized String getSummary(String unit) {
+        return "n=" + mCount
+                + " p50=" + getPercentile(50) + unit
+                + " p95=" + getPercentile(95) + unit
+                + " p99=" + getPercentile(99) + unit
+                + " max=" + getPercentile(100) + unit;
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the library's write path for many simulated users at once against a ContinueStore, to
+ * see how broadcasting scales when users broadcast in bursts (such as at shift changes).
+ *
+ * Broadcasts arrive on an open-loop schedule following one of the arrival patterns below, and are
+ * applied by a fixed pool of workers with a bounded queue. A broadcast arriving while the queue
+ * is full is rejected, as is one the store's rules reject. The latency of each broadcast is
+ * measured from when it was scheduled to arrive, so time spent queued behind a burst counts.
+ *
+ * Arrival patterns:
+ * <ul>
+ *     <li>constant: broadcasts arrive at a fixed rate, from users chosen at random.</li>
+ *     <li>poisson: broadcasts arrive at random at an average rate, from users chosen at
+ *     random.</li>
+ *     <li>burst: every burst-every-ms, every user broadcasts once, at a random time within
+ *     burst-spread-ms.</li>
+ * </ul>
+ *
+ * When any of the max-p99-ms, min-throughput or max-rejected-fraction gates are given and not
+ * met, the process exits with status 1, so this can be run in CI as a regression gate.
+ *
+ * Usage (all arguments are optional):
+ * <pre>
+ *     LoadGenerator [--users 10000] [--pattern constant|poisson|burst] [--rate 5000]
+ *             [--burst-every-ms 5000] [--burst-spread-ms 1000] [--duration-ms 10000]
+ *             [--write-path remove-then-set|replace] [--threads 4] [--queue-capacity 10000]
+ *             [--seed 1] [--max-p99-ms -1] [--min-throughput -1]
+ *             [--max-rejected-fraction -1]
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    // How to run this harness, printed along with any problem with its arguments.
+    private static final String USAGE =
+            "LoadGenerator [--users 10000] [--pattern constant|poisson|burst] [--rate 5000]\n"
+            + "    [--burst-every-ms 5000] [--burst-spread-ms 1000] [--duration-ms 10000]\n"
+            + "    [--write-path remove-then-set|replace] [--threads 4] [--queue-capacity 10000]\n"
+            + "    [--seed 1] [--max-p99-ms -1] [--min-throughput -1]\n"
+            + "    [--max-rejected-fraction -1]";
+
+    private static final String APPLICATION_NAME = "load";
+
+    private final int mUserCount;
+    private final WritePath mWritePath;
+    private final ContinueStore mStore = new ContinueStore(Clock.SYSTEM, APPLICATION_NAME);
+    private final ThreadPoolExecutor mExecutor;
+
+    private final LatencyRecorder mLatencies = new LatencyRecorder();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mOverloadedCount = new AtomicLong();
+    private final AtomicLong mRuleRejectedCount = new AtomicLong();
+    private final AtomicLong mNotificationCount = new AtomicLong();
+    private final AtomicLong mLastCompletionNanos = new AtomicLong();
+
+    private LoadGenerator(int userCount, WritePath writePath, int threadCount,
+                          int queueCapacity) {
+        mUserCount = userCount;
+        mWritePath = writePath;
+        mExecutor = new ThreadPoolExecutor(
+                threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Arguments arguments = new Arguments(args, USAGE);
+        int userCount = (int) arguments.getLong("users", 10000);
+        String pattern = arguments.getString("pattern", "burst");
+        double rate = arguments.getDouble("rate", 5000);
+        long burstEveryMillis = arguments.getLong("burst-every-ms", 5000);
+        long burstSpreadMillis = arguments.getLong("burst-spread-ms", 1000);
+        long durationMillis = arguments.getLong("duration-ms", 10000);
+        String writePathName = arguments.getString("write-path", "replace");
+        int threadCount = (int) arguments.getLong("threads", 4);
+        int queueCapacity = (int) arguments.getLong("queue-capacity", 10000);
+        long seed = arguments.getLong("seed", 1);
+        double maxP99Millis = arguments.getDouble("max-p99-ms", -1);
+        double minThroughput = arguments.getDouble("min-throughput", -1);
+        double maxRejectedFraction = arguments.getDouble("max-rejected-fraction", -1);
+        arguments.checkAllRead();
+
+        if (userCount <= 0 || rate <= 0 || burstEveryMillis <= 0 || burstSpreadMillis < 0
+                || durationMillis <= 0 || threadCount <= 0 || queueCapacity <= 0) {
+            throw arguments.exitWithUsage("Arguments must be positive");
+        }
+        if (!WritePath.isName(writePathName)) {
+            throw arguments.exitWithUsage("Unknown write path: " + writePathName);
+        }
+        WritePath writePath = WritePath.forName(writePathName);
+
+        Random random = new Random(seed);
+        List<Arrival> arrivals;
+        if (pattern.equals("constant")) {
+            arrivals = createSteadyArrivals(userCount, rate, durationMillis, false, random);
+        } else if (pattern.equals("poisson")) {
+            arrivals = createSteadyArrivals(userCount, rate, durationMillis, true, random);
+        } else if (pattern.equals("burst")) {
+            arrivals = createBurstArrivals(
+                    userCount, burstEveryMillis, burstSpreadMillis, durationMillis, random);
+        } else {
+            throw arguments.exitWithUsage("Unknown arrival pattern: " + pattern);
+        }
+
+        System.out.println("users=" + userCount + " pattern=" + pattern
+                + " broadcasts=" + arrivals.size() + " writePath=" + writePath.getName()
+                + " threads=" + threadCount + " queueCapacity=" + queueCapacity);
+        LoadGenerator generator =
+                new LoadGenerator(userCount, writePath, threadCount, queueCapacity);
+        boolean passed = generator.run(arrivals)
+                .check(arrivals.size(), maxP99Millis, minThroughput, maxRejectedFraction);
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * A broadcast by a user, scheduled to arrive some time after the run starts.
+     */
+    private static final class Arrival implements Comparable<Arrival> {
+
+        private final long mOffsetNanos;
+        private final int mUser;
+
+        private Arrival(long offsetNanos, int user) {
+            mOffsetNanos = offsetNanos;
+            mUser = user;
+        }
+
+        @Override
+        public int compareTo(Arrival other) {
+            return (mOffsetNanos < other.mOffsetNanos)
+                    ? -1 : ((mOffsetNanos == other.mOffsetNanos) ? 0 : 1);
+        }
+    }
+
+    private static List<Arrival> createSteadyArrivals(int userCount, double rate,
+                                                      long durationMillis, boolean poisson,
+                                                      Random random) {
+        List<Arrival> arrivals = new ArrayList<>();
+        double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        double offsetNanos = 0;
+        while (offsetNanos < durationNanos) {
+            arrivals.add(new Arrival((long) offsetNanos, random.nextInt(userCount)));
+            offsetNanos += poisson
+                    ? -Math.log(1 - random.nextDouble()) * meanGapNanos : meanGapNanos;
+        }
+
+        return arrivals;
+    }
+
+    private static List<Arrival> createBurstArrivals(int userCount, long burstEveryMillis,
+                                                     long burstSpreadMillis,
+                                                     long durationMillis, Random random) {
+        List<Arrival> arrivals = new ArrayList<>();
+        for (long burstStart = 0; burstStart < durationMillis; burstStart += burstEveryMillis) {
+            long burstStartNanos = TimeUnit.MILLISECONDS.toNanos(burstStart);
+            long spreadNanos = TimeUnit.MILLISECONDS.toNanos(burstSpreadMillis);
+            for (int user = 0; user < userCount; user++) {
+                arrivals.add(new Arrival(
+                        burstStartNanos + (long) (random.nextDouble() * spreadNanos), user));
+            }
+        }
+        Collections.sort(arrivals);
+
+        return arrivals;
+    }
+
+    /**
+     * Applies every arrival on schedule, then waits for all of them to complete or be rejected.
+     */
+    private Report run(List<Arrival> arrivals) throws InterruptedException {
+        // Each user has an observer listening for their Activity, as a Chrome extension would.
+        ContinueStore.Listener observer = new ContinueStore.Listener() {
+            @Override
+            public void onActivityChanged(String applicationName, String uid,
+                                          ContinueStore.Activity activity) {
+                mNotificationCount.incrementAndGet();
+            }
+        };
+        for (int user = 0; user < mUserCount; user++) {
+            mStore.addListener(APPLICATION_NAME, getUid(user), observer);
+        }
+
+        final long startNanos = System.nanoTime();
+        for (final Arrival arrival : arrivals) {
+            final long arrivalNanos = startNanos + arrival.mOffsetNanos;
+            long waitNanos;
+            while ((waitNanos = arrivalNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        broadcast(arrival, arrivalNanos);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                mOverloadedCount.incrementAndGet();
+            }
+        }
+
+        mExecutor.shutdown();
+        mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        long elapsedNanos = Math.max(mLastCompletionNanos.get() - startNanos, 1);
+        return new Report(elapsedNanos);
+    }
+
+    private void broadcast(Arrival arrival, long arrivalNanos) {
+        String uid = getUid(arrival.mUser);
+        try {
+            mWritePath.apply(mStore, APPLICATION_NAME, uid,
+                             "https://example.com/load/" + uid + "/" + arrival.mOffsetNanos);
+        } catch (WriteRejectedException e) {
+            mRuleRejectedCount.incrementAndGet();
+            return;
+        }
+
+        long completionNanos = System.nanoTime();
+        mLatencies.record(TimeUnit.NANOSECONDS.toMicros(completionNanos - arrivalNanos));
+        mCompletedCount.incrementAndGet();
+
+        long lastCompletionNanos;
+        do {
+            lastCompletionNanos = mLastCompletionNanos.get();
+        } while (completionNanos > lastCompletionNanos
+                && !mLastCompletionNanos.compareAndSet(lastCompletionNanos, completionNanos));
+    }
+
+    private static String getUid(int user) {
+        return "user" + user;
+    }
+
+    /**
+     * The results of a run.
+     */
+    private final class Report {
+
+        private final long mElapsedNanos;
+
+        private Report(long elapsedNanos) {
+            mElapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Prints the results, then checks them against the provided gates (each ignored if
+         * negative).
+         *
+         * @return Whether or not every gate was met.
+         */
+        private boolean check(int broadcastCount, double maxP99Millis, double minThroughput,
+                              double maxRejectedFraction) {
+            double throughput = mCompletedCount.get()
+                    / (mElapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+            long rejectedCount = mOverloadedCount.get() + mRuleRejectedCount.get();
+            double rejectedFraction = rejectedCount / (double) broadcastCount;
+            double p99Millis = mLatencies.getPercentile(99) / 1000.0;
+
+            System.out.println("completed=" + mCompletedCount.get()
+                    + " rejected=" + rejectedCount
+                    + " (overloaded=" + mOverloadedCount.get()
+                    + ", rules=" + mRuleRejectedCount.get() + ")"
+                    + " activities=" + mStore.size()
+                    + " notifications=" + mNotificationCount.get());
+            System.out.println(String.format("throughput=%.0f broadcasts/s", throughput));
+            System.out.println("latency: " + mLatencies.getSummary("us"));
+
+            boolean passed = true;
+            if (maxP99Millis >= 0 && (mLatencies.getCount() == 0 || p99Millis > maxP99Millis)) {
+                System.out.println(
+                        "FAIL: p99 latency " + p99Millis + "ms > " + maxP99Millis + "ms");
+                passed = false;
+            }
+            if (minThroughput >= 0 && throughput < minThroughput) {
+                System.out.println(String.format(
+                        "FAIL: throughput %.0f/s < %.0f/s", throughput, minThroughput));
+                passed = false;
+            }
+            if (maxRejectedFraction >= 0 && rejectedFraction > maxRejectedFraction) {
+                System.out.println("FAIL: rejected fraction " + rejectedFraction + " > "
+                        + maxRejectedFraction);
+                passed = false;
+            }
+            if (passed) {
+                System.out.println("PASS");
+            }
+
+            return passed;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+import java.util.PriorityQueue;
+
+/**
+ * A discrete-event simulation: Runnables scheduled at points in virtual time, run one at a time
+ * in order of time (and, for equal times, of scheduling).
+ *
+ * The simulation is also the Clock of anything running within it, so a run is deterministic and
+ * takes as long as its events take to run, however much virtual time passes.
+ */
+public final class Simulation implements Clock {
+
+    private static final class Event implements Comparable<Event> {
+
+        private final long mTime;
+        private final long mSequence;
+        private final Runnable mRunnable;
+
+        private Event(long time, long sequence, Runnable runnable) {
+            mTime = time;
+            mSequence = sequence;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (mTime != other.mTime) {
+                return (mTime < other.mTime) ? -1 : 1;
+            }
+
+            return (mSequence < other.mSequence) ? -1 : ((mSequence == other.mSequence) ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<Event> mEvents = new PriorityQueue<>();
+    private long mNow;
+    private long mSequence = 0;
+
+    /**
+     * Constructs a new Simulation.
+     *
+     * @param startTime The virtual time the simulation starts at, in milliseconds since the epoch.
+     */
+    public Simulation(long startTime) {
+        mNow = startTime;
+    }
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+    /**
+     * Schedules the provided Runnable to run at the provided virtual time, or right away (after
+     * anything else scheduled for now) if that time has passed.
+     *
+     * @param time When to run, in milliseconds since the epoch.
+     * @param runnable What to run.
+     */
+    public void scheduleAt(long time, Runnable runnable) {
+        mEvents.add(new Event(Math.max(time, mNow), mSequence++, runnable));
+    }
+
+    /**
+     * Schedules the provided Runnable to run after the provided delay.
+     *
+     * @param delayMillis How long from now to run, in milliseconds.
+     * @param runnable What to run.
+     */
+    public void scheduleAfter(long delayMillis, Runnable runnable) {
+        scheduleAt(mNow + delayMillis, runnable);
+    }
+
+    /**
+     * Runs every scheduled event, including those scheduled while running, until none are left.
+     */
+    public void run() {
+        Event event;
+        while ((event = mEvents.poll()) != null) {
+            mNow = event.mTime;
+            event.mRunnable.run();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the cold start time of Continote for Android (or any other app) on a connected device,
+ * before and after a change: each of the two builds is installed in turn, then started from
+ * scratch a number of times, and the time until its first frame is drawn is reported as
+ * p50/p95/p99.
+ *
+ * Unlike the other harnesses, this needs a device (or an emulator) and adb, since startup time
+ * depends on the Android framework and the SDKs the app initializes. Each start is made with
+ * "am start -W" after force stopping the app, so the process is always created anew, and its
+ * TotalTime (the time from the launch until the first frame of the Activity is drawn, as the
+ * platform measures it) is recorded.
+ *
+ * If only after-apk is given, or neither is, the build already installed is measured as the
+ * "before" (or only) build. When the max-regression-ms gate is given and the after build's p50 is
+ * slower than the before build's by more than that, the process exits with status 1.
+ *
+ * Usage (all arguments are optional):
+ * <pre>
+ *     StartupBenchmark [--before-apk ""] [--after-apk ""] [--runs 20] [--warmup-runs 2]
+ *             [--package com.firebasecontinue.sample.continote] [--activity .MainActivity]
+ *             [--adb adb] [--max-regression-ms -1]
+ * </pre>
+ */
+public final class StartupBenchmark {
+
+    // How to run this harness, printed along with any problem with its arguments.
+    private static final String USAGE =
+            "StartupBenchmark [--before-apk \"\"] [--after-apk \"\"] [--runs 20]\n"
+            + "    [--warmup-runs 2] [--package com.firebasecontinue.sample.continote]\n"
+            + "    [--activity .MainActivity] [--adb adb] [--max-regression-ms -1]";
+
+    private static final Pattern TOTAL_TIME_PATTERN = Pattern.compile("TotalTime: (\\d+)");
+
+    private final String mAdb;
+    private final String mPackageName;
+    private final String mActivityName;
+
+    private StartupBenchmark(String adb, String packageName, String activityName) {
+        mAdb = adb;
+        mPackageName = packageName;
+        mActivityName = activityName;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Arguments arguments = new Arguments(args, USAGE);
+        String beforeApk = arguments.getString("before-apk", "");
+        String afterApk = arguments.getString("after-apk", "");
+        int runCount = (int) arguments.getLong("runs", 20);
+        int warmupRunCount = (int) arguments.getLong("warmup-runs", 2);
+        String packageName =
+                arguments.getString("package", "com.firebasecontinue.sample.continote");
+        String activityName = arguments.getString("activity", ".MainActivity");
+        String adb = arguments.getString("adb", "adb");
+        double maxRegressionMillis = arguments.getDouble("max-regression-ms", -1);
+        arguments.checkAllRead();
+
+        if (runCount <= 0 || warmupRunCount < 0) {
+            throw arguments.exitWithUsage("Arguments must be positive");
+        }
+
+        StartupBenchmark benchmark = new StartupBenchmark(adb, packageName, activityName);
+        LatencyRecorder before = benchmark.measure(beforeApk, runCount, warmupRunCount);
+        System.out.println("before: " + before.getSummary("ms"));
+        if (afterApk.isEmpty()) {
+            System.exit(0);
+        }
+
+        LatencyRecorder after = benchmark.measure(afterApk, runCount, warmupRunCount);
+        System.out.println("after: " + after.getSummary("ms"));
+
+        long regressionMillis = after.getPercentile(50) - before.getPercentile(50);
+        System.out.println("p50 change: " + ((regressionMillis > 0) ? "+" : "")
+                + regressionMillis + "ms");
+
+        boolean passed = maxRegressionMillis < 0 || regressionMillis <= maxRegressionMillis;
+        System.out.println(passed ? "PASS" : "FAIL: p50 regressed by " + regressionMillis
+                + "ms > " + maxRegressionMillis + "ms");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Installs the provided APK (unless it is empty), then cold starts the app the provided number
+     * of times after the provided number of unrecorded warm-up starts.
+     *
+     * @return The time from each recorded launch until the first frame was drawn, in milliseconds.
+     */
+    private LatencyRecorder measure(String apk, int runCount, int warmupRunCount)
+            throws IOException, InterruptedException {
+        if (!apk.isEmpty()) {
+            System.out.println("Installing " + apk);
+            runAdb("install", "-r", "-d", apk);
+        }
+
+        LatencyRecorder startupTimes = new LatencyRecorder();
+        for (int run = 0; run < warmupRunCount + runCount; run++) {
+            runAdb("shell", "am", "force-stop", mPackageName);
+            String output = runAdb(
+                    "shell", "am", "start", "-W", "-n", mPackageName + "/" + mActivityName);
+
+            Matcher matcher = TOTAL_TIME_PATTERN.matcher(output);
+            if (!matcher.find()) {
+                throw new IllegalStateException("Could not find the startup time in: " + output);
+            }
+            if (run >= warmupRunCount) {
+                startupTimes.record(Long.parseLong(matcher.group(1)));
+            }
+        }
+        runAdb("shell", "am", "force-stop", mPackageName);
+
+        return startupTimes;
+    }
+
+    /**
+     * Runs adb with the provided arguments and waits for it to finish.
+     *
+     * @return Everything adb printed.
+     */
+    private String runAdb(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(mAdb);
+        command.addAll(Arrays.asList(args));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream input = process.getInputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+
+        String outputText = output.toString("UTF-8");
+        if (process.waitFor() != 0 || outputText.contains("Error")) {
+            throw new IllegalStateException(command + " failed: " + outputText);
+        }
+
+        return outputText;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+/**
+ * The ways the Firebase Continue for Android library writes a broadcast Activity, as the
+ * sequence of writes each one makes to the firebaseContinue subtree.
+ *
+ * Each stage is a separate round trip: the library waits for the database to acknowledge a stage
+ * before sending the next one. These mirror the Task chains in FirebaseContinue, which cannot run
+ * on a plain JVM since they are bound to the Firebase SDK for Android, and must be kept in step
+ * with them.
+ */
+public enum WritePath {
+
+    /**
+     * FirebaseContinue.broadcastActivityToContinue(activityUrl, applicationName): any existing
+     * Activity is deleted, then the new Activity is set.
+     */
+    REMOVE_THEN_SET("remove-then-set", 2) {
+        @Override
+        ContinueStore.Activity applyStage(int stage, ContinueStore store, String applicationName,
+                                          String uid, String activityUrl)
+                throws WriteRejectedException {
+            if (stage == 0) {
+                store.remove(uid, applicationName, uid);
+                return null;
+            }
+
+            return store.set(uid, applicationName, uid, activityUrl);
+        }
+    },
+
+    /**
+     * FirebaseContinue.broadcastActivityToContinue(activityUrl, applicationName,
+     * additionalUpdates): the new Activity replaces any existing one in a single multi-path
+     * update. (ActivityKeepAlive's refreshes replace the Activity the same way, after first
+     * reading it to check that it is still the most recent one.)
+     */
+    REPLACE("replace", 1) {
+        @Override
+        ContinueStore.Activity applyStage(int stage, ContinueStore store, String applicationName,
+                                          String uid, String activityUrl)
+                throws WriteRejectedException {
+            return store.set(uid, applicationName, uid, activityUrl);
+        }
+    };
+
+    private final String mName;
+    private final int mStageCount;
+
+    WritePath(String name, int stageCount) {
+        mName = name;
+        mStageCount = stageCount;
+    }
+
+    /**
+     * Gets and returns the name of this WritePath, as used on the command line.
+     *
+     * @return The name of this WritePath.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets and returns the number of stages (i.e. round trips) this WritePath makes.
+     *
+     * @return The number of stages.
+     */
+    public int getStageCount() {
+        return mStageCount;
+    }
+
+    /**
+     * Applies one stage of a broadcast to the store, as the signed in user.
+     *
+     * @param stage The index of the stage, from 0 to getStageCount() - 1.
+     * @param store The store to write to.
+     * @param applicationName The name of the application the Activity is within.
+     * @param uid The uid of the signed in user.
+     * @param activityUrl The URL of the Activity being broadcast.
+     * @return The Activity that was set, or null if the stage does not set one.
+     * @throws WriteRejectedException If the store rejected the write.
+     */
+    abstract ContinueStore.Activity applyStage(int stage, ContinueStore store,
+                                               String applicationName, String uid,
+                                               String activityUrl)
+            throws WriteRejectedException;
+
+    /**
+     * Applies every stage of a broadcast to the store in order, as the signed in user, with no
+     * time between them.
+     *
+     * @param store The store to write to.
+     * @param applicationName The name of the application the Activity is within.
+     * @param uid The uid of the signed in user.
+     * @param activityUrl The URL of the Activity being broadcast.
+     * @return The Activity that was set.
+     * @throws WriteRejectedException If the store rejected any of the writes.
+     */
+    public ContinueStore.Activity apply(ContinueStore store, String applicationName, String uid,
+                                        String activityUrl)
+            throws WriteRejectedException {
+        ContinueStore.Activity activity = null;
+        for (int stage = 0; stage < mStageCount; stage++) {
+            activity = applyStage(stage, store, applicationName, uid, activityUrl);
+        }
+
+        return activity;
+    }
+
+    /**
+     * Gets and returns whether or not there is a WritePath with the provided name.
+     *
+     * @param name The name, as returned by getName().
+     * @return true if forName() would find a WritePath with the name.
+     */
+    public static boolean isName(String name) {
+        for (WritePath writePath : values()) {
+            if (writePath.mName.equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds the WritePath with the provided name.
+     *
+     * @param name The name, as returned by getName().
+     * @return The WritePath.
+     * @throws IllegalArgumentException If there is no WritePath with the name.
+     */
+    public static WritePath forName(String name) {
+        for (WritePath writePath : values()) {
+            if (writePath.mName.equals(name)) {
+                return writePath;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown write path: " + name);
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.firebasecontinue.harness;
+
+/**
+ * Signals that the stand-in Firebase Realtime Database rejected a write, as the real database
+ * does with a "Permission denied" DatabaseError when a write breaks the Firebase Continue rules.
+ */
+public class WriteRejectedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new WriteRejectedException.
+     *
+     * @param message Why the write was rejected.
+     */
+    public WriteRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,245 @@
+#!/usr/bin/env node
+/**
+ * Copyright (c) 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Deletes every expired Firebase Continue Activity within an application.
+ *
+ * An Activity expires 5 minutes after it is added, after which no library
+ * will ever offer it to the user again, but it is otherwise only deleted when
+ * a client happens to dismiss it. This pages through every user's slot within
+ * firebaseContinue/<application> and deletes the expired Activities.
+ *
+ * Each expired Activity is deleted in its own transaction, so an Activity
+ * broadcast by the user while this runs is never deleted.
+ *
+ * Usage:
+ *   sweep-expired-activities.js --database-url <url> --application <name>
+ *       [--page-size <n>] [--emulator <host:port>] [--dry-run]
+ *
+ * Outside of the emulator, credentials are taken from the environment (see
+ * GOOGLE_APPLICATION_CREDENTIALS).
+ */
+'use strict';
+
+/**
+ * How long after an Activity is added it is no longer relevant to the user.
+ * This must match the window enforced by the Firebase Continue database rules
+ * and the libraries.
+ *
+ * @type {!number}
+ * @const
+ */
+var ACTIVITY_MAX_AGE_IN_MS = 300000;
+
+/**
+ * The number of user slots read from the database at a time.
+ *
+ * @type {!number}
+ * @const
+ */
+var DEFAULT_PAGE_SIZE = 500;
+
+/**
+ * Parses the command line arguments.
+ *
+ * @param {!Array<string>} args - The command line arguments, after the script.
+ * @returns {!Object} The options, keyed by name.
+ */
+var parseArgs = function(args) {
+  var options = {
+    pageSize: DEFAULT_PAGE_SIZE,
+    dryRun: false
+  };
+  for (var i = 0; i < args.length; i++) {
+    switch (args[i]) {
+      case '--database-url':
+        options.databaseUrl = args[++i];
+        break;
+      case '--application':
+        options.application = args[++i];
+        break;
+      case '--page-size':
+        options.pageSize = parseInt(args[++i], 10);
+        break;
+      case '--emulator':
+        options.emulator = args[++i];
+        break;
+      case '--dry-run':
+        options.dryRun = true;
+        break;
+      default:
+        throw new Error('Unknown argument: ' + args[i]);
+    }
+  }
+
+  if (!options.databaseUrl || !options.application ||
+      !(options.pageSize > 0)) {
+    throw new Error(
+        'Usage: sweep-expired-activities.js --database-url <url> ' +
+        '--application <name> [--page-size <n>] [--emulator <host:port>] ' +
+        '[--dry-run]');
+  }
+
+  return options;
+};
+
+/**
+ * Determines whether or not the provided Activity has expired.
+ *
+ * @param {?Object} activity - The Activity, or null if there is none.
+ * @param {!number} expiredBefore - The server time before which an Activity
+ *     must have been added to have expired.
+ * @returns {!boolean}
+ */
+var isActivityExpired = function(activity, expiredBefore) {
+  if (!activity) {
+    return false;
+  }
+
+  // An Activity always has metadata with addedAt set, but just in case,
+  // consider the Activity expired if either is unset.
+  if (!activity.metadata || typeof activity.metadata.addedAt !== 'number') {
+    return true;
+  }
+
+  return activity.metadata.addedAt < expiredBefore;
+};
+
+/**
+ * Deletes the Activity at the provided reference, but only if it has still
+ * expired by the time it is deleted.
+ *
+ * @param {!Object} activityRef - The reference to a user's slot.
+ * @param {!number} expiredBefore - See isActivityExpired().
+ * @returns {!Promise<boolean>} Whether or not the Activity was deleted.
+ */
+var deleteActivityIfExpired = function(activityRef, expiredBefore) {
+  return activityRef.transaction(function(activity) {
+    if (activity === null) {
+      // Either there is no Activity, or it is not known locally yet, in which
+      // case the transaction is retried with its current value.
+      return null;
+    }
+
+    // Returning undefined aborts the transaction, keeping the Activity.
+    return isActivityExpired(activity, expiredBefore) ? null : undefined;
+  }).then(function(result) {
+    return result.committed && result.snapshot.val() === null;
+  });
+};
+
+/**
+ * Pages through every user's slot within the application, deleting each
+ * expired Activity.
+ *
+ * @param {!Object} database - The Firebase Realtime Database.
+ * @param {!Object} options - See parseArgs().
+ * @returns {!Promise<!Object>} The numbers of slots scanned and deleted.
+ */
+var sweep = function(database, options) {
+  var applicationRef =
+      database.ref('firebaseContinue').child(options.application);
+  var stats = {scanned: 0, expired: 0, deleted: 0};
+
+  return database.ref('.info/serverTimeOffset').once('value')
+      .then(function(offsetSnapshot) {
+        var expiredBefore = Date.now() + (offsetSnapshot.val() || 0) -
+            ACTIVITY_MAX_AGE_IN_MS;
+
+        // Read one page of slots at a time, each starting with the last slot
+        // of the previous page.
+        var sweepPage = function(lastKey) {
+          var query = applicationRef.orderByKey();
+          query = (lastKey === null) ?
+              query.limitToFirst(options.pageSize) :
+              query.startAt(lastKey).limitToFirst(options.pageSize + 1);
+
+          return query.once('value').then(function(page) {
+            var expiredRefs = [];
+            var pageSize = 0;
+            var newLastKey = lastKey;
+            page.forEach(function(slot) {
+              if (slot.key === lastKey) {
+                return false;
+              }
+
+              pageSize++;
+              newLastKey = slot.key;
+              if (isActivityExpired(slot.val(), expiredBefore)) {
+                expiredRefs.push(slot.ref);
+              }
+              return false;
+            });
+            stats.scanned += pageSize;
+            stats.expired += expiredRefs.length;
+
+            var deletions = options.dryRun ? [] :
+                expiredRefs.map(function(activityRef) {
+                  return deleteActivityIfExpired(activityRef, expiredBefore);
+                });
+            return Promise.all(deletions).then(function(deleted) {
+              stats.deleted += deleted.filter(Boolean).length;
+              console.log('Scanned ' + stats.scanned + ' slots, ' +
+                          stats.expired + ' expired, ' +
+                          stats.deleted + ' deleted');
+
+              return (pageSize === options.pageSize) ?
+                  sweepPage(newLastKey) : stats;
+            });
+          });
+        };
+
+        return sweepPage(null);
+      });
+};
+
+if (require.main === module) {
+  var options;
+  try {
+    options = parseArgs(process.argv.slice(2));
+  } catch (error) {
+    console.error(error.message);
+    process.exit(2);
+  }
+
+  // The Admin SDK connects to the emulator instead of the real database when
+  // this is set.
+  if (options.emulator) {
+    process.env.FIREBASE_DATABASE_EMULATOR_HOST = options.emulator;
+  }
+
+  var admin = require('firebase-admin');
+  var app = admin.initializeApp({
+    credential: options.emulator ?
+        undefined : admin.credential.applicationDefault(),
+    databaseURL: options.databaseUrl
+  });
+
+  sweep(app.database(), options).then(function(stats) {
+    console.log('Done: ' + JSON.stringify(stats));
+    return app.delete();
+  }).catch(function(error) {
+    console.error(error);
+    process.exitCode = 1;
+    return app.delete();
+  });
+}
+
+module.exports = {
+  isActivityExpired: isActivityExpired,
+  sweep: sweep
+};